@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.sun.net.httpserver.HttpServer;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local HTTP server for the benchmarks that answers every request with the same JSON document of a given size after
+ * a fixed latency.
+ */
+final class BenchmarkServer implements Closeable {
+
+  static final Schema INPUT = Schema.recordOf(
+    "input",
+    Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("tenant", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+  static final Schema OUTPUT = Schema.recordOf(
+    "output",
+    Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("tenant", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("id", Schema.nullableOf(Schema.of(Schema.Type.LONG))),
+    Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("score", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))),
+    Schema.Field.of("response", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  static {
+    // otherwise the response body waits for the acknowledgement of the separately written headers
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final byte[] body;
+
+  /**
+   * @param latencyMillis time the server waits before answering each request
+   * @param payloadBytes approximate size of the response body
+   */
+  BenchmarkServer(long latencyMillis, int payloadBytes) throws IOException {
+    this.body = payload(payloadBytes);
+    this.executor = Executors.newCachedThreadPool();
+    this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(executor);
+    server.createContext("/", exchange -> {
+      try {
+        if (latencyMillis > 0) {
+          TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        exchange.close();
+      }
+    });
+    server.start();
+  }
+
+  String url(int item) {
+    return "http://localhost:" + server.getAddress().getPort() + "/items/" + item;
+  }
+
+  byte[] getBody() {
+    return body;
+  }
+
+  /**
+   * Returns a JSON object with the fields of the output schema, padded to the given size.
+   */
+  static byte[] payload(int payloadBytes) {
+    String prefix = "{\"id\": 42, \"name\": \"Ada\", \"score\": 9.5, \"padding\": \"";
+    String suffix = "\"}";
+    char[] padding = new char[Math.max(0, payloadBytes - prefix.length() - suffix.length())];
+    Arrays.fill(padding, 'x');
+    return (prefix + new String(padding) + suffix).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
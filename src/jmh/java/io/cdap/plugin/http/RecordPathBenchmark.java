@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the steps {@link RecordProcessor} takes for every record apart from the request itself: resolving the
+ * credentials and headers, building the output record and decoding the response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordPathBenchmark {
+
+  private static final int TENANTS = 16;
+
+  @Param({"256", "16384"})
+  public int payloadBytes;
+
+  private StructuredRecord input;
+  private CredentialTable credentials;
+  private RecordProcessor processor;
+  private JsonProjection projection;
+  private byte[] body;
+
+  @Setup
+  public void setUp() throws IOException {
+    input = StructuredRecord.builder(BenchmarkServer.INPUT)
+      .set("url", "http://localhost/items/1")
+      .set("tenant", "tenant" + (TENANTS - 1))
+      .build();
+
+    HttpConfig config = new HttpConfig("url", BenchmarkServer.OUTPUT.toString());
+    config.httpresponseField = "response";
+    config.headers = "Accept:application/json,X-Client:benchmark";
+    config.authLookup = "tenant";
+    config.username = credentialMap("user");
+    config.password = credentialMap("secret");
+    credentials = CredentialTable.create(config);
+    // no request is sent, the processor only builds records
+    processor = new RecordProcessor(config);
+
+    HttpConfig projected = new HttpConfig("url", BenchmarkServer.OUTPUT.toString());
+    projected.fieldMappings = "id:$.id,name:$.name,score:$.score";
+    projection = projected.createProjection(BenchmarkServer.OUTPUT);
+    body = BenchmarkServer.payload(payloadBytes);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    processor.close();
+  }
+
+  private static String credentialMap(String prefix) {
+    StringBuilder json = new StringBuilder("{");
+    for (int i = 0; i < TENANTS; i++) {
+      json.append(i == 0 ? "" : ",").append("'tenant").append(i).append("':'").append(prefix).append(i).append("'");
+    }
+    return json.append("}").toString();
+  }
+
+  @Benchmark
+  public CredentialTable.Entry resolveCredentials() {
+    return credentials.lookup(input);
+  }
+
+  @Benchmark
+  public StructuredRecord buildRecord() {
+    return processor.newBuilder(input).set("response", "{}").build();
+  }
+
+  @Benchmark
+  public StructuredRecord decodeBody() {
+    return processor.newBuilder(input).set("response", new HttpResult(200, body).getBodyAsString()).build();
+  }
+
+  @Benchmark
+  public StructuredRecord decodeProjection() throws IOException {
+    StructuredRecord.Builder builder = processor.newBuilder(input);
+    projection.project(new ByteArrayInputStream(body), builder);
+    return builder.build();
+  }
+}
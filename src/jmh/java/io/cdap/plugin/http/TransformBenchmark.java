@@ -0,0 +1,165 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.etl.api.StageMetrics;
+import io.cdap.cdap.etl.api.TransformContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link HttpTransform#transform} end to end against a local server, with a new client for every record,
+ * with the pooled client of the stage, and with several requests in flight for a partition of records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformBenchmark {
+
+  // records processed by one invocation of the concurrent benchmark
+  private static final int PARTITION_SIZE = 64;
+
+  private static final StageMetrics METRICS = new StageMetrics() {
+    @Override
+    public void count(String metricName, int delta) {
+      // no-op
+    }
+
+    @Override
+    public void gauge(String metricName, long value) {
+      // no-op
+    }
+
+    @Override
+    public void pipelineCount(String metricName, int delta) {
+      // no-op
+    }
+
+    @Override
+    public void pipelineGauge(String metricName, long value) {
+      // no-op
+    }
+  };
+
+  // the transform only reads the metrics from its context
+  private static final TransformContext CONTEXT = (TransformContext) Proxy.newProxyInstance(
+    TransformContext.class.getClassLoader(), new Class<?>[] { TransformContext.class },
+    (proxy, method, args) -> "getMetrics".equals(method.getName()) ? METRICS : null);
+
+  @Param({"0", "5"})
+  public long latencyMillis;
+
+  @Param({"256", "16384"})
+  public int payloadBytes;
+
+  // 'body' writes the response into a field, 'projection' maps JSON paths of the response to fields
+  @Param({"body", "projection"})
+  public String output;
+
+  @Param({"8"})
+  public int maxConcurrentRequests;
+
+  private BenchmarkServer server;
+  private List<StructuredRecord> records;
+  private HttpTransform pooled;
+  private int next;
+
+  @Setup
+  public void setUp() throws Exception {
+    server = new BenchmarkServer(latencyMillis, payloadBytes);
+    records = new ArrayList<>(PARTITION_SIZE);
+    for (int i = 0; i < PARTITION_SIZE; i++) {
+      records.add(StructuredRecord.builder(BenchmarkServer.INPUT).set("url", server.url(i)).build());
+    }
+    pooled = new HttpTransform(config(1));
+    pooled.initialize(CONTEXT);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pooled.destroy();
+    server.close();
+  }
+
+  private HttpConfig config(int maxConcurrentRequests) {
+    HttpConfig config = new HttpConfig("url", BenchmarkServer.OUTPUT.toString());
+    config.httpresponseField = "response";
+    if ("projection".equals(output)) {
+      config.fieldMappings = "id:$.id,name:$.name,score:$.score";
+    }
+    config.maxConcurrentRequests = maxConcurrentRequests;
+    return config;
+  }
+
+  private StructuredRecord nextRecord() {
+    next = (next + 1) % PARTITION_SIZE;
+    return records.get(next);
+  }
+
+  @Benchmark
+  public void perRecordClient(Blackhole blackhole) throws Exception {
+    HttpTransform transform = new HttpTransform(config(1));
+    transform.initialize(CONTEXT);
+    try {
+      RecordCollector collector = new RecordCollector();
+      transform.transform(nextRecord(), collector);
+      blackhole.consume(collector.getRecords());
+    } finally {
+      transform.destroy();
+    }
+  }
+
+  @Benchmark
+  public void pooledClient(Blackhole blackhole) throws Exception {
+    RecordCollector collector = new RecordCollector();
+    pooled.transform(nextRecord(), collector);
+    blackhole.consume(collector.getRecords());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PARTITION_SIZE)
+  public void concurrent(Blackhole blackhole) throws IOException {
+    try (PartitionIterator iterator = new PartitionIterator(records.iterator(), config(maxConcurrentRequests),
+                                                            METRICS)) {
+      while (iterator.hasNext()) {
+        blackhole.consume(iterator.next());
+      }
+    }
+  }
+}
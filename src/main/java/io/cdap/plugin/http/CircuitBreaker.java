@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Per-host circuit breaker that fails requests fast while a host is down.
+ *
+ * After {@code threshold} consecutive failures the circuit of the host opens, and requests to it fail immediately
+ * instead of waiting for connection or read timeouts. Once the open time has passed, a single request is let through
+ * as a probe: if it succeeds the circuit closes, otherwise it opens again. A probe that ends without either, for
+ * example because it was interrupted, must be ended with {@link #endProbe}, so that the next request probes.
+ */
+public class CircuitBreaker {
+
+  private final int threshold;
+  private final long openNanos;
+  private final ConcurrentMap<String, Circuit> circuits;
+
+  public CircuitBreaker(int threshold, long openTime, TimeUnit unit) {
+    this.threshold = threshold;
+    this.openNanos = unit.toNanos(openTime);
+    this.circuits = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @return the circuit breaker configured for the stage, or {@code null} if it is disabled
+   */
+  @Nullable
+  public static CircuitBreaker create(HttpConfig config) {
+    int threshold = config.getCircuitBreakerThreshold();
+    return threshold > 0
+      ? new CircuitBreaker(threshold, config.getCircuitBreakerOpenTime(), TimeUnit.SECONDS) : null;
+  }
+
+  /**
+   * @return whether the request is the probe of a circuit whose open time has passed
+   * @throws OpenException if the circuit of the host is open
+   */
+  public boolean check(String host) throws OpenException {
+    return circuits.computeIfAbsent(host, key -> new Circuit()).check(host);
+  }
+
+  public void onSuccess(String host) {
+    circuits.computeIfAbsent(host, key -> new Circuit()).onSuccess();
+  }
+
+  public void onFailure(String host) {
+    circuits.computeIfAbsent(host, key -> new Circuit()).onFailure();
+  }
+
+  /**
+   * Ends a probe that neither succeeded nor failed, leaving the circuit open for the next request to probe.
+   */
+  public void endProbe(String host) {
+    circuits.computeIfAbsent(host, key -> new Circuit()).endProbe();
+  }
+
+  /**
+   * Thrown instead of sending a request to a host whose circuit is open.
+   */
+  public static class OpenException extends IOException {
+    public OpenException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * State of the circuit of one host.
+   */
+  private final class Circuit {
+    private int failures;
+    private boolean open;
+    private long openedAt;
+    private boolean probing;
+
+    private synchronized boolean check(String host) throws OpenException {
+      if (!open) {
+        return false;
+      }
+      if (probing || System.nanoTime() - openedAt < openNanos) {
+        throw new OpenException(
+          String.format("Circuit breaker for host %s is open after %d consecutive failures.", host, failures));
+      }
+      // half open: this request probes whether the host is back
+      probing = true;
+      return true;
+    }
+
+    private synchronized void onSuccess() {
+      failures = 0;
+      open = false;
+      probing = false;
+    }
+
+    private synchronized void onFailure() {
+      failures++;
+      if (probing || failures >= threshold) {
+        open = true;
+        openedAt = System.nanoTime();
+        probing = false;
+      }
+    }
+
+    private synchronized void endProbe() {
+      probing = false;
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Adaptive limit on the number of requests in flight to each host, using additive increase and multiplicative
+ * decrease (AIMD).
+ *
+ * While a host answers normally and at least half of the limit is used, the limit grows by about one request per
+ * round trip.
+ * When the host answers 429 Too Many Requests or 503 Service Unavailable, when a request fails, or when the recent
+ * latency rises well above the long term latency, the limit is halved, at most once per round trip.
+ */
+public class ConcurrencyLimiter {
+
+  private static final int INITIAL_LIMIT = 4;
+  private static final double BACKOFF_RATIO = 0.5;
+  // recent latency above this multiple of the long term latency counts as overload
+  private static final double LATENCY_TOLERANCE = 2.0;
+  private static final double SHORT_SMOOTHING = 0.2;
+  private static final double LONG_SMOOTHING = 0.01;
+
+  private final int maxLimit;
+  private final ConcurrentMap<String, Limit> limits;
+
+  public ConcurrencyLimiter(int maxLimit) {
+    this.maxLimit = maxLimit;
+    this.limits = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @return the adaptive limiter configured for the stage, or {@code null} if the concurrency is fixed
+   */
+  @Nullable
+  public static ConcurrencyLimiter create(HttpConfig config) {
+    return config.isAdaptiveConcurrency() ? new ConcurrencyLimiter(config.getMaxConcurrentRequests()) : null;
+  }
+
+  /**
+   * Blocks until another request may be sent to the given host.
+   *
+   * @return the limit of the host, which must be released once the response arrived
+   */
+  public Limit acquire(String host) throws InterruptedException {
+    return acquire(host, null);
+  }
+
+  /**
+   * Blocks until another request may be sent to the given host, or until the deadline passes.
+   *
+   * @param deadline the {@link System#nanoTime()} after which no request may be sent, or {@code null} to wait
+   *   without limit
+   * @return the limit of the host, which must be released once the response arrived, or {@code null} if the
+   *   deadline passed first
+   */
+  @Nullable
+  public Limit acquire(String host, @Nullable Long deadline) throws InterruptedException {
+    Limit limit = limits.computeIfAbsent(host, key -> new Limit());
+    return limit.acquire(deadline) ? limit : null;
+  }
+
+  /**
+   * @return the current limit of the given host
+   */
+  public int getLimit(String host) {
+    Limit limit = limits.get(host);
+    return limit == null ? Math.min(maxLimit, INITIAL_LIMIT) : limit.get();
+  }
+
+  /**
+   * @return the sum of the current limits of all hosts that were called
+   */
+  public long getTotalLimit() {
+    long total = 0;
+    for (Limit limit : limits.values()) {
+      total += limit.get();
+    }
+    return total;
+  }
+
+  /**
+   * Limit and latency statistics of one host.
+   */
+  public final class Limit {
+    private double limit = Math.min(maxLimit, INITIAL_LIMIT);
+    private int inFlight;
+    private double shortLatency;
+    private double longLatency;
+    private long lastBackoff = Long.MIN_VALUE;
+
+    private synchronized boolean acquire(@Nullable Long deadline) throws InterruptedException {
+      while (inFlight >= (int) limit) {
+        if (deadline == null) {
+          wait();
+          continue;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      inFlight++;
+      return true;
+    }
+
+    /**
+     * Returns the request slot and adapts the limit.
+     *
+     * @param latencyNanos time until the response arrived, or a negative value if there is no response
+     * @param overloaded whether the response or failure indicates that the host is overloaded
+     */
+    public synchronized void release(long latencyNanos, boolean overloaded) {
+      // the limit only grows while it is actually used, not while the consumer is the bottleneck
+      boolean saturated = inFlight * 2 >= limit;
+      inFlight--;
+      if (latencyNanos >= 0) {
+        shortLatency = shortLatency == 0 ? latencyNanos
+          : shortLatency + SHORT_SMOOTHING * (latencyNanos - shortLatency);
+        longLatency = longLatency == 0 ? latencyNanos : longLatency + LONG_SMOOTHING * (latencyNanos - longLatency);
+      }
+      long now = System.nanoTime();
+      if (overloaded || shortLatency > longLatency * LATENCY_TOLERANCE) {
+        // responses of requests sent before the last backoff do not back off again
+        if (lastBackoff == Long.MIN_VALUE
+          || now - lastBackoff > Math.max(shortLatency, TimeUnit.MILLISECONDS.toNanos(1))) {
+          limit = Math.max(1, limit * BACKOFF_RATIO);
+          lastBackoff = now;
+        }
+      } else if (saturated) {
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+      notifyAll();
+    }
+
+    private synchronized int get() {
+      return (int) limit;
+    }
+  }
+}
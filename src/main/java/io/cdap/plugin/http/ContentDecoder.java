@@ -0,0 +1,227 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Negotiates the content encoding of responses and decodes their bodies while they are read.
+ *
+ * Bodies are decompressed as a stream, so a compressed response is never held in memory in both forms. The size of
+ * a body is limited after decompression: a response that declares a larger length fails before its body is read,
+ * and one that turns out to be larger fails as soon as the limit is crossed. In both cases the request is aborted, so
+ * the rest of the body is not read to release the connection.
+ */
+public class ContentDecoder {
+
+  private static final String GZIP = "gzip";
+  private static final String DEFLATE = "deflate";
+  private static final String IDENTITY = "identity";
+
+  /**
+   * Thrown when a response body is larger than the maximum response size. The request is not retried, since the
+   * same response would be returned again.
+   */
+  public static class ResponseTooLargeException extends IOException {
+    public ResponseTooLargeException(String message) {
+      super(message);
+    }
+  }
+
+  @Nullable
+  private final String acceptEncoding;
+  private final long maxSize;
+
+  /**
+   * @param encodings the accepted encodings, in the order of preference, or an empty list to not ask for any
+   * @param maxSize maximum number of bytes of a decoded body, or 0 for no limit
+   */
+  public ContentDecoder(List<String> encodings, long maxSize) {
+    this.acceptEncoding = encodings.isEmpty() ? null : String.join(",", encodings);
+    this.maxSize = maxSize;
+  }
+
+  public static ContentDecoder create(HttpConfig config) {
+    return new ContentDecoder(config.getAcceptEncodings(), config.getMaxResponseSize());
+  }
+
+  /**
+   * @return whether responses with the given encoding can be decoded
+   */
+  public static boolean isSupported(String encoding) {
+    return GZIP.equals(encoding) || DEFLATE.equals(encoding) || IDENTITY.equals(encoding);
+  }
+
+  /**
+   * Adds the accepted encodings to the request, unless its headers already ask for some.
+   */
+  public void prepare(HttpUriRequest request) {
+    if (acceptEncoding != null && !request.containsHeader(HttpHeaders.ACCEPT_ENCODING)) {
+      request.setHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+    }
+  }
+
+  /**
+   * Replaces the entity of the response with one that decodes and limits the body.
+   *
+   * @throws ResponseTooLargeException if the response declares a length above the maximum response size
+   * @throws IOException if the response has an encoding that cannot be decoded
+   */
+  public void decode(HttpUriRequest request, HttpResponse response) throws IOException {
+    HttpEntity entity = response.getEntity();
+    if (entity == null) {
+      return;
+    }
+    Header header = entity.getContentEncoding();
+    String encoding = header == null ? IDENTITY : header.getValue().trim().toLowerCase();
+    switch (encoding) {
+      case IDENTITY:
+      case "":
+        if (maxSize > 0 && entity.getContentLength() > maxSize) {
+          request.abort();
+          throw tooLarge(request, entity.getContentLength() + " bytes");
+        }
+        break;
+      case GZIP:
+      case "x-gzip":
+        entity = new GzipDecompressingEntity(entity);
+        break;
+      case DEFLATE:
+        entity = new DeflateDecompressingEntity(entity);
+        break;
+      default:
+        throw new IOException(String.format("Response from %s has the unsupported content encoding '%s'.",
+                                            request.getURI(), encoding));
+    }
+    if (entity != response.getEntity()) {
+      // the headers describe the encoded body
+      response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+      response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+      response.removeHeaders(HttpHeaders.CONTENT_MD5);
+    }
+    response.setEntity(maxSize > 0 ? new LimitedEntity(entity, request) : entity);
+  }
+
+  private ResponseTooLargeException tooLarge(HttpUriRequest request, String size) {
+    return tooLarge(request.getURI(), size, maxSize);
+  }
+
+  static ResponseTooLargeException tooLarge(URI uri, String size, long maxSize) {
+    return new ResponseTooLargeException(String.format(
+      "Response from %s of %s exceeds the maximum response size of %d bytes.", uri, size, maxSize));
+  }
+
+  /**
+   * Entity whose content fails once more than the maximum response size was read from it.
+   */
+  private final class LimitedEntity extends HttpEntityWrapper {
+
+    private final HttpUriRequest request;
+    private InputStream content;
+
+    private LimitedEntity(HttpEntity entity, HttpUriRequest request) {
+      super(entity);
+      this.request = request;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      // a streamed entity returns the same stream every time, which must be limited once
+      if (content == null || wrappedEntity.isRepeatable()) {
+        content = new LimitedStream(super.getContent(), request);
+      }
+      return content;
+    }
+  }
+
+  /**
+   * Input stream that aborts the request once more than the maximum response size was read.
+   */
+  private final class LimitedStream extends FilterInputStream {
+
+    private final HttpUriRequest request;
+    private long remaining = maxSize;
+    private boolean exceeded;
+
+    private LimitedStream(InputStream in, HttpUriRequest request) {
+      super(in);
+      this.request = request;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int read = super.read(buffer, offset, length);
+      if (read > 0) {
+        count(read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      if (skipped > 0) {
+        count(skipped);
+      }
+      return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } catch (IOException e) {
+        // closing an aborted connection fails, which must not hide why it was aborted
+        if (!exceeded) {
+          throw e;
+        }
+      }
+    }
+
+    private void count(long bytes) throws ResponseTooLargeException {
+      remaining -= bytes;
+      if (remaining < 0) {
+        exceeded = true;
+        request.abort();
+        throw tooLarge(request, "more than " + maxSize + " bytes");
+      }
+    }
+  }
+}
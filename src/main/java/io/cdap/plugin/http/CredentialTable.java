@@ -0,0 +1,238 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.message.BasicHeader;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Headers and credentials for every value of the authLookup field, parsed once when the stage starts.
+ *
+ * Looking up the entry of a record costs a single hash lookup, and the returned entry is immutable so it can be
+ * shared by every request of that tenant.
+ */
+public final class CredentialTable {
+
+  private static final Type MAP_TYPE = new TypeToken<Map<String, String>>() { }.getType();
+
+  @Nullable
+  private final String authLookupField;
+  private final Map<String, Entry> entries;
+  // used when no per tenant credentials are configured
+  private final Entry defaultEntry;
+  private final Map<String, String> usernames;
+  private final Map<String, String> passwords;
+  private final Map<String, String> authTokens;
+  // OAuth2 client credentials, whose tokens are added to the requests by the OAuth2TokenCache
+  private final Map<String, String> clientIds;
+  private final Map<String, String> clientSecrets;
+
+  private CredentialTable(@Nullable String authLookupField, Header[] headers, @Nullable Map<String, String> usernames,
+                          @Nullable Map<String, String> passwords, @Nullable Map<String, String> authTokens,
+                          @Nullable Map<String, String> clientIds, @Nullable Map<String, String> clientSecrets) {
+    this.authLookupField = authLookupField;
+    this.usernames = usernames;
+    this.passwords = passwords;
+    this.authTokens = authTokens;
+    this.clientIds = clientIds;
+    this.clientSecrets = clientSecrets;
+    this.defaultEntry = new Entry(null, headers, null);
+
+    Set<String> lookupValues = new LinkedHashSet<>();
+    for (Map<String, String> map : Arrays.asList(usernames, passwords, authTokens, clientIds, clientSecrets)) {
+      if (map != null) {
+        lookupValues.addAll(map.keySet());
+      }
+    }
+    Map<String, Entry> entries = new HashMap<>();
+    for (String lookupValue : lookupValues) {
+      if (isComplete(lookupValue)) {
+        entries.put(lookupValue, createEntry(lookupValue, headers));
+      }
+    }
+    this.entries = Collections.unmodifiableMap(entries);
+  }
+
+  public static CredentialTable create(HttpConfig config) {
+    Header[] headers = toHeaders(HttpConfig.getMapFromKeyValueString(config.getHeaders()));
+    return new CredentialTable(config.getAuthLookup(), headers, parse(config.getUsername()),
+                               parse(config.getPassword()), parse(config.getAuthToken()),
+                               parse(config.getOAuth2ClientId()), parse(config.getOAuth2ClientSecret()));
+  }
+
+  /**
+   * Returns the headers to use when no credentials are configured per lookup value, for requests that are not made
+   * for a record.
+   */
+  public Entry getDefault() {
+    return defaultEntry;
+  }
+
+  /**
+   * Returns the headers and credentials to use for the given record.
+   *
+   * @throws IllegalArgumentException if credentials are configured but none exist for the record's lookup value
+   */
+  public Entry lookup(StructuredRecord input) {
+    if (usernames == null && passwords == null && authTokens == null && clientIds == null && clientSecrets == null) {
+      return defaultEntry;
+    }
+    String lookupValue = input.get(authLookupField);
+    Entry entry = lookupValue == null ? null : entries.get(lookupValue);
+    if (entry == null) {
+      throw new IllegalArgumentException(missingCredentialsMessage(lookupValue));
+    }
+    return entry;
+  }
+
+  private boolean isComplete(String lookupValue) {
+    return (usernames == null || usernames.containsKey(lookupValue))
+      && (passwords == null || passwords.containsKey(lookupValue))
+      && (authTokens == null || authTokens.containsKey(lookupValue))
+      && (clientIds == null || clientIds.containsKey(lookupValue))
+      && (clientSecrets == null || clientSecrets.containsKey(lookupValue));
+  }
+
+  private String missingCredentialsMessage(@Nullable String lookupValue) {
+    if (lookupValue == null) {
+      return String.format("Input record does not contain a value for the lookup field '%s'.", authLookupField);
+    }
+    List<String> missing = new ArrayList<>();
+    if (usernames != null && !usernames.containsKey(lookupValue)) {
+      missing.add("Username");
+    }
+    if (passwords != null && !passwords.containsKey(lookupValue)) {
+      missing.add("Password");
+    }
+    if (authTokens != null && !authTokens.containsKey(lookupValue)) {
+      missing.add("Authtoken");
+    }
+    if (clientIds != null && !clientIds.containsKey(lookupValue)) {
+      missing.add("OAuth2 client ID");
+    }
+    if (clientSecrets != null && !clientSecrets.containsKey(lookupValue)) {
+      missing.add("OAuth2 client secret");
+    }
+    return String.format("Unable to find %s for %s", String.join(", ", missing), lookupValue);
+  }
+
+  private Entry createEntry(String lookupValue, Header[] headers) {
+    List<Header> entryHeaders = new ArrayList<>(headers.length + 1);
+    UsernamePasswordCredentials challengeCredentials = null;
+    String userName = usernames == null ? null : usernames.get(lookupValue);
+    String password = passwords == null ? null : passwords.get(lookupValue);
+    if (authTokens != null) {
+      entryHeaders.add(new BasicHeader(HttpHeaders.AUTHORIZATION, authTokens.get(lookupValue)));
+      if (userName != null) {
+        // the token owns the Authorization header, so basic credentials are only sent when challenged
+        challengeCredentials = new UsernamePasswordCredentials(userName, password);
+      }
+    } else if (userName != null) {
+      // sent preemptively, which saves the challenge round trip on every request. The transports drop the
+      // Authorization header when a request is redirected to another host.
+      String credentials = userName + ":" + (password == null ? "" : password);
+      entryHeaders.add(new BasicHeader(HttpHeaders.AUTHORIZATION, "Basic " + Base64.getEncoder()
+        .encodeToString(credentials.getBytes(StandardCharsets.UTF_8))));
+    }
+    Collections.addAll(entryHeaders, headers);
+    return new Entry(lookupValue, entryHeaders.toArray(new Header[0]), challengeCredentials);
+  }
+
+  @Nullable
+  private static Map<String, String> parse(@Nullable String json) {
+    if (json == null) {
+      return null;
+    }
+    Map<String, String> map = new Gson().fromJson(json, MAP_TYPE);
+    return map == null ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(map));
+  }
+
+  private static Header[] toHeaders(Map<String, String> headers) {
+    List<Header> result = new ArrayList<>(headers.size());
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      result.add(new BasicHeader(header.getKey(), header.getValue()));
+    }
+    return result.toArray(new Header[0]);
+  }
+
+  /**
+   * Prebuilt headers and credentials of one authLookup value.
+   */
+  public static final class Entry {
+    private final String lookupValue;
+    private final Header[] headers;
+    private final UsernamePasswordCredentials challengeCredentials;
+
+    private Entry(@Nullable String lookupValue, Header[] headers,
+                  @Nullable UsernamePasswordCredentials challengeCredentials) {
+      this.lookupValue = lookupValue;
+      this.headers = headers;
+      this.challengeCredentials = challengeCredentials;
+    }
+
+    /**
+     * Returns the authLookup value of this entry, or {@code null} if no per tenant credentials are configured.
+     */
+    @Nullable
+    public String getLookupValue() {
+      return lookupValue;
+    }
+
+    /**
+     * Returns the headers to send, including the Authorization header. The array must not be modified.
+     */
+    public Header[] getHeaders() {
+      return headers;
+    }
+
+    /**
+     * Returns the credentials to answer an authentication challenge with, if any. They are scoped to the host the
+     * request is sent to, so that a host it is redirected to cannot obtain them.
+     */
+    @Nullable
+    public CredentialsProvider getCredentialsProvider(@Nullable HttpHost target) {
+      if (challengeCredentials == null || target == null) {
+        return null;
+      }
+      CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+      credentialsProvider.setCredentials(new AuthScope(target), challengeCredentials);
+      return credentialsProvider;
+    }
+  }
+}
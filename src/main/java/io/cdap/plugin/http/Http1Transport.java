@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP/1.1 transport that keeps one request in flight per pooled connection.
+ */
+public class Http1Transport implements HttpTransport {
+
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient httpClient;
+
+  public Http1Transport(HttpConfig config) {
+    long ttl = config.getConnectionTimeToLive();
+    connectionManager = ttl > 0
+      ? new PoolingHttpClientConnectionManager(ttl, TimeUnit.SECONDS) : new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(config.getMaxConnections());
+    connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+
+    RequestConfig requestConfig = RequestConfig.custom()
+      .setSocketTimeout(config.getReadTimeout())
+      .setConnectTimeout(config.getConnectTimeout())
+      .setConnectionRequestTimeout(config.getConnectionRequestTimeout())
+      .build();
+
+    HttpClientBuilder httpClientBuilder = HttpClientBuilder.create()
+      .setConnectionManager(connectionManager)
+      .setDefaultRequestConfig(requestConfig)
+      // negotiated and decoded by the HttpClient, the same way for every transport
+      .disableContentCompression()
+      // runs for every redirect as well, before challenge responses are added
+      .addInterceptorLast((HttpRequestInterceptor) (request, context) -> {
+        HttpHost target = HttpClientContext.adapt(context).getTargetHost();
+        if (HttpClient.isOtherOrigin(context.getAttribute(HttpClient.ORIGIN), target == null ? null : target.toURI())) {
+          request.removeHeaders(HttpHeaders.AUTHORIZATION);
+        }
+      })
+      .evictExpiredConnections();
+    long idleTimeout = config.getIdleConnectionTimeout();
+    if (idleTimeout > 0) {
+      httpClientBuilder.evictIdleConnections(idleTimeout, TimeUnit.SECONDS);
+    }
+    httpClient = httpClientBuilder.build();
+  }
+
+  @Override
+  public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> handler,
+                       HttpContext context) throws IOException {
+    return httpClient.execute(request, handler, context);
+  }
+
+  @Override
+  public int getLeasedConnections() {
+    return connectionManager.getTotalStats().getLeased();
+  }
+
+  @Override
+  public int getAvailableConnections() {
+    return connectionManager.getTotalStats().getAvailable();
+  }
+
+  @Override
+  public void close() throws IOException {
+    // closing the client also shuts down the connection manager and the idle connection evictor
+    httpClient.close();
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.auth.AuthScope;
+import org.apache.hc.client5.http.auth.Credentials;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AbstractAsyncResponseConsumer;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.net.URIAuthority;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
+
+/**
+ * HTTP/2 transport that multiplexes concurrent requests to a host over a few connections. Once a connection to a
+ * host has spoken HTTP/2, further requests share it instead of opening connections up to the per route limit.
+ *
+ * The protocol is negotiated with ALPN during the TLS handshake. Hosts that do not offer HTTP/2, and plain http
+ * URLs, are served over HTTP/1.1 by the same connection pool. Requests and responses are translated from and to the
+ * HttpClient 4 types used by the rest of the stage. Response bodies are read completely before they are handed to
+ * the handler, and the exchange fails as soon as more than the maximum response size was received.
+ */
+public class Http2Transport implements HttpTransport {
+
+  // connection specific headers, which HTTP/2 does not allow and which the client sets itself for HTTP/1.1
+  private static final List<String> CONNECTION_HEADERS = Arrays.asList(
+    HttpHeaders.CONNECTION, "Keep-Alive", "Proxy-Connection", HttpHeaders.TRANSFER_ENCODING,
+    HttpHeaders.UPGRADE, HttpHeaders.HOST, HttpHeaders.CONTENT_LENGTH);
+
+  private final PoolingAsyncClientConnectionManager connectionManager;
+  private final CloseableHttpAsyncClient httpClient;
+  private final long maxResponseSize;
+
+  public Http2Transport(HttpConfig config) {
+    this(config, HttpVersionPolicy.NEGOTIATE);
+  }
+
+  /**
+   * Creates a transport with the given version policy. {@link HttpVersionPolicy#FORCE_HTTP_2} also speaks HTTP/2 to
+   * plain http URLs, assuming the server supports it without an upgrade.
+   */
+  Http2Transport(HttpConfig config, HttpVersionPolicy versionPolicy) {
+    this.maxResponseSize = config.getMaxResponseSize();
+    ConnectionConfig.Builder connectionConfig = ConnectionConfig.custom()
+      .setConnectTimeout(Timeout.ofMilliseconds(config.getConnectTimeout()))
+      .setSocketTimeout(Timeout.ofMilliseconds(config.getReadTimeout()));
+    long ttl = config.getConnectionTimeToLive();
+    if (ttl > 0) {
+      connectionConfig.setTimeToLive(TimeValue.ofSeconds(ttl));
+    }
+
+    connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+      .setMaxConnTotal(config.getMaxConnections())
+      .setMaxConnPerRoute(config.getMaxConnectionsPerRoute())
+      .setDefaultConnectionConfig(connectionConfig.build())
+      .setDefaultTlsConfig(TlsConfig.custom().setVersionPolicy(versionPolicy).build())
+      // lets requests share an HTTP/2 connection instead of leasing one each
+      .setMessageMultiplexing(true)
+      .build();
+    HttpAsyncClientBuilder httpClientBuilder = HttpAsyncClients.custom()
+      .setConnectionManager(connectionManager)
+      .setDefaultRequestConfig(RequestConfig.custom()
+                                 .setConnectionRequestTimeout(
+                                   Timeout.ofMilliseconds(config.getConnectionRequestTimeout()))
+                                 .setResponseTimeout(Timeout.ofMilliseconds(config.getReadTimeout()))
+                                 .build())
+      // retries are decided by the HttpClient, for both transports alike
+      .disableAutomaticRetries()
+      // runs for every redirect as well
+      .addRequestInterceptorLast((request, entity, context) -> {
+        URIAuthority authority = request.getAuthority();
+        String origin = authority == null ? null
+          : new org.apache.hc.core5.http.HttpHost(request.getScheme(), authority).toURI();
+        if (HttpClient.isOtherOrigin(context.getAttribute(HttpClient.ORIGIN), origin)) {
+          request.removeHeaders(HttpHeaders.AUTHORIZATION);
+        }
+      })
+      .evictExpiredConnections();
+    long idleTimeout = config.getIdleConnectionTimeout();
+    if (idleTimeout > 0) {
+      httpClientBuilder.evictIdleConnections(TimeValue.ofSeconds(idleTimeout));
+    }
+    httpClient = httpClientBuilder.build();
+    httpClient.start();
+  }
+
+  @Override
+  public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> handler,
+                       HttpContext context) throws IOException {
+    Future<SimpleHttpResponse> future = httpClient.execute(
+      SimpleRequestProducer.create(toRequest(request)), new LimitedResponseConsumer(request.getURI(), maxResponseSize),
+      toContext(context), null);
+    if (request instanceof HttpExecutionAware) {
+      // lets an abort of the request cancel the exchange, as it does with the HTTP/1.1 transport
+      ((HttpExecutionAware) request).setCancellable(() -> future.cancel(true));
+    }
+    SimpleHttpResponse response;
+    try {
+      response = future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the response of " + request.getURI());
+    } catch (CancellationException e) {
+      throw new InterruptedIOException("Request to " + request.getURI() + " was cancelled");
+    } catch (ExecutionException e) {
+      throw toIOException(e.getCause());
+    }
+    return handler.handleResponse(toResponse(response));
+  }
+
+  @Override
+  public int getLeasedConnections() {
+    return connectionManager.getTotalStats().getLeased();
+  }
+
+  @Override
+  public int getAvailableConnections() {
+    return connectionManager.getTotalStats().getAvailable();
+  }
+
+  @Override
+  public void close() {
+    httpClient.close(CloseMode.GRACEFUL);
+  }
+
+  private static SimpleHttpRequest toRequest(HttpUriRequest request) throws IOException {
+    SimpleHttpRequest result = SimpleHttpRequest.create(request.getMethod(), request.getURI());
+    HttpEntity entity = request instanceof HttpEntityEnclosingRequest
+      ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+    for (Header header : request.getAllHeaders()) {
+      if (CONNECTION_HEADERS.stream().noneMatch(header.getName()::equalsIgnoreCase)
+        && (entity == null || !HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(header.getName()))) {
+        result.addHeader(header.getName(), header.getValue());
+      }
+    }
+    if (entity != null) {
+      Header contentType = entity.getContentType();
+      result.setBody(EntityUtils.toByteArray(entity),
+                     contentType == null ? null : ContentType.parse(contentType.getValue()));
+    }
+    return result;
+  }
+
+  private static org.apache.hc.client5.http.protocol.HttpClientContext toContext(HttpContext context) {
+    org.apache.hc.client5.http.protocol.HttpClientContext result =
+      org.apache.hc.client5.http.protocol.HttpClientContext.create();
+    result.setAttribute(HttpClient.ORIGIN, context.getAttribute(HttpClient.ORIGIN));
+    CredentialsProvider credentialsProvider = HttpClientContext.adapt(context).getCredentialsProvider();
+    if (credentialsProvider != null) {
+      result.setCredentialsProvider((scope, ignored) -> toCredentials(credentialsProvider, scope));
+    }
+    return result;
+  }
+
+  @Nullable
+  private static Credentials toCredentials(CredentialsProvider credentialsProvider, AuthScope scope) {
+    org.apache.http.auth.Credentials credentials = credentialsProvider.getCredentials(
+      new org.apache.http.auth.AuthScope(scope.getHost(), scope.getPort(), scope.getRealm(), scope.getSchemeName()));
+    if (!(credentials instanceof UsernamePasswordCredentials)) {
+      return null;
+    }
+    UsernamePasswordCredentials basic = (UsernamePasswordCredentials) credentials;
+    String password = basic.getPassword();
+    return new org.apache.hc.client5.http.auth.UsernamePasswordCredentials(
+      basic.getUserName(), password == null ? null : password.toCharArray());
+  }
+
+  private static BasicHttpResponse toResponse(SimpleHttpResponse response) {
+    org.apache.hc.core5.http.ProtocolVersion version = response.getVersion();
+    ProtocolVersion protocolVersion = version == null ? new ProtocolVersion("HTTP", 2, 0)
+      : new ProtocolVersion(version.getProtocol(), version.getMajor(), version.getMinor());
+    BasicHttpResponse result = new BasicHttpResponse(
+      new BasicStatusLine(protocolVersion, response.getCode(), response.getReasonPhrase()));
+    for (org.apache.hc.core5.http.Header header : response.getHeaders()) {
+      result.addHeader(header.getName(), header.getValue());
+    }
+    byte[] body = response.getBodyBytes();
+    if (body != null) {
+      ByteArrayEntity entity = new ByteArrayEntity(body);
+      org.apache.hc.core5.http.Header contentType = response.getFirstHeader(HttpHeaders.CONTENT_TYPE);
+      if (contentType != null) {
+        entity.setContentType(contentType.getValue());
+      }
+      org.apache.hc.core5.http.Header contentEncoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+      if (contentEncoding != null) {
+        entity.setContentEncoding(contentEncoding.getValue());
+      }
+      result.setEntity(entity);
+    }
+    return result;
+  }
+
+  /**
+   * Translates failures to the exceptions of HttpClient 4, which the retry policy understands.
+   */
+  private static IOException toIOException(Throwable cause) {
+    if (cause instanceof org.apache.hc.client5.http.ConnectTimeoutException) {
+      ConnectTimeoutException e = new ConnectTimeoutException(cause.getMessage());
+      e.initCause(cause);
+      return e;
+    }
+    if (cause instanceof IOException) {
+      return (IOException) cause;
+    }
+    return new ClientProtocolException(cause.getMessage(), cause);
+  }
+
+  /**
+   * Collects the response body like the consumer of simple requests, but fails once the body grows beyond the
+   * maximum response size, instead of holding all of it in memory. The limit applies to the body as received, and
+   * {@link ContentDecoder} applies it again to the decoded body.
+   */
+  private static final class LimitedResponseConsumer
+    extends AbstractAsyncResponseConsumer<SimpleHttpResponse, byte[]> {
+
+    private LimitedResponseConsumer(URI uri, long maxSize) {
+      // a new entity consumer for every response, as redirects are followed by the same consumer
+      super(() -> maxSize > 0 ? new LimitedEntityConsumer(uri, maxSize) : new BasicAsyncEntityConsumer());
+    }
+
+    @Override
+    public void informationResponse(HttpResponse response,
+                                    org.apache.hc.core5.http.protocol.HttpContext context) {
+      // interim responses carry no body
+    }
+
+    @Override
+    protected SimpleHttpResponse buildResult(HttpResponse response, byte[] body, ContentType contentType) {
+      SimpleHttpResponse result = SimpleHttpResponse.copy(response);
+      if (body != null) {
+        result.setBody(body, contentType);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Collects a body of up to the maximum response size.
+   */
+  private static final class LimitedEntityConsumer extends BasicAsyncEntityConsumer {
+
+    private final URI uri;
+    private final long maxSize;
+    private long received;
+
+    private LimitedEntityConsumer(URI uri, long maxSize) {
+      this.uri = uri;
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected void data(ByteBuffer src, boolean endOfStream) throws IOException {
+      received += src.remaining();
+      if (received > maxSize) {
+        throw ContentDecoder.tooLarge(uri, "more than " + maxSize + " bytes", maxSize);
+      }
+      super.data(src, endOfStream);
+    }
+  }
+}
@@ -1,80 +1,413 @@
 package io.cdap.plugin.http;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.message.BasicHeader;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.Map;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
+/**
+ * Long lived, thread safe HTTP client shared by every record processed by a stage.
+ *
+ * Connections are kept in a pool so that keep-alive connections and TLS sessions are reused across records. The
+ * {@link HttpTransport} speaks HTTP/1.1, or HTTP/2 where the server supports it.
+ * Nothing tenant specific is configured on the client itself: credentials and headers are attached to each
+ * request, which lets a single pool serve every authLookup value.
+ */
 public class HttpClient implements Closeable {
 
-  private HttpClient(){
+  /**
+   * Attribute of a request context that holds the {@link System#nanoTime()} by which the request must be complete,
+   * as a {@code Long}. It applies in addition to the request timeout.
+   */
+  public static final String DEADLINE = "io.cdap.plugin.http.deadline";
 
-  }
+  /**
+   * Attribute of a request context that holds the origin the request was sent to, as returned by
+   * {@link HttpHost#toURI()}. The transports drop the {@code Authorization} header of a redirect to another origin.
+   */
+  static final String ORIGIN = "io.cdap.plugin.http.origin";
 
-  private CloseableHttpClient createHttpClient(long connectionTimeout, long readTimeout , String userName, String pw,  String url , Map<String,String> headers , Map<String,String> authHeaders) throws IOException {
-    HttpClientBuilder httpClientBuilder = HttpClientBuilder.create();
-    // set timeouts
-    Long connectTimeoutMillis = TimeUnit.SECONDS.toMillis(connectionTimeout);
-    Long readTimeoutMillis = TimeUnit.SECONDS.toMillis(readTimeout);
-    RequestConfig.Builder requestBuilder = RequestConfig.custom();
-    requestBuilder.setSocketTimeout(readTimeoutMillis.intValue());
-    requestBuilder.setConnectTimeout(connectTimeoutMillis.intValue());
-    requestBuilder.setConnectionRequestTimeout(connectTimeoutMillis.intValue());
-    httpClientBuilder.setDefaultRequestConfig(requestBuilder.build());
+  // not defined by HttpStatus, which only knows the status codes of RFC 2616
+  private static final int TOO_MANY_REQUESTS = 429;
+  // returned by the handler of an attempt whose response is retried
+  private static final Object RETRY = new Object();
 
-    // basic auth
-    CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-    URL aURL = new URL(url);
-    if (userName != null) {
-      AuthScope authScope = new AuthScope(HttpHost.create(aURL.getHost()));
-      credentialsProvider.setCredentials(authScope,
-                                         new UsernamePasswordCredentials(userName, pw));
-    }
+  private final HttpTransport transport;
+  private final HttpMetrics metrics;
+  @Nullable
+  private final RateLimiter rateLimiter;
+  @Nullable
+  private final ConcurrencyLimiter concurrencyLimiter;
+  private final RetryPolicy retryPolicy;
+  @Nullable
+  private final CircuitBreaker circuitBreaker;
+  @Nullable
+  private final RequestHedger hedger;
+  private final ContentDecoder decoder;
+  private final long requestTimeoutNanos;
+  // aborts requests that are still running at their deadline
+  @Nullable
+  private final ScheduledExecutorService timeouts;
 
-    httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+  public HttpClient(HttpConfig config) {
+    this(config, new HttpMetrics(null));
+  }
 
-    ArrayList<Header> clientHeaders = new ArrayList<>();
+  public HttpClient(HttpConfig config, HttpMetrics metrics) {
+    this(HttpTransport.create(config), config, metrics);
+  }
 
-    if (authHeaders != null) {
-      for (Map.Entry<String, String> headerEntry : authHeaders.entrySet())  {
-        clientHeaders.add(new BasicHeader(headerEntry.getKey(), headerEntry.getValue()));
-      }
+  /**
+   * Creates a client that sends its requests with the given transport.
+   */
+  HttpClient(HttpTransport transport, HttpConfig config, HttpMetrics metrics) {
+    this.transport = transport;
+    this.metrics = metrics;
+    rateLimiter = RateLimiter.create(config);
+    concurrencyLimiter = ConcurrencyLimiter.create(config);
+    retryPolicy = new RetryPolicy(config);
+    circuitBreaker = CircuitBreaker.create(config);
+    hedger = RequestHedger.create(config);
+    decoder = ContentDecoder.create(config);
+    requestTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getRequestTimeout());
+    timeouts = requestTimeoutNanos > 0 || config.getDeadline() > 0
+      ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "http-request-timeout");
+        thread.setDaemon(true);
+        return thread;
+      }) : null;
+    metrics.gauge(HttpMetrics.POOL_LEASED, transport::getLeasedConnections);
+    metrics.gauge(HttpMetrics.POOL_AVAILABLE, transport::getAvailableConnections);
+    if (concurrencyLimiter != null) {
+      metrics.gauge(HttpMetrics.CONCURRENCY_LIMIT, concurrencyLimiter::getTotalLimit);
+    }
+    if (hedger != null) {
+      metrics.counter(HttpMetrics.HEDGES, hedger::getHedges);
+      metrics.counter(HttpMetrics.HEDGE_WINS, hedger::getWins);
+      metrics.gauge(HttpMetrics.HEDGE_WIN_PERCENT, hedger::getWinPercent);
     }
+  }
+
+  /**
+   * Executes the request using a pooled connection of the transport. Once the handler returns, whatever it left of
+   * the response body is consumed so that the connection goes back to the pool.
+   *
+   * Connection failures and retryable responses are retried according to the retry policy before the handler sees
+   * the response. Requests that are not idempotent are only retried if the server cannot have processed them. A
+   * failure that happens while the handler is reading the response is not retried, because the handler may already
+   * have acted on part of it.
+   *
+   * A request that is not complete by the request timeout, or by the {@link #DEADLINE} of the context, fails with a
+   * {@link SocketTimeoutException}, and is not retried once the deadline would pass during the retry delay. If it
+   * could not even be sent before the deadline because of the rate limit or the adaptive concurrency limit of its
+   * host, it fails with a {@link LimitTimeoutException}, which is neither retried nor counted as a failure of the
+   * host.
+   *
+   * The handler reads the body decompressed, and fails with a {@link ContentDecoder.ResponseTooLargeException} if it
+   * exceeds the maximum response size.
+   */
+  public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> handler,
+                       HttpContext context) throws IOException {
+    HttpHost target = URIUtils.extractHost(request.getURI());
+    String host = target == null ? "" : target.toHostString();
+    if (target != null) {
+      context.setAttribute(ORIGIN, target.toURI());
+    }
+    Long deadline = getDeadline(context);
+    decoder.prepare(request);
+    for (int retry = 0; ; retry++) {
+      if (deadline != null && deadline - System.nanoTime() <= 0) {
+        throw timedOut(host, null);
+      }
+      boolean probe = false;
+      if (circuitBreaker != null) {
+        try {
+          probe = circuitBreaker.check(host);
+        } catch (CircuitBreaker.OpenException e) {
+          metrics.onRejected();
+          throw e;
+        }
+      }
+      boolean lastAttempt = retry >= retryPolicy.getMaxRetries();
+      // set once the response is handed to the handler, after which the request must not be retried
+      boolean[] handled = {false};
+      String[] retryAfter = {null};
+      // set once the attempt counted as a success or failure of the host
+      boolean[] reported = {false};
+      Object result;
+      try {
+        result = send(request, host, deadline, response -> {
+          int statusCode = response.getStatusLine().getStatusCode();
+          if (circuitBreaker != null) {
+            reported[0] = true;
+            if (statusCode >= 500 || statusCode == TOO_MANY_REQUESTS) {
+              circuitBreaker.onFailure(host);
+            } else {
+              circuitBreaker.onSuccess(host);
+            }
+          }
+          if (!lastAttempt && RetryPolicy.isRetryable(request.getMethod(), statusCode)) {
+            Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+            retryAfter[0] = header == null ? null : header.getValue();
+            return RETRY;
+          }
+          handled[0] = true;
+          return handler.handleResponse(response);
+        }, context);
+      } catch (IOException e) {
+        // timeouts are interrupted IO as well, only an interrupted thread must stop retrying
+        // a request that ran out of time waiting for the limits of its host never reached the host
+        if (handled[0] || e instanceof ContentDecoder.ResponseTooLargeException || e instanceof LimitTimeoutException
+          || Thread.currentThread().isInterrupted()) {
+          throw e;
+        }
+        if (circuitBreaker != null) {
+          reported[0] = true;
+          circuitBreaker.onFailure(host);
+        }
+        if (lastAttempt || !RetryPolicy.isRetryable(request.getMethod(), e)) {
+          throw e;
+        }
+        result = RETRY;
+      } finally {
+        // a probe that ended without an answer of the host lets the next request probe instead of blocking the host
+        if (probe && !reported[0]) {
+          circuitBreaker.endProbe(host);
+        }
+      }
+      if (result != RETRY) {
+        @SuppressWarnings("unchecked")
+        T response = (T) result;
+        return response;
+      }
 
-    // set default headers
-    if (headers != null) {
-      for (Map.Entry<String, String> headerEntry : headers.entrySet())  {
-        clientHeaders.add(new BasicHeader(headerEntry.getKey(), headerEntry.getValue()));
+      long delay = retryPolicy.getDelay(retry + 1, retryAfter[0]);
+      if (delay < 0) {
+        throw new IOException(String.format("Host %s asked to retry after %s, which exceeds the maximum retry delay.",
+                                            host, retryAfter[0]));
+      }
+      if (deadline != null && deadline - System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(delay) <= 0) {
+        throw timedOut(host, null);
+      }
+      metrics.onRetry();
+      try {
+        // only this request waits, its connection and its concurrency slot were released already
+        TimeUnit.MILLISECONDS.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting to retry a request to " + host);
+      }
+      if (request instanceof HttpRequestBase) {
+        ((HttpRequestBase) request).reset();
       }
     }
-    httpClientBuilder.setDefaultHeaders(clientHeaders);
+  }
 
-    return httpClientBuilder.build();
+  /**
+   * Sends the request once, hedged if configured. A hedge is sent with its own context, so that the attempts do not
+   * share state, and the credentials and auth cache of the request context.
+   */
+  private Object send(HttpUriRequest request, String host, @Nullable Long deadline, ResponseHandler<?> handler,
+                      HttpContext context) throws IOException {
+    if (hedger == null) {
+      return executeOnce(request, host, deadline, handler, context);
+    }
+    return hedger.execute(request, (attempt, attemptHandler) -> executeOnce(
+      attempt, host, deadline, attemptHandler, attempt == request ? context : new BasicHttpContext(context)), handler);
   }
 
-  public static CloseableHttpClient getInstance(String url, String userName, String pw, Map<String,String> authHeaders, Map<String,String> headers) throws IOException{
+  /**
+   * @return the earlier of the request timeout and the deadline of the context, or {@code null} if there is none
+   */
+  @Nullable
+  private Long getDeadline(HttpContext context) {
+    Object attribute = context.getAttribute(DEADLINE);
+    Long deadline = attribute instanceof Long ? (Long) attribute : null;
+    if (requestTimeoutNanos > 0) {
+      long timeout = System.nanoTime() + requestTimeoutNanos;
+      if (deadline == null || timeout - deadline < 0) {
+        deadline = timeout;
+      }
+    }
+    return deadline;
+  }
 
-    return new HttpClient().createHttpClient(60,60,userName,pw,url,headers,authHeaders);
+  /**
+   * Returns whether a request to the given origin must not carry the credentials of the request it was redirected
+   * from, because the redirect left the origin the credentials were meant for.
+   *
+   * @param expected the {@link #ORIGIN} attribute of the request context
+   */
+  static boolean isOtherOrigin(@Nullable Object expected, @Nullable String origin) {
+    return expected != null && (origin == null || !origin.equalsIgnoreCase((String) expected));
+  }
 
+  private static SocketTimeoutException timedOut(String host, @Nullable Throwable cause) {
+    SocketTimeoutException e = new SocketTimeoutException(
+      String.format("Request to %s did not complete before its deadline.", host));
+    if (cause != null) {
+      e.initCause(cause);
+    }
+    return e;
   }
 
+  /**
+   * Sends the request once, after waiting for the rate limit and the adaptive concurrency limit of its host, if
+   * configured.
+   */
+  private <T> T executeOnce(HttpUriRequest request, String host, @Nullable Long deadline,
+                            ResponseHandler<? extends T> handler, HttpContext context) throws IOException {
+    Timeout timeout = deadline == null || timeouts == null ? null : new Timeout(request);
+    if (timeout != null) {
+      timeout.schedule(deadline - System.nanoTime());
+    }
+    boolean expired = false;
+    ConcurrencyLimiter.Limit limit = null;
+    long[] latency = {-1};
+    int[] statusCode = {0};
+    try {
+      // the rate limit is waited for first, so that a request does not hold a concurrency slot while it sleeps
+      if (rateLimiter != null && !rateLimiter.acquire(host, deadline)) {
+        throw new LimitTimeoutException(
+          String.format("Request to %s could not be sent within the rate limit before its deadline.", host));
+      }
+      if (concurrencyLimiter != null) {
+        limit = concurrencyLimiter.acquire(host, deadline);
+        if (limit == null) {
+          throw new LimitTimeoutException(
+            String.format("Request to %s could not be sent within the concurrency limit before its deadline.", host));
+        }
+      }
+      metrics.onRequest();
+      long start = System.nanoTime();
+      try {
+        return transport.execute(request, response -> {
+          // measured to the response headers, reading the body depends on the consumer
+          latency[0] = System.nanoTime() - start;
+          statusCode[0] = response.getStatusLine().getStatusCode();
+          metrics.onResponse(latency[0], statusCode[0]);
+          HttpEntity entity = response.getEntity();
+          if (entity != null) {
+            // counted as received, before it is decompressed
+            response.setEntity(metrics.countBytes(entity));
+          }
+          decoder.decode(request, response);
+          return handler.handleResponse(response);
+        }, context);
+      } catch (IOException | RuntimeException e) {
+        expired = timeout != null && timeout.finish();
+        if (expired) {
+          SocketTimeoutException timeoutException = timedOut(host, e);
+          if (latency[0] < 0) {
+            metrics.onFailure(timeoutException);
+          }
+          throw timeoutException;
+        }
+        if (latency[0] < 0) {
+          if (request.isAborted()) {
+            metrics.onAborted();
+          } else {
+            metrics.onFailure(e);
+          }
+        }
+        throw e;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the request limit of " + host);
+    } finally {
+      if (timeout != null) {
+        timeout.finish();
+      }
+      if (limit != null) {
+        // an aborted hedge says nothing about the load of the host
+        limit.release(latency[0], (latency[0] < 0 && (expired || !request.isAborted()))
+          || statusCode[0] == TOO_MANY_REQUESTS
+          || statusCode[0] == HttpStatus.SC_SERVICE_UNAVAILABLE);
+      }
+    }
+  }
 
+  /**
+   * Thrown when a request could not be sent before its deadline because it waited for the rate limit or the adaptive
+   * concurrency limit of its host.
+   */
+  public static class LimitTimeoutException extends SocketTimeoutException {
+    public LimitTimeoutException(String message) {
+      super(message);
+    }
+  }
 
   @Override
   public void close() throws IOException {
+    if (timeouts != null) {
+      timeouts.shutdownNow();
+    }
+    if (hedger != null) {
+      hedger.close();
+    }
+    transport.close();
+  }
 
+  /**
+   * Aborts a request that is still running when its deadline passed.
+   */
+  private final class Timeout implements Runnable {
+    private final HttpUriRequest request;
+    // guarded by this
+    private boolean done;
+    private boolean expired;
+    private ScheduledFuture<?> future;
+
+    private Timeout(HttpUriRequest request) {
+      this.request = request;
+    }
+
+    private synchronized void schedule(long delayNanos) {
+      try {
+        future = timeouts.schedule(this, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException e) {
+        // the client was closed
+      }
+    }
+
+    @Override
+    public synchronized void run() {
+      if (!done) {
+        expired = true;
+        request.abort();
+      }
+    }
+
+    /**
+     * Called once the request completed or failed. The request is not aborted after this returns.
+     *
+     * @return whether the request was aborted because its deadline passed
+     */
+    private synchronized boolean finish() {
+      done = true;
+      if (future != null) {
+        future.cancel(false);
+      }
+      return expired;
+    }
   }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.etl.api.PipelineConfigurer;
+import io.cdap.cdap.etl.api.StageConfigurer;
+import io.cdap.cdap.etl.api.StageMetrics;
+import io.cdap.cdap.etl.api.batch.SparkCompute;
+import io.cdap.cdap.etl.api.batch.SparkExecutionPluginContext;
+import org.apache.spark.HashPartitioner;
+import org.apache.spark.TaskContext;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.FlatMapFunction;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.UUID;
+
+/**
+ * Calls an HTTP endpoint for every input record, one Spark partition at a time.
+ *
+ * Each partition gets a single connection pool and keeps up to {@code maxConcurrentRequests} requests in flight,
+ * so the number of parallel requests is the number of partitions times the window size. Records can be grouped into
+ * partitions by host or tenant, so that each pool only holds connections to a few hosts. The lookup index, the
+ * response cache and the OAuth2 token cache are shared by the partitions processed by the same executor.
+ */
+@Plugin(type = SparkCompute.PLUGIN_TYPE)
+@Name("HttpCompute")
+@Description("Calls an HTTP endpoint for every input record, keeping several requests in flight per partition.")
+public class HttpCompute extends SparkCompute<StructuredRecord, StructuredRecord> {
+
+  private final HttpComputeConfig config;
+
+  public HttpCompute(HttpComputeConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer pipelineConfigurer) {
+    StageConfigurer stageConfigurer = pipelineConfigurer.getStageConfigurer();
+    config.validate(stageConfigurer.getInputSchema());
+    try {
+      stageConfigurer.setOutputSchema(Schema.parseJson(config.getSchema()));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Output schema cannot be parsed.", e);
+    }
+  }
+
+  @Override
+  public JavaRDD<StructuredRecord> transform(SparkExecutionPluginContext context,
+                                             JavaRDD<StructuredRecord> input) throws Exception {
+    Integer numPartitions = config.getNumPartitions();
+    if (config.getPartitionBy() != HttpComputeConfig.PartitionBy.NONE) {
+      int partitions = numPartitions == null ? input.getNumPartitions() : numPartitions;
+      input = input.mapToPair(new PartitionKey(config)).partitionBy(new HashPartitioner(partitions)).values();
+    } else if (numPartitions != null && numPartitions != input.getNumPartitions()) {
+      input = input.repartition(numPartitions);
+    }
+    // the stage metrics are serializable and report from the executors
+    String stageKey = context.getStageName() + "-" + UUID.randomUUID();
+    return input.mapPartitions(new PartitionFunction(config, context.getMetrics(), stageKey));
+  }
+
+  /**
+   * Processes all records of a partition with one {@link PartitionIterator}.
+   */
+  private static final class PartitionFunction implements FlatMapFunction<Iterator<StructuredRecord>,
+    StructuredRecord> {
+
+    private final HttpConfig config;
+    private final StageMetrics stageMetrics;
+    // identifies the run of the stage, whose partitions share state on each executor
+    private final String stageKey;
+
+    private PartitionFunction(HttpConfig config, StageMetrics stageMetrics, String stageKey) {
+      this.config = config;
+      this.stageMetrics = stageMetrics;
+      this.stageKey = stageKey;
+    }
+
+    @Override
+    public Iterator<StructuredRecord> call(Iterator<StructuredRecord> input) throws Exception {
+      PartitionIterator iterator = new PartitionIterator(input, config, stageMetrics, stageKey);
+      // release the pool and worker threads even if the task fails or stops consuming the iterator early
+      TaskContext taskContext = TaskContext.get();
+      if (taskContext != null) {
+        taskContext.addTaskCompletionListener(ctx -> iterator.close());
+      }
+      return iterator;
+    }
+  }
+}
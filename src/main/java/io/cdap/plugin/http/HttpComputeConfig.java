@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import javax.annotation.Nullable;
+
+/**
+ * Config for the {@link HttpCompute} plugin.
+ */
+public class HttpComputeConfig extends HttpConfig {
+
+  public static final String PROPERTY_NUM_PARTITIONS = "numPartitions";
+  public static final String PROPERTY_PARTITION_BY = "partitionBy";
+
+  /**
+   * What records are grouped by when they are distributed to the partitions.
+   */
+  public enum PartitionBy {
+    NONE("none"),
+    HOST("host"),
+    AUTH_LOOKUP("authLookup");
+
+    private final String value;
+
+    PartitionBy(String value) {
+      this.value = value;
+    }
+
+    public String getValue() {
+      return value;
+    }
+
+    public static PartitionBy fromValue(@Nullable String value) {
+      if (value == null || value.isEmpty()) {
+        return NONE;
+      }
+      for (PartitionBy partitionBy : values()) {
+        if (partitionBy.value.equalsIgnoreCase(value)) {
+          return partitionBy;
+        }
+      }
+      throw new IllegalArgumentException(
+        String.format("Invalid partitioning '%s'. Must be none, host or authLookup.", value));
+    }
+  }
+
+  @Name(PROPERTY_NUM_PARTITIONS)
+  @Nullable
+  @Description("Number of partitions the input is redistributed into before the endpoint is called. Together with " +
+    "the maximum concurrent requests this sets the number of requests sent in parallel, independently of how the " +
+    "input was partitioned. Leave empty to keep the input partitions.")
+  protected Integer numPartitions;
+
+  @Name(PROPERTY_PARTITION_BY)
+  @Nullable
+  @Description("Groups the records into partitions by the host of their URL ('host') or by the value of the " +
+    "authLookup field ('authLookup') before the endpoint is called, so that each partition keeps connections to " +
+    "few hosts, or credentials and tokens of few tenants. The records are hash partitioned into the number of " +
+    "partitions, or the number of input partitions if it is not set. Defaults to 'none', which does not group " +
+    "records.")
+  protected String partitionBy;
+
+  public HttpComputeConfig(String httpURLField, String schema) {
+    super(httpURLField, schema);
+  }
+
+  @Nullable
+  public Integer getNumPartitions() {
+    return numPartitions;
+  }
+
+  public PartitionBy getPartitionBy() {
+    return PartitionBy.fromValue(partitionBy);
+  }
+
+  @Override
+  public void validate(Schema inputSchema) throws IllegalArgumentException {
+    super.validate(inputSchema);
+    if (numPartitions != null && numPartitions < 1) {
+      throw new IllegalArgumentException("Number of partitions must be at least 1.");
+    }
+    PartitionBy partitionBy = getPartitionBy();
+    if (partitionBy != PartitionBy.NONE && isLookup()) {
+      throw new IllegalArgumentException("Records cannot be partitioned in lookup mode, which sends no request per " +
+                                           "record.");
+    }
+    if (partitionBy == PartitionBy.AUTH_LOOKUP
+      && (getAuthLookup() == null || inputSchema.getField(getAuthLookup()) == null)) {
+      throw new IllegalArgumentException(
+        String.format("Partitioning by authLookup requires '%s' to be a field of the input schema.",
+                      PROPERTY_AUTH_LOOKUP));
+    }
+    if (getOnError() == OnError.SEND_TO_ERROR_PORT) {
+      throw new IllegalArgumentException(
+        String.format("'%s' cannot be %s for the HttpCompute plugin, which has no error port.",
+                      PROPERTY_ON_ERROR, OnError.SEND_TO_ERROR_PORT.getValue()));
+    }
+  }
+}
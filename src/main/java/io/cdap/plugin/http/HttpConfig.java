@@ -6,32 +6,216 @@ import io.cdap.cdap.api.annotation.Macro;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.cdap.api.plugin.PluginConfig;
+import org.apache.http.HttpHeaders;
+import org.apache.http.entity.ContentType;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
 
 public class HttpConfig extends PluginConfig {
 
+  /**
+   * How the keys of a batch of records are sent.
+   */
+  public enum BatchMode {
+    QUERY_PARAMETER("queryParameter"),
+    JSON_ARRAY("jsonArray");
+
+    private final String value;
+
+    BatchMode(String value) {
+      this.value = value;
+    }
+
+    public String getValue() {
+      return value;
+    }
+
+    public static BatchMode fromValue(@Nullable String value) {
+      if (value == null || value.isEmpty()) {
+        return QUERY_PARAMETER;
+      }
+      for (BatchMode mode : values()) {
+        if (mode.value.equalsIgnoreCase(value)) {
+          return mode;
+        }
+      }
+      throw new IllegalArgumentException(
+        String.format("Invalid batch mode '%s'. Must be queryParameter or jsonArray.", value));
+    }
+  }
+
+  /**
+   * HTTP version spoken to the remote hosts.
+   */
+  public enum HttpVersion {
+    HTTP_1_1("HTTP/1.1"),
+    HTTP_2("HTTP/2");
+
+    private final String value;
+
+    HttpVersion(String value) {
+      this.value = value;
+    }
+
+    public String getValue() {
+      return value;
+    }
+
+    public static HttpVersion fromValue(@Nullable String value) {
+      if (value == null || value.isEmpty()) {
+        return HTTP_1_1;
+      }
+      for (HttpVersion version : values()) {
+        if (version.value.equalsIgnoreCase(value)) {
+          return version;
+        }
+      }
+      throw new IllegalArgumentException(
+        String.format("Invalid HTTP version '%s'. Must be HTTP/1.1 or HTTP/2.", value));
+    }
+  }
+
+  /**
+   * What happens to a record whose request failed.
+   */
+  public enum OnError {
+    SEND_TO_ERROR_PORT("send-to-error-port"),
+    WRITE_TO_RESPONSE("write-to-response"),
+    SKIP("skip-error"),
+    FAIL_PIPELINE("fail-pipeline");
+
+    private final String value;
+
+    OnError(String value) {
+      this.value = value;
+    }
+
+    public String getValue() {
+      return value;
+    }
+
+    public static OnError fromValue(@Nullable String value) {
+      if (value == null || value.isEmpty()) {
+        return WRITE_TO_RESPONSE;
+      }
+      for (OnError onError : values()) {
+        if (onError.value.equalsIgnoreCase(value)) {
+          return onError;
+        }
+      }
+      throw new IllegalArgumentException(
+        String.format("Invalid error handling '%s'. Must be send-to-error-port, write-to-response, skip-error or " +
+                        "fail-pipeline.", value));
+    }
+  }
+
   public static final String PROPETY_HTTPGET_URLFIELD = "httpURLField";
+  public static final String PROPERTY_URL_TEMPLATE = "urlTemplate";
   public static final String PROPERTY_HTTP_METHOD = "httpMethod";
   public static final String PROPERTY_HEADERS = "headers";
   public static final String PROPERTY_REQUEST_BODY = "requestBody";
   public static final String PROPERTY_RESPONSE_FIELD = "responseField";
+  public static final String PROPERTY_FIELD_MAPPINGS = "fieldMappings";
+  public static final String PROPERTY_ARRAY_PATH = "arrayPath";
+  public static final String PROPERTY_ACCEPT_ENCODING = "acceptEncoding";
+  public static final String PROPERTY_MAX_RESPONSE_SIZE = "maxResponseSize";
   public static final String PROPERTY_USERNAME = "username";
   public static final String PROPERTY_PASSWORD = "password";
   public static final String PROPERTY_AUTH_TOKEN = "authToken";
   public static final String PROPERTY_AUTH_LOOKUP = "authLookup";
+  public static final String PROPERTY_OAUTH2_TOKEN_URL = "oauth2TokenUrl";
+  public static final String PROPERTY_OAUTH2_CLIENT_ID = "oauth2ClientId";
+  public static final String PROPERTY_OAUTH2_CLIENT_SECRET = "oauth2ClientSecret";
+  public static final String PROPERTY_OAUTH2_SCOPE = "oauth2Scope";
+  public static final String PROPERTY_HTTP_VERSION = "httpVersion";
+  public static final String PROPERTY_MAX_CONNECTIONS = "maxConnections";
+  public static final String PROPERTY_MAX_CONNECTIONS_PER_ROUTE = "maxConnectionsPerRoute";
+  public static final String PROPERTY_IDLE_CONNECTION_TIMEOUT = "idleConnectionTimeout";
+  public static final String PROPERTY_CONNECTION_TIME_TO_LIVE = "connectionTimeToLive";
+  public static final String PROPERTY_CONNECT_TIMEOUT = "connectTimeout";
+  public static final String PROPERTY_READ_TIMEOUT = "readTimeout";
+  public static final String PROPERTY_CONNECTION_REQUEST_TIMEOUT = "connectionRequestTimeout";
+  public static final String PROPERTY_REQUEST_TIMEOUT = "requestTimeout";
+  public static final String PROPERTY_DEADLINE = "deadline";
+  public static final String PROPERTY_MAX_CONCURRENT_REQUESTS = "maxConcurrentRequests";
+  public static final String PROPERTY_PRESERVE_ORDER = "preserveOrder";
+  public static final String PROPERTY_CACHE_MAX_ENTRIES = "cacheMaxEntries";
+  public static final String PROPERTY_CACHE_MAX_BYTES = "cacheMaxBytes";
+  public static final String PROPERTY_CACHE_TTL = "cacheTtl";
+  public static final String PROPERTY_CACHE_NOT_FOUND_TTL = "cacheNotFoundTtl";
+  public static final String PROPERTY_PERSISTENT_CACHE_DIR = "persistentCacheDir";
+  public static final String PROPERTY_COALESCE_REQUESTS = "coalesceRequests";
+  public static final String PROPERTY_RATE_LIMIT = "rateLimit";
+  public static final String PROPERTY_RATE_LIMIT_BURST = "rateLimitBurst";
+  public static final String PROPERTY_ADAPTIVE_CONCURRENCY = "adaptiveConcurrency";
+  public static final String PROPERTY_MAX_RETRIES = "maxRetries";
+  public static final String PROPERTY_RETRY_INITIAL_DELAY = "retryInitialDelay";
+  public static final String PROPERTY_RETRY_MAX_DELAY = "retryMaxDelay";
+  public static final String PROPERTY_CIRCUIT_BREAKER_THRESHOLD = "circuitBreakerThreshold";
+  public static final String PROPERTY_CIRCUIT_BREAKER_OPEN_TIME = "circuitBreakerOpenTime";
+  public static final String PROPERTY_HEDGE_DELAY = "hedgeDelay";
+  public static final String PROPERTY_HEDGE_MAX_PERCENT = "hedgeMaxPercent";
+  public static final String PROPERTY_ON_ERROR = "onError";
+  public static final String PROPERTY_DEFERRED_RETRIES = "deferredRetries";
+  public static final String PROPERTY_BATCH_SIZE = "batchSize";
+  public static final String PROPERTY_BATCH_TIMEOUT = "batchTimeout";
+  public static final String PROPERTY_BATCH_MODE = "batchMode";
+  public static final String PROPERTY_BATCH_KEY_FIELD = "batchKeyField";
+  public static final String PROPERTY_BATCH_PARAMETER = "batchParameter";
+  public static final String PROPERTY_BATCH_RESPONSE_KEY_PATH = "batchResponseKeyPath";
+  public static final String PROPERTY_PAGINATION_TYPE = "paginationType";
+  public static final String PROPERTY_NEXT_PAGE_TOKEN_PATH = "nextPageTokenPath";
+  public static final String PROPERTY_NEXT_PAGE_TOKEN_PARAMETER = "nextPageTokenParameter";
+  public static final String PROPERTY_OFFSET_PARAMETER = "offsetParameter";
+  public static final String PROPERTY_LIMIT_PARAMETER = "limitParameter";
+  public static final String PROPERTY_PAGE_SIZE = "pageSize";
+  public static final String PROPERTY_MAX_PAGES = "maxPages";
+  public static final String PROPERTY_PREFETCH_NEXT_PAGE = "prefetchNextPage";
+  public static final String PROPERTY_LOOKUP_URL = "lookupUrl";
+  public static final String PROPERTY_LOOKUP_KEY_FIELD = "lookupKeyField";
+  public static final String PROPERTY_LOOKUP_KEY_PATH = "lookupKeyPath";
+  public static final String PROPERTY_LOOKUP_REFRESH_INTERVAL = "lookupRefreshInterval";
   public static final String OUTPUTSCHEMA_FIELD = "schema";
 
+  private static final List<String> SUPPORTED_METHODS = Arrays.asList("GET", "POST", "PUT", "PATCH", "DELETE");
+  private static final List<String> BODY_METHODS = Arrays.asList("POST", "PUT", "PATCH");
+  private static final int DEFAULT_MAX_CONNECTIONS = 50;
+  private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+  private static final long DEFAULT_IDLE_CONNECTION_TIMEOUT = 30;
+  private static final int DEFAULT_TIMEOUT = 60000;
+  private static final long DEFAULT_CACHE_MAX_BYTES = 64 * 1024 * 1024;
+  private static final long DEFAULT_CACHE_TTL = 300;
+  private static final int DEFAULT_MAX_RETRIES = 0;
+  private static final long DEFAULT_RETRY_INITIAL_DELAY = 500;
+  private static final long DEFAULT_RETRY_MAX_DELAY = 30000;
+  private static final long DEFAULT_CIRCUIT_BREAKER_OPEN_TIME = 30;
+  private static final double DEFAULT_HEDGE_MAX_PERCENT = 5;
+  private static final String DEFAULT_ACCEPT_ENCODING = "gzip,deflate";
+  private static final String DEFAULT_BATCH_PARAMETER = "ids";
+  private static final String DEFAULT_OFFSET_PARAMETER = "offset";
+  private static final String DEFAULT_LIMIT_PARAMETER = "limit";
+
   @Name(PROPETY_HTTPGET_URLFIELD)
-  @Description("Field containing HTTP Get URL.")
+  @Nullable
+  @Description("Field containing HTTP Get URL. Leave empty to build the URL from the URL template instead.")
   private String httpURLField;
 
+  @Name(PROPERTY_URL_TEMPLATE)
+  @Nullable
+  @Description("URL built from input fields, such as 'https://api.example.com/items/${id}?type=${type}'. Field " +
+    "values are URL encoded, unless referenced as '${raw:field}'. Use either this or the URL field.")
+  @Macro
+  protected String urlTemplate;
 
   @Name(PROPERTY_HTTP_METHOD)
-  @Description("HTTP request method.")
+  @Description("HTTP request method: GET, POST, PUT, PATCH or DELETE.")
   @Macro
   protected String httpMethod;
 
@@ -43,13 +227,46 @@ public class HttpConfig extends PluginConfig {
 
   @Nullable
   @Name(PROPERTY_REQUEST_BODY)
-  @Description("Field name containing the HTTP post data.")
+  @Description("Body of POST, PUT and PATCH requests, built from input fields, such as " +
+    "'{\"id\": \"${id}\"}'. Field values are escaped for JSON unless the Content-Type header says otherwise, or " +
+    "the field is referenced as '${raw:field}'.")
+  @Macro
   protected String requestBody;
 
   @Name(PROPERTY_RESPONSE_FIELD)
-  @Description("Output schema field name to store the HTTP response.")
+  @Nullable
+  @Description("Output schema field name to store the HTTP response. When field mappings are used, this field " +
+    "only receives the error of failed requests.")
   protected String httpresponseField;
 
+  @Name(PROPERTY_FIELD_MAPPINGS)
+  @Nullable
+  @Description("Mappings from output field names to JSON paths in the response, such as 'city:$.address.city'. " +
+    "The response is read as a stream and only the mapped values are extracted into the typed output fields.")
+  protected String fieldMappings;
+
+  @Name(PROPERTY_ARRAY_PATH)
+  @Nullable
+  @Description("JSON path of an array in the response, such as '$.items', or '$' if the response itself is an " +
+    "array. Each element of the array is emitted as its own record, joined with the fields of the input record, " +
+    "as soon as it is read. Field mappings are then relative to the element. Without field mappings, the element " +
+    "is written as JSON into the response field.")
+  protected String arrayPath;
+
+  @Name(PROPERTY_ACCEPT_ENCODING)
+  @Nullable
+  @Description("Comma separated content encodings accepted in responses, from 'gzip', 'deflate' and 'identity'. " +
+    "Compressed responses are decompressed while they are read. Defaults to 'gzip,deflate', use 'identity' to " +
+    "request uncompressed responses.")
+  protected String acceptEncoding;
+
+  @Name(PROPERTY_MAX_RESPONSE_SIZE)
+  @Nullable
+  @Description("Maximum number of bytes of a response body, after decompression. A response that is larger fails " +
+    "as soon as its declared length or the bytes read exceed it, and the connection is closed without reading the " +
+    "rest. Leave empty or use 0 for no limit.")
+  protected Long maxResponseSize;
+
 
   @Nullable
   @Name(PROPERTY_USERNAME)
@@ -79,18 +296,347 @@ public class HttpConfig extends PluginConfig {
   @Description("Input field used to Lookup the Authorization JSON field. for eg: Field containing Marketing Program Number ")
   protected String authLookup;
 
+  @Name(PROPERTY_OAUTH2_TOKEN_URL)
+  @Nullable
+  @Description("Token endpoint of an OAuth2 authorization server. When set, a bearer token is obtained with the " +
+    "client credentials grant for each lookup value, cached, and refreshed in the background before it expires.")
+  @Macro
+  protected String oauth2TokenUrl;
+
+  @Name(PROPERTY_OAUTH2_CLIENT_ID)
+  @Nullable
+  @Description("OAuth2 client ID of each lookup value, as a JSON object. eg: { '291':'client-a', '415':'client-b' }")
+  @Macro
+  protected String oauth2ClientId;
+
+  @Name(PROPERTY_OAUTH2_CLIENT_SECRET)
+  @Nullable
+  @Description("OAuth2 client secret of each lookup value, as a JSON object. eg: { '291':'s3cr3t', '415':'t0k3n' }")
+  @Macro
+  protected String oauth2ClientSecret;
+
+  @Name(PROPERTY_OAUTH2_SCOPE)
+  @Nullable
+  @Description("Space separated scopes requested with every OAuth2 token. Leave empty to request the default scopes " +
+    "of the client.")
+  @Macro
+  protected String oauth2Scope;
+
+
+  @Name(PROPERTY_HTTP_VERSION)
+  @Nullable
+  @Description("HTTP version used to call the endpoint: HTTP/1.1 or HTTP/2. With HTTP/2, concurrent requests to a " +
+    "host share a few multiplexed connections. Hosts that do not negotiate HTTP/2 over TLS, and plain http URLs, " +
+    "are called with HTTP/1.1. Request and response bodies are held in memory in full rather than streamed, up to " +
+    "the maximum response size for responses. Defaults to HTTP/1.1.")
+  protected String httpVersion;
+
+  @Name(PROPERTY_MAX_CONNECTIONS)
+  @Nullable
+  @Description("Maximum number of pooled connections kept open by the stage across all hosts. Defaults to 50.")
+  protected Integer maxConnections;
+
+  @Name(PROPERTY_MAX_CONNECTIONS_PER_ROUTE)
+  @Nullable
+  @Description("Maximum number of pooled connections kept open to a single host. Defaults to 20.")
+  protected Integer maxConnectionsPerRoute;
+
+  @Name(PROPERTY_IDLE_CONNECTION_TIMEOUT)
+  @Nullable
+  @Description("Number of seconds a pooled connection may stay idle before it is evicted. " +
+    "Use 0 to never evict idle connections. Defaults to 30.")
+  protected Long idleConnectionTimeout;
+
+  @Name(PROPERTY_CONNECTION_TIME_TO_LIVE)
+  @Nullable
+  @Description("Maximum number of seconds a pooled connection is kept, regardless of activity. " +
+    "Leave empty to keep connections for as long as the server allows.")
+  protected Long connectionTimeToLive;
+
+  @Name(PROPERTY_CONNECT_TIMEOUT)
+  @Nullable
+  @Description("Maximum number of milliseconds to wait for a connection to be established. Defaults to 60000.")
+  protected Integer connectTimeout;
+
+  @Name(PROPERTY_READ_TIMEOUT)
+  @Nullable
+  @Description("Maximum number of milliseconds to wait for the next data of a response, including its headers. " +
+    "Defaults to 60000.")
+  protected Integer readTimeout;
+
+  @Name(PROPERTY_CONNECTION_REQUEST_TIMEOUT)
+  @Nullable
+  @Description("Maximum number of milliseconds to wait for a connection of the pool when all of them are in use. " +
+    "Defaults to 60000.")
+  protected Integer connectionRequestTimeout;
+
+  @Name(PROPERTY_REQUEST_TIMEOUT)
+  @Nullable
+  @Description("Maximum number of milliseconds a request may take in total, from sending it to reading the last " +
+    "byte of its response, including retries. Leave empty or use 0 for no limit.")
+  protected Long requestTimeout;
+
+  @Name(PROPERTY_DEADLINE)
+  @Nullable
+  @Description("Maximum number of seconds each partition spends on requests, counted from when it starts. Once it " +
+    "passed, requests in flight are aborted and the remaining records fail with a timeout without being sent, as " +
+    "set by the error handling. Leave empty or use 0 for no deadline.")
+  protected Long deadline;
+
+  @Name(PROPERTY_MAX_CONCURRENT_REQUESTS)
+  @Nullable
+  @Description("Maximum number of requests kept in flight at the same time by each partition. Defaults to 1.")
+  protected Integer maxConcurrentRequests;
+
+  @Name(PROPERTY_PRESERVE_ORDER)
+  @Nullable
+  @Description("Whether output records are emitted in the same order as the input records when several requests " +
+    "are in flight. If false, records are emitted as soon as their response arrives. Defaults to true.")
+  protected Boolean preserveOrder;
+
+  @Name(PROPERTY_CACHE_MAX_ENTRIES)
+  @Nullable
+  @Description("Maximum number of responses kept in the in-memory response cache. The least recently used " +
+    "response is evicted first. Leave empty or use 0 to disable the cache.")
+  protected Integer cacheMaxEntries;
+
+  @Name(PROPERTY_CACHE_MAX_BYTES)
+  @Nullable
+  @Description("Maximum total size in bytes of the responses kept in the response cache. Defaults to 64 MB.")
+  protected Long cacheMaxBytes;
+
+  @Name(PROPERTY_CACHE_TTL)
+  @Nullable
+  @Description("Number of seconds a successful response is served from the response cache. Defaults to 300.")
+  protected Long cacheTtl;
+
+  @Name(PROPERTY_CACHE_NOT_FOUND_TTL)
+  @Nullable
+  @Description("Number of seconds a 404 Not Found response is served from the response cache. " +
+    "Leave empty or use 0 to never cache 404 responses.")
+  protected Long cacheNotFoundTtl;
+
+  @Name(PROPERTY_PERSISTENT_CACHE_DIR)
+  @Nullable
+  @Macro
+  @Description("Directory of a response cache that is kept across pipeline runs, on the local file system of the " +
+    "workers or on HDFS, such as 'hdfs:///tmp/http-cache'. Responses with an ETag or Last-Modified header are " +
+    "stored with them, and later requests for the same URL ask the server whether the response changed, reusing " +
+    "the stored response if it did not. Leave empty to not keep responses across runs.")
+  protected String persistentCacheDir;
+
+  @Name(PROPERTY_COALESCE_REQUESTS)
+  @Nullable
+  @Description("Whether records that request the same URL with the same credentials while an identical request is " +
+    "already in flight share the response of that request instead of sending their own. Defaults to true.")
+  protected Boolean coalesceRequests;
+
+  @Name(PROPERTY_RATE_LIMIT)
+  @Nullable
+  @Description("Maximum number of requests per second sent to a single host by each partition. Leave empty or use " +
+    "0 for no limit.")
+  protected Double rateLimit;
+
+  @Name(PROPERTY_RATE_LIMIT_BURST)
+  @Nullable
+  @Description("Number of requests that may be sent to a host at once after it was idle, before the rate limit " +
+    "applies. Defaults to the rate limit rounded up.")
+  protected Integer rateLimitBurst;
+
+  @Name(PROPERTY_ADAPTIVE_CONCURRENCY)
+  @Nullable
+  @Description("Whether the number of requests in flight to a host adapts to its responses. The limit grows while " +
+    "the host responds normally, up to the maximum concurrent requests, and is halved on 429 and 503 responses, " +
+    "failures or rising latency. Defaults to false.")
+  protected Boolean adaptiveConcurrency;
+
+  @Name(PROPERTY_MAX_RETRIES)
+  @Nullable
+  @Description("Maximum number of times a request is retried after a connection failure, a timeout or a 429, 500, " +
+    "502, 503 or 504 response. Use 0 to never retry. Defaults to 0.")
+  protected Integer maxRetries;
+
+  @Name(PROPERTY_RETRY_INITIAL_DELAY)
+  @Nullable
+  @Description("Upper bound in milliseconds of the random delay before the first retry. The bound doubles with " +
+    "every further retry. Defaults to 500.")
+  protected Long retryInitialDelay;
+
+  @Name(PROPERTY_RETRY_MAX_DELAY)
+  @Nullable
+  @Description("Maximum delay in milliseconds before a retry, including delays requested by a Retry-After header. " +
+    "Defaults to 30000.")
+  protected Long retryMaxDelay;
+
+  @Name(PROPERTY_CIRCUIT_BREAKER_THRESHOLD)
+  @Nullable
+  @Description("Number of consecutive failed requests to a host after which requests to that host fail " +
+    "immediately, until the circuit breaker open time has passed. Leave empty or use 0 to disable.")
+  protected Integer circuitBreakerThreshold;
+
+  @Name(PROPERTY_CIRCUIT_BREAKER_OPEN_TIME)
+  @Nullable
+  @Description("Number of seconds requests to a failing host fail immediately before a single request probes " +
+    "whether the host is back. Defaults to 30.")
+  protected Long circuitBreakerOpenTime;
+
+  @Name(PROPERTY_HEDGE_DELAY)
+  @Nullable
+  @Description("Time after which a second, identical GET request is sent if the first one has no response yet, " +
+    "using whichever response arrives first. Either a number of milliseconds, or a percentile of the latencies of " +
+    "recent requests such as 'p95'. Leave empty to never hedge requests.")
+  protected String hedgeDelay;
+
+  @Name(PROPERTY_HEDGE_MAX_PERCENT)
+  @Nullable
+  @Description("Maximum number of hedged requests, as a percentage of all requests. Defaults to 5.")
+  protected Double hedgeMaxPercent;
+
+  @Name(PROPERTY_ON_ERROR)
+  @Nullable
+  @Description("What happens to a record whose request still fails after the retries. 'send-to-error-port' sends " +
+    "the input record with the status code to the error port of the stage, 'write-to-response' emits it with the " +
+    "error in the response field, 'skip-error' drops it and 'fail-pipeline' stops the pipeline. " +
+    "Defaults to write-to-response.")
+  protected String onError;
+
+  @Name(PROPERTY_DEFERRED_RETRIES)
+  @Nullable
+  @Description("Number of times records that failed with a retryable error are tried again after the other " +
+    "records of the partition, so that slow retries do not hold them up. Defaults to 0.")
+  protected Integer deferredRetries;
+
+  @Name(PROPERTY_BATCH_SIZE)
+  @Nullable
+  @Description("Maximum number of records whose keys are sent together in one request. Use 1 to send one request " +
+    "per record. Defaults to 1.")
+  protected Integer batchSize;
+
+  @Name(PROPERTY_BATCH_TIMEOUT)
+  @Nullable
+  @Description("Maximum number of milliseconds a record waits for its batch to fill up. Leave empty to only send " +
+    "full batches, and the remaining records at the end of the input.")
+  protected Long batchTimeout;
+
+  @Name(PROPERTY_BATCH_MODE)
+  @Nullable
+  @Description("How the keys of a batch are sent: 'queryParameter' adds them to the URL as a comma separated " +
+    "query parameter, 'jsonArray' posts them as a JSON array. Defaults to queryParameter.")
+  protected String batchMode;
+
+  @Name(PROPERTY_BATCH_KEY_FIELD)
+  @Nullable
+  @Description("Input field holding the key that is sent for each record of a batch.")
+  protected String batchKeyField;
+
+  @Name(PROPERTY_BATCH_PARAMETER)
+  @Nullable
+  @Description("Query parameter that receives the keys of a batch. Defaults to 'ids'.")
+  protected String batchParameter;
+
+  @Name(PROPERTY_BATCH_RESPONSE_KEY_PATH)
+  @Nullable
+  @Description("JSON path of the key within each element of the batch response, such as '$.id'. Elements are " +
+    "matched to records by this key. Leave empty to match the elements to the records by position.")
+  protected String batchResponseKeyPath;
+
+  @Name(PROPERTY_PAGINATION_TYPE)
+  @Nullable
+  @Description("How further pages of a response are found: 'none', 'linkHeader' to follow the Link header with " +
+    "relation next, 'nextPageToken' to read the next page from the response body, or 'offset' to advance an " +
+    "offset parameter. Defaults to none.")
+  protected String paginationType;
+
+  @Name(PROPERTY_NEXT_PAGE_TOKEN_PATH)
+  @Nullable
+  @Description("JSON path of the next page token in the response body, such as '$.paging.next'. The last page is " +
+    "reached when the token is missing or empty.")
+  protected String nextPageTokenPath;
+
+  @Name(PROPERTY_NEXT_PAGE_TOKEN_PARAMETER)
+  @Nullable
+  @Description("Query parameter of the input URL that receives the next page token. Leave empty if the token is " +
+    "the URL of the next page.")
+  protected String nextPageTokenParameter;
+
+  @Name(PROPERTY_OFFSET_PARAMETER)
+  @Nullable
+  @Description("Query parameter that receives the offset of the page. Defaults to 'offset'.")
+  protected String offsetParameter;
+
+  @Name(PROPERTY_LIMIT_PARAMETER)
+  @Nullable
+  @Description("Query parameter that receives the page size. Defaults to 'limit'.")
+  protected String limitParameter;
+
+  @Name(PROPERTY_PAGE_SIZE)
+  @Nullable
+  @Description("Number of elements requested per page with offset pagination. A page with fewer elements is the " +
+    "last one.")
+  protected Integer pageSize;
+
+  @Name(PROPERTY_MAX_PAGES)
+  @Nullable
+  @Description("Maximum number of pages fetched for one input record. Leave empty or use 0 for no limit.")
+  protected Integer maxPages;
+
+  @Name(PROPERTY_PREFETCH_NEXT_PAGE)
+  @Nullable
+  @Description("Whether the next page is requested while the records of the current page are emitted. Only applies " +
+    "when the next page is known before the current page is read, which is the case for Link headers and offsets. " +
+    "Defaults to false.")
+  protected Boolean prefetchNextPage;
+
+  @Name(PROPERTY_LOOKUP_URL)
+  @Nullable
+  @Description("URL of a reference dataset that is fetched once when the stage starts, following the pagination " +
+    "settings. Records are then joined with its elements in memory instead of calling the endpoint for each " +
+    "record. The elements are located with the array path. Leave empty to call the endpoint for each record.")
+  @Macro
+  protected String lookupUrl;
+
+  @Name(PROPERTY_LOOKUP_KEY_FIELD)
+  @Nullable
+  @Description("Input field whose value is looked up among the keys of the reference elements.")
+  protected String lookupKeyField;
+
+  @Name(PROPERTY_LOOKUP_KEY_PATH)
+  @Nullable
+  @Description("JSON path of the key within each element of the reference dataset, such as '$.id'.")
+  protected String lookupKeyPath;
+
+  @Name(PROPERTY_LOOKUP_REFRESH_INTERVAL)
+  @Nullable
+  @Description("Number of seconds after which the reference dataset is fetched again in the background. Records " +
+    "are joined with the previous data until the new data is complete. Leave empty or use 0 to never refresh.")
+  protected Long lookupRefreshInterval;
 
   @Name(OUTPUTSCHEMA_FIELD)
   @Description("Specifies the schema of the records outputted from this plugin.")
   private final String schema;
 
 
+  @Nullable
   public String getHttpgetUrlField() {
     return httpURLField;
   }
 
+  @Nullable
+  public String getUrlTemplate() {
+    return urlTemplate == null || urlTemplate.isEmpty() ? null : urlTemplate;
+  }
+
+  /**
+   * @return the compiled URL template, or {@code null} if the URL is read from an input field
+   */
+  @Nullable
+  public RequestTemplate createUrlTemplate() {
+    String template = getUrlTemplate();
+    return template == null ? null : RequestTemplate.compile(template, RequestTemplate.Escaping.URL);
+  }
+
   public String getHttpMethod() {
-    return httpMethod;
+    return httpMethod == null || httpMethod.trim().isEmpty() ? "GET" : httpMethod.trim().toUpperCase();
   }
 
   @Nullable
@@ -100,13 +646,97 @@ public class HttpConfig extends PluginConfig {
 
   @Nullable
   public String getRequestBody() {
-    return requestBody;
+    return requestBody == null || requestBody.isEmpty() ? null : requestBody;
+  }
+
+  /**
+   * @return the content type of the request body, taken from the Content-Type header if there is one
+   */
+  public ContentType getRequestContentType() {
+    for (Map.Entry<String, String> header : getMapFromKeyValueString(headers).entrySet()) {
+      if (HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(header.getKey().trim())) {
+        return ContentType.parse(header.getValue().trim());
+      }
+    }
+    return ContentType.APPLICATION_JSON;
   }
 
+  /**
+   * @return the compiled request body template, or {@code null} if requests have no body
+   */
+  @Nullable
+  public RequestTemplate createBodyTemplate() {
+    String template = getRequestBody();
+    if (template == null) {
+      return null;
+    }
+    boolean json = getRequestContentType().getMimeType().toLowerCase().contains("json");
+    return RequestTemplate.compile(template, json ? RequestTemplate.Escaping.JSON : RequestTemplate.Escaping.NONE);
+  }
+
+  @Nullable
   public String getResponseField() {
     return httpresponseField;
   }
 
+  public Map<String, String> getFieldMappings() {
+    return getMapFromKeyValueString(fieldMappings);
+  }
+
+  /**
+   * @return the encodings accepted in responses, in the order of preference
+   */
+  public List<String> getAcceptEncodings() {
+    String encodings = acceptEncoding == null || acceptEncoding.trim().isEmpty()
+      ? DEFAULT_ACCEPT_ENCODING : acceptEncoding;
+    List<String> result = new ArrayList<>();
+    for (String encoding : encodings.split(",")) {
+      encoding = encoding.trim().toLowerCase();
+      if (encoding.isEmpty()) {
+        continue;
+      }
+      if (!ContentDecoder.isSupported(encoding)) {
+        throw new IllegalArgumentException(
+          String.format("Content encoding '%s' is not supported. Must be one of gzip, deflate or identity.",
+                        encoding));
+      }
+      result.add(encoding);
+    }
+    return result;
+  }
+
+  public long getMaxResponseSize() {
+    return maxResponseSize == null ? 0 : maxResponseSize;
+  }
+
+  @Nullable
+  public String getArrayPath() {
+    return arrayPath == null || arrayPath.isEmpty() ? null : arrayPath;
+  }
+
+  /**
+   * Creates the projection used to read responses, or returns {@code null} if the whole response is written into
+   * the response field.
+   *
+   * @throws IllegalArgumentException if the mappings or the array path are invalid
+   */
+  @Nullable
+  public JsonProjection createProjection(Schema outputSchema) {
+    Map<String, String> mappings = getFieldMappings();
+    String arrayPath = getArrayPath();
+    List<String> capturePaths = getPaginationType() == Pagination.Type.NEXT_PAGE_TOKEN
+      ? Collections.singletonList(getNextPageTokenPath()) : Collections.emptyList();
+    if (mappings.isEmpty() && arrayPath == null) {
+      return null;
+    }
+    if (mappings.isEmpty()) {
+      // each element is written as JSON into the response field
+      mappings = Collections.singletonMap(httpresponseField, "$");
+    }
+    String keyPath = isLookup() ? getLookupKeyPath() : isBatching() ? getBatchResponseKeyPath() : null;
+    return new JsonProjection(mappings, arrayPath, capturePaths, keyPath, outputSchema);
+  }
+
   @Nullable
   public String getUsername() {
     return username;
@@ -122,6 +752,26 @@ public class HttpConfig extends PluginConfig {
     return authToken;
   }
 
+  @Nullable
+  public String getOAuth2TokenUrl() {
+    return oauth2TokenUrl == null || oauth2TokenUrl.isEmpty() ? null : oauth2TokenUrl;
+  }
+
+  @Nullable
+  public String getOAuth2ClientId() {
+    return getOAuth2TokenUrl() == null ? null : oauth2ClientId;
+  }
+
+  @Nullable
+  public String getOAuth2ClientSecret() {
+    return getOAuth2TokenUrl() == null ? null : oauth2ClientSecret;
+  }
+
+  @Nullable
+  public String getOAuth2Scope() {
+    return oauth2Scope == null || oauth2Scope.isEmpty() ? null : oauth2Scope;
+  }
+
   public String getSchema() {
     return schema;
   }
@@ -131,6 +781,259 @@ public class HttpConfig extends PluginConfig {
     return authLookup;
   }
 
+  public HttpVersion getHttpVersion() {
+    return HttpVersion.fromValue(httpVersion);
+  }
+
+  public int getMaxConnections() {
+    return maxConnections == null ? DEFAULT_MAX_CONNECTIONS : maxConnections;
+  }
+
+  public int getMaxConnectionsPerRoute() {
+    return maxConnectionsPerRoute == null ? DEFAULT_MAX_CONNECTIONS_PER_ROUTE : maxConnectionsPerRoute;
+  }
+
+  public long getIdleConnectionTimeout() {
+    return idleConnectionTimeout == null ? DEFAULT_IDLE_CONNECTION_TIMEOUT : idleConnectionTimeout;
+  }
+
+  public long getConnectionTimeToLive() {
+    return connectionTimeToLive == null ? 0 : connectionTimeToLive;
+  }
+
+  public int getConnectTimeout() {
+    return connectTimeout == null ? DEFAULT_TIMEOUT : connectTimeout;
+  }
+
+  public int getReadTimeout() {
+    return readTimeout == null ? DEFAULT_TIMEOUT : readTimeout;
+  }
+
+  public int getConnectionRequestTimeout() {
+    return connectionRequestTimeout == null ? DEFAULT_TIMEOUT : connectionRequestTimeout;
+  }
+
+  public long getRequestTimeout() {
+    return requestTimeout == null ? 0 : requestTimeout;
+  }
+
+  public long getDeadline() {
+    return deadline == null ? 0 : deadline;
+  }
+
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests == null ? 1 : maxConcurrentRequests;
+  }
+
+  public boolean isPreserveOrder() {
+    return preserveOrder == null || preserveOrder;
+  }
+
+  public int getCacheMaxEntries() {
+    return cacheMaxEntries == null ? 0 : cacheMaxEntries;
+  }
+
+  public long getCacheMaxBytes() {
+    return cacheMaxBytes == null ? DEFAULT_CACHE_MAX_BYTES : cacheMaxBytes;
+  }
+
+  public long getCacheTtl() {
+    return cacheTtl == null ? DEFAULT_CACHE_TTL : cacheTtl;
+  }
+
+  public long getCacheNotFoundTtl() {
+    return cacheNotFoundTtl == null ? 0 : cacheNotFoundTtl;
+  }
+
+  @Nullable
+  public String getPersistentCacheDir() {
+    return persistentCacheDir == null || persistentCacheDir.isEmpty() ? null : persistentCacheDir;
+  }
+
+  public boolean isCoalesceRequests() {
+    return coalesceRequests == null || coalesceRequests;
+  }
+
+  /**
+   * @return whether coalescing was enabled explicitly, rather than being on by default
+   */
+  public boolean isCoalesceRequestsSet() {
+    return Boolean.TRUE.equals(coalesceRequests);
+  }
+
+  public double getRateLimit() {
+    return rateLimit == null ? 0 : rateLimit;
+  }
+
+  public int getRateLimitBurst() {
+    return rateLimitBurst == null ? (int) Math.max(1, Math.ceil(getRateLimit())) : rateLimitBurst;
+  }
+
+  public boolean isAdaptiveConcurrency() {
+    return adaptiveConcurrency != null && adaptiveConcurrency;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries == null ? DEFAULT_MAX_RETRIES : maxRetries;
+  }
+
+  public long getRetryInitialDelay() {
+    return retryInitialDelay == null ? DEFAULT_RETRY_INITIAL_DELAY : retryInitialDelay;
+  }
+
+  public long getRetryMaxDelay() {
+    return retryMaxDelay == null ? DEFAULT_RETRY_MAX_DELAY : retryMaxDelay;
+  }
+
+  public int getCircuitBreakerThreshold() {
+    return circuitBreakerThreshold == null ? 0 : circuitBreakerThreshold;
+  }
+
+  public long getCircuitBreakerOpenTime() {
+    return circuitBreakerOpenTime == null ? DEFAULT_CIRCUIT_BREAKER_OPEN_TIME : circuitBreakerOpenTime;
+  }
+
+  public boolean isHedging() {
+    return hedgeDelay != null && !hedgeDelay.trim().isEmpty();
+  }
+
+  /**
+   * @return the fixed hedge delay in milliseconds, or -1 if the delay is a latency percentile
+   */
+  public long getHedgeDelay() {
+    String delay = hedgeDelay.trim();
+    if (isPercentile(delay)) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(delay);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(
+        String.format("Invalid hedge delay '%s'. Must be a number of milliseconds or a percentile such as 'p95'.",
+                      hedgeDelay));
+    }
+  }
+
+  /**
+   * @return the latency percentile used as the hedge delay, if the delay is not fixed
+   */
+  public double getHedgePercentile() {
+    String delay = hedgeDelay.trim();
+    if (!isPercentile(delay)) {
+      return 0;
+    }
+    try {
+      return Double.parseDouble(delay.substring(1));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(
+        String.format("Invalid hedge delay '%s'. Must be a number of milliseconds or a percentile such as 'p95'.",
+                      hedgeDelay));
+    }
+  }
+
+  private static boolean isPercentile(String delay) {
+    return delay.startsWith("p") || delay.startsWith("P");
+  }
+
+  public double getHedgeMaxPercent() {
+    return hedgeMaxPercent == null ? DEFAULT_HEDGE_MAX_PERCENT : hedgeMaxPercent;
+  }
+
+  public OnError getOnError() {
+    return OnError.fromValue(onError);
+  }
+
+  public int getDeferredRetries() {
+    return deferredRetries == null ? 0 : deferredRetries;
+  }
+
+  public int getBatchSize() {
+    return batchSize == null ? 1 : batchSize;
+  }
+
+  public boolean isBatching() {
+    return getBatchSize() > 1;
+  }
+
+  public long getBatchTimeout() {
+    return batchTimeout == null ? 0 : batchTimeout;
+  }
+
+  public BatchMode getBatchMode() {
+    return BatchMode.fromValue(batchMode);
+  }
+
+  @Nullable
+  public String getBatchKeyField() {
+    return batchKeyField == null || batchKeyField.isEmpty() ? null : batchKeyField;
+  }
+
+  public String getBatchParameter() {
+    return batchParameter == null || batchParameter.isEmpty() ? DEFAULT_BATCH_PARAMETER : batchParameter;
+  }
+
+  @Nullable
+  public String getBatchResponseKeyPath() {
+    return batchResponseKeyPath == null || batchResponseKeyPath.isEmpty() ? null : batchResponseKeyPath;
+  }
+
+  public Pagination.Type getPaginationType() {
+    return Pagination.Type.fromValue(paginationType);
+  }
+
+  @Nullable
+  public String getNextPageTokenPath() {
+    return nextPageTokenPath == null || nextPageTokenPath.isEmpty() ? null : nextPageTokenPath;
+  }
+
+  @Nullable
+  public String getNextPageTokenParameter() {
+    return nextPageTokenParameter == null || nextPageTokenParameter.isEmpty() ? null : nextPageTokenParameter;
+  }
+
+  public String getOffsetParameter() {
+    return offsetParameter == null || offsetParameter.isEmpty() ? DEFAULT_OFFSET_PARAMETER : offsetParameter;
+  }
+
+  public String getLimitParameter() {
+    return limitParameter == null || limitParameter.isEmpty() ? DEFAULT_LIMIT_PARAMETER : limitParameter;
+  }
+
+  public int getPageSize() {
+    return pageSize == null ? 0 : pageSize;
+  }
+
+  public int getMaxPages() {
+    return maxPages == null ? 0 : maxPages;
+  }
+
+  public boolean isPrefetchNextPage() {
+    return prefetchNextPage != null && prefetchNextPage;
+  }
+
+  @Nullable
+  public String getLookupUrl() {
+    return lookupUrl == null || lookupUrl.isEmpty() ? null : lookupUrl;
+  }
+
+  public boolean isLookup() {
+    return getLookupUrl() != null;
+  }
+
+  @Nullable
+  public String getLookupKeyField() {
+    return lookupKeyField == null || lookupKeyField.isEmpty() ? null : lookupKeyField;
+  }
+
+  @Nullable
+  public String getLookupKeyPath() {
+    return lookupKeyPath == null || lookupKeyPath.isEmpty() ? null : lookupKeyPath;
+  }
+
+  public long getLookupRefreshInterval() {
+    return lookupRefreshInterval == null ? 0 : lookupRefreshInterval;
+  }
+
   public HttpConfig(String httpURLField, String schema) {
     this.httpURLField = httpURLField;
     this.schema = schema;
@@ -149,21 +1052,45 @@ public class HttpConfig extends PluginConfig {
       throw new IllegalArgumentException("Output schema cannot be parsed.", e);
     }
     // This method should be used to validate that the configuration is valid.
-    if (httpURLField == null || httpURLField.isEmpty()) {
-      throw new IllegalArgumentException("httpURLField is a required field.");
+    Schema fieldSchema;
+    Schema.Type fieldType;
+    boolean hasURLField = httpURLField != null && !httpURLField.isEmpty();
+    if (isLookup() || containsMacro(PROPERTY_LOOKUP_URL)) {
+      // the records are joined with the reference dataset, no URL is built for them
+      validateLookup(inputSchema);
+    } else if (hasURLField == (getUrlTemplate() != null)) {
+      throw new IllegalArgumentException(
+        String.format("Exactly one of '%s' and '%s' must be given.", PROPETY_HTTPGET_URLFIELD, PROPERTY_URL_TEMPLATE));
+    } else if (hasURLField) {
+      Schema.Field inputField = inputSchema.getField(httpURLField);
+      if (inputField == null) {
+        throw new IllegalArgumentException(
+          String.format("Field '%s' does not exist in input schema %s.", httpURLField, schema));
+      }
+      fieldSchema = inputField.getSchema();
+      fieldType = fieldSchema.isNullable() ? fieldSchema.getNonNullable().getType() : fieldSchema.getType();
+      if (fieldType != Schema.Type.STRING) {
+        throw new IllegalArgumentException(
+          String.format("Field '%s' is of illegal type %s. Must be of type %s.",
+                        httpURLField, fieldType, Schema.Type.STRING));
+      }
+    } else if (!containsMacro(PROPERTY_URL_TEMPLATE)) {
+      checkTemplateFields(createUrlTemplate(), inputSchema, PROPERTY_URL_TEMPLATE);
     }
 
-    Schema.Field inputField = inputSchema.getField(httpURLField);
-    if (inputField == null) {
-      throw new IllegalArgumentException(
-        String.format("Field '%s' does not exist in input schema %s.", httpURLField, schema));
+    if (!containsMacro(PROPERTY_HTTP_METHOD)) {
+      String method = getHttpMethod();
+      if (!SUPPORTED_METHODS.contains(method)) {
+        throw new IllegalArgumentException(
+          String.format("Unsupported HTTP method '%s'. Must be one of %s.", method, SUPPORTED_METHODS));
+      }
+      if (getRequestBody() != null && !BODY_METHODS.contains(method)) {
+        throw new IllegalArgumentException(
+          String.format("A request body cannot be sent with the %s method.", method));
+      }
     }
-    Schema fieldSchema = inputField.getSchema();
-    Schema.Type fieldType = fieldSchema.isNullable() ? fieldSchema.getNonNullable().getType() : fieldSchema.getType();
-    if (fieldType != Schema.Type.STRING) {
-      throw new IllegalArgumentException(
-        String.format("Field '%s' is of illegal type %s. Must be of type %s.",
-                      httpURLField, fieldType, Schema.Type.STRING));
+    if (getRequestBody() != null && !containsMacro(PROPERTY_REQUEST_BODY)) {
+      checkTemplateFields(createBodyTemplate(), inputSchema, PROPERTY_REQUEST_BODY);
     }
 
     if (username != null && !containsMacro(username)) {
@@ -187,8 +1114,12 @@ public class HttpConfig extends PluginConfig {
       }
     }
 
+    if (getOAuth2TokenUrl() != null || containsMacro(PROPERTY_OAUTH2_TOKEN_URL)) {
+      validateOAuth2();
+    }
+
     if  ( (authToken != null && !containsMacro(authToken)) || (password != null && !containsMacro(password)) ||
-      (username != null && !containsMacro(username)) ){
+      (username != null && !containsMacro(username)) || getOAuth2ClientId() != null ){
 
       // Check if Lookup field is provided.
 
@@ -211,28 +1142,129 @@ public class HttpConfig extends PluginConfig {
       }
     }
 
+    if (getMaxConnections() < 1) {
+      throw new IllegalArgumentException("Maximum connections must be at least 1.");
+    }
+    if (getMaxConnectionsPerRoute() < 1 || getMaxConnectionsPerRoute() > getMaxConnections()) {
+      throw new IllegalArgumentException(
+        String.format("Maximum connections per host must be between 1 and %d.", getMaxConnections()));
+    }
+    if (getMaxConcurrentRequests() < 1) {
+      throw new IllegalArgumentException("Maximum concurrent requests must be at least 1.");
+    }
+    if (getCacheMaxEntries() < 0 || getCacheMaxBytes() < 0 || getCacheTtl() < 0 || getCacheNotFoundTtl() < 0) {
+      throw new IllegalArgumentException("Response cache sizes and times cannot be negative.");
+    }
+    if (getIdleConnectionTimeout() < 0) {
+      throw new IllegalArgumentException("Idle connection timeout cannot be negative.");
+    }
+    if (getConnectionTimeToLive() < 0) {
+      throw new IllegalArgumentException("Connection time to live cannot be negative.");
+    }
+    getAcceptEncodings();
+    if (getMaxResponseSize() < 0) {
+      throw new IllegalArgumentException("Maximum response size cannot be negative.");
+    }
+    if (getConnectTimeout() < 0 || getReadTimeout() < 0 || getConnectionRequestTimeout() < 0
+      || getRequestTimeout() < 0 || getDeadline() < 0) {
+      throw new IllegalArgumentException("Timeouts and the deadline cannot be negative.");
+    }
+    if (getRateLimit() < 0) {
+      throw new IllegalArgumentException("Rate limit cannot be negative.");
+    }
+    if (getRateLimitBurst() < 1) {
+      throw new IllegalArgumentException("Rate limit burst must be at least 1.");
+    }
+    if (getMaxRetries() < 0 || getRetryInitialDelay() < 0 || getRetryMaxDelay() < 0) {
+      throw new IllegalArgumentException("Retry count and delays cannot be negative.");
+    }
+    if (getCircuitBreakerThreshold() < 0 || getCircuitBreakerOpenTime() < 0) {
+      throw new IllegalArgumentException("Circuit breaker threshold and open time cannot be negative.");
+    }
+    if (isHedging()) {
+      long delay = getHedgeDelay();
+      double percentile = getHedgePercentile();
+      if (delay < -1 || (delay == -1 && (percentile <= 0 || percentile >= 100))) {
+        throw new IllegalArgumentException(
+          "Hedge delay cannot be negative, and a hedge delay percentile must be between 0 and 100.");
+      }
+      if (getHedgeMaxPercent() <= 0 || getHedgeMaxPercent() > 100) {
+        throw new IllegalArgumentException("Maximum hedged requests must be more than 0 and at most 100 percent.");
+      }
+    }
+    getOnError();
+    if (getDeferredRetries() < 0) {
+      throw new IllegalArgumentException("Deferred retries cannot be negative.");
+    }
+    if (getMaxPages() < 0) {
+      throw new IllegalArgumentException("Maximum pages cannot be negative.");
+    }
+
     if (schema == null){
       throw new IllegalArgumentException("Out schema is unknown. Define schema");
     }
 
     // This method should be used to validate that the configuration is valid.
-    if (httpresponseField == null || httpresponseField.isEmpty()) {
+    Map<String, String> mappings = getFieldMappings();
+    if ((httpresponseField == null || httpresponseField.isEmpty()) && mappings.isEmpty()) {
       throw new IllegalArgumentException("Response Field is a required.");
     }
 
-    try {
-      Schema outputSchema = Schema.parseJson(schema);
-      Schema.Field responseField = outputSchema.getField(httpresponseField);
-      if (responseField == null) {
+    getHttpVersion();
+    if (getBatchSize() < 1 || getBatchTimeout() < 0) {
+      throw new IllegalArgumentException("Batch size must be at least 1 and the batch timeout cannot be negative.");
+    }
+    if (isBatching()) {
+      getBatchMode();
+      if (getBatchKeyField() == null || inputSchema.getField(getBatchKeyField()) == null) {
         throw new IllegalArgumentException(
-          String.format("Field '%s' does not exist in output schema %s.", httpresponseField, schema));
+          String.format("'%s' must be an input field when requests are batched.", PROPERTY_BATCH_KEY_FIELD));
       }
-      fieldSchema = responseField.getSchema();
-      fieldType = fieldSchema.isNullable() ? fieldSchema.getNonNullable().getType() : fieldSchema.getType();
-      if (fieldType != Schema.Type.STRING) {
+      if (getArrayPath() == null) {
         throw new IllegalArgumentException(
-          String.format("Field '%s' is of illegal type %s. Must be of type %s.",
-                        httpresponseField, fieldType, Schema.Type.STRING));
+          "Batched requests require an array path that locates the elements of the batch response.");
+      }
+      if (getPaginationType() != Pagination.Type.NONE) {
+        throw new IllegalArgumentException("Batched requests cannot be paginated.");
+      }
+    }
+
+    Pagination.Type paginationType = getPaginationType();
+    if (paginationType == Pagination.Type.NEXT_PAGE_TOKEN) {
+      if (getNextPageTokenPath() == null) {
+        throw new IllegalArgumentException("Next page token path is required for nextPageToken pagination.");
+      }
+      if (mappings.isEmpty() && getArrayPath() == null) {
+        throw new IllegalArgumentException(
+          "Pagination with a next page token requires field mappings or an array path to read the token from.");
+      }
+    }
+    if (paginationType == Pagination.Type.OFFSET) {
+      if (getPageSize() < 1) {
+        throw new IllegalArgumentException("Page size must be at least 1 for offset pagination.");
+      }
+      if (getArrayPath() == null) {
+        throw new IllegalArgumentException(
+          "Offset pagination requires an array path to count the elements of each page.");
+      }
+    }
+
+    try {
+      Schema outputSchema = Schema.parseJson(schema);
+      createProjection(outputSchema);
+      if (httpresponseField != null && !httpresponseField.isEmpty()) {
+        Schema.Field responseField = outputSchema.getField(httpresponseField);
+        if (responseField == null) {
+          throw new IllegalArgumentException(
+            String.format("Field '%s' does not exist in output schema %s.", httpresponseField, schema));
+        }
+        fieldSchema = responseField.getSchema();
+        fieldType = fieldSchema.isNullable() ? fieldSchema.getNonNullable().getType() : fieldSchema.getType();
+        if (fieldType != Schema.Type.STRING && fieldType != Schema.Type.BYTES) {
+          throw new IllegalArgumentException(
+            String.format("Field '%s' is of illegal type %s. Must be of type %s or %s.",
+                          httpresponseField, fieldType, Schema.Type.STRING, Schema.Type.BYTES));
+        }
       }
 
     } catch (IOException ex){
@@ -241,6 +1273,62 @@ public class HttpConfig extends PluginConfig {
   }
 
 
+  private void validateOAuth2() {
+    // the token owns the Authorization header
+    if (username != null || password != null || authToken != null) {
+      throw new IllegalArgumentException(
+        "OAuth2 client credentials cannot be combined with a username, password or auth token.");
+    }
+    checkOAuth2Credentials(PROPERTY_OAUTH2_CLIENT_ID, oauth2ClientId);
+    checkOAuth2Credentials(PROPERTY_OAUTH2_CLIENT_SECRET, oauth2ClientSecret);
+  }
+
+  private void checkOAuth2Credentials(String property, @Nullable String value) {
+    if (!containsMacro(property) && (value == null || !isJson(value))) {
+      throw new IllegalArgumentException(
+        String.format("'%s' must be a JSON object with a value for each lookup value when '%s' is set.",
+                      property, PROPERTY_OAUTH2_TOKEN_URL));
+    }
+  }
+
+  private void validateLookup(Schema inputSchema) {
+    if (getLookupKeyField() == null || inputSchema.getField(getLookupKeyField()) == null) {
+      throw new IllegalArgumentException(
+        String.format("'%s' must be an input field in lookup mode.", PROPERTY_LOOKUP_KEY_FIELD));
+    }
+    if (getLookupKeyPath() == null) {
+      throw new IllegalArgumentException(
+        String.format("'%s' is required in lookup mode.", PROPERTY_LOOKUP_KEY_PATH));
+    }
+    if (getArrayPath() == null) {
+      throw new IllegalArgumentException(
+        "Lookup mode requires an array path that locates the elements of the reference dataset.");
+    }
+    if (!containsMacro(PROPERTY_HTTP_METHOD) && !"GET".equals(getHttpMethod())) {
+      throw new IllegalArgumentException("The reference dataset of lookup mode can only be fetched with GET.");
+    }
+    if (isBatching()) {
+      throw new IllegalArgumentException("Requests cannot be batched in lookup mode.");
+    }
+    // credentials are chosen per record, the reference dataset is fetched without a record
+    if (username != null || password != null || authToken != null || getOAuth2TokenUrl() != null) {
+      throw new IllegalArgumentException(
+        "Lookup mode does not support credentials per lookup value. Send the credentials in the headers instead.");
+    }
+    if (getLookupRefreshInterval() < 0) {
+      throw new IllegalArgumentException("Lookup refresh interval cannot be negative.");
+    }
+  }
+
+  private static void checkTemplateFields(RequestTemplate template, Schema inputSchema, String property) {
+    for (String field : template.getFields()) {
+      if (inputSchema.getField(field) == null) {
+        throw new IllegalArgumentException(
+          String.format("Field '%s' referenced by '%s' does not exist in the input schema.", field, property));
+      }
+    }
+  }
+
   public static Map<String, String> getMapFromKeyValueString(String keyValueString) {
     Map<String, String> result = new LinkedHashMap<>();
 
@@ -0,0 +1,451 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.etl.api.StageMetrics;
+import org.apache.http.HttpEntity;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * Request metrics of a stage, reported to the CDAP {@link StageMetrics}.
+ *
+ * Recording only increments striped counters and fixed histogram buckets, so it does not allocate and threads do not
+ * contend on a shared value. Counts are reported as increments and latency percentiles as gauges of the interval
+ * since the previous report. Reports are sent by the first thread that records something once the report interval
+ * has passed, and when the stage is closed.
+ */
+public class HttpMetrics {
+
+  public static final String REQUESTS = "http.requests";
+  public static final String STATUS_2XX = "http.status.2xx";
+  public static final String STATUS_3XX = "http.status.3xx";
+  public static final String STATUS_4XX = "http.status.4xx";
+  public static final String STATUS_5XX = "http.status.5xx";
+  public static final String TIMEOUTS = "http.timeouts";
+  public static final String ERRORS = "http.errors";
+  public static final String RETRIES = "http.retries";
+  public static final String REJECTED = "http.circuit.rejected";
+  public static final String RESPONSE_BYTES = "http.response.bytes";
+  public static final String IN_FLIGHT = "http.requests.inflight";
+  public static final String LATENCY_P50 = "http.latency.p50.ms";
+  public static final String LATENCY_P90 = "http.latency.p90.ms";
+  public static final String LATENCY_P99 = "http.latency.p99.ms";
+  public static final String LATENCY_MAX = "http.latency.max.ms";
+  public static final String POOL_LEASED = "http.pool.leased";
+  public static final String POOL_AVAILABLE = "http.pool.available";
+  public static final String CONCURRENCY_LIMIT = "http.concurrency.limit";
+  public static final String RECORDS_FAILED = "http.records.failed";
+  public static final String RECORDS_DEFERRED = "http.records.deferred";
+  public static final String RECORDS_EXPIRED = "http.records.expired";
+  public static final String CACHE_HITS = "http.cache.hits";
+  public static final String CACHE_MISSES = "http.cache.misses";
+  public static final String CACHE_EVICTIONS = "http.cache.evictions";
+  public static final String CACHE_REVALIDATED = "http.cache.revalidated";
+  public static final String COALESCED = "http.coalesced";
+  public static final String HEDGES = "http.hedges";
+  public static final String HEDGE_WINS = "http.hedge.wins";
+  public static final String HEDGE_WIN_PERCENT = "http.hedge.win.percent";
+  public static final String OAUTH2_FETCHES = "http.oauth2.fetches";
+  public static final String OAUTH2_FAILURES = "http.oauth2.failures";
+  public static final String LOOKUP_ELEMENTS = "http.lookup.elements";
+  public static final String LOOKUP_REFRESHES = "http.lookup.refreshes";
+  public static final String LOOKUP_REFRESH_FAILURES = "http.lookup.refresh.failures";
+
+  private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  @Nullable
+  private final StageMetrics stageMetrics;
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder inFlight = new LongAdder();
+  private final Histogram latency = new Histogram();
+  private final List<Counter> counters = new CopyOnWriteArrayList<>();
+  private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+  private final AtomicLong nextReport;
+  // indexed by the first digit of the status code
+  private final LongAdder[] statusClasses = new LongAdder[6];
+  private final LongAdder timeouts = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder responseBytes = new LongAdder();
+
+  /**
+   * @param stageMetrics the metrics of the stage, or {@code null} to only record
+   */
+  public HttpMetrics(@Nullable StageMetrics stageMetrics) {
+    this.stageMetrics = stageMetrics;
+    this.nextReport = new AtomicLong(System.nanoTime() + REPORT_INTERVAL_NANOS);
+    for (int i = 0; i < statusClasses.length; i++) {
+      statusClasses[i] = new LongAdder();
+    }
+    counter(REQUESTS, requests::sum);
+    counter(STATUS_2XX, statusClasses[2]::sum);
+    counter(STATUS_3XX, statusClasses[3]::sum);
+    counter(STATUS_4XX, statusClasses[4]::sum);
+    counter(STATUS_5XX, statusClasses[5]::sum);
+    counter(TIMEOUTS, timeouts::sum);
+    counter(ERRORS, errors::sum);
+    counter(RETRIES, retries::sum);
+    counter(REJECTED, rejected::sum);
+    counter(RESPONSE_BYTES, responseBytes::sum);
+    gauge(IN_FLIGHT, inFlight::sum);
+  }
+
+  /**
+   * Reports the increase of a running total, such as the hits of a cache, as a counter.
+   */
+  public void counter(String name, LongSupplier total) {
+    counters.add(new Counter(name, total));
+  }
+
+  /**
+   * Reports the current value of the supplier as a gauge.
+   */
+  public void gauge(String name, LongSupplier value) {
+    gauges.add(new Gauge(name, value));
+  }
+
+  /**
+   * Called right before a request is sent.
+   */
+  public void onRequest() {
+    requests.increment();
+    inFlight.increment();
+  }
+
+  /**
+   * Called when the response headers of a request arrived.
+   *
+   * @param latencyNanos time from sending the request to receiving the response headers
+   */
+  public void onResponse(long latencyNanos, int statusCode) {
+    inFlight.decrement();
+    latency.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    int statusClass = statusCode / 100;
+    if (statusClass >= 2 && statusClass < statusClasses.length) {
+      statusClasses[statusClass].increment();
+    }
+    reportIfDue();
+  }
+
+  /**
+   * Called when a request failed before its response arrived.
+   */
+  public void onFailure(Exception e) {
+    inFlight.decrement();
+    if (e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException
+      || (e instanceof InterruptedIOException && !Thread.currentThread().isInterrupted())) {
+      timeouts.increment();
+    } else {
+      errors.increment();
+    }
+    reportIfDue();
+  }
+
+  /**
+   * Called when a request was aborted before its response arrived because it was no longer needed.
+   */
+  public void onAborted() {
+    inFlight.decrement();
+  }
+
+  public void onRetry() {
+    retries.increment();
+  }
+
+  /**
+   * Called when the circuit breaker rejected a request without sending it.
+   */
+  public void onRejected() {
+    rejected.increment();
+  }
+
+  /**
+   * @return an entity that counts the bytes read from the given response entity
+   */
+  public HttpEntity countBytes(HttpEntity entity) {
+    return new CountingEntity(entity);
+  }
+
+  /**
+   * Sends the metrics recorded since the previous report, if the report interval has passed.
+   */
+  private void reportIfDue() {
+    long next = nextReport.get();
+    long now = System.nanoTime();
+    if (now - next >= 0 && nextReport.compareAndSet(next, now + REPORT_INTERVAL_NANOS)) {
+      report();
+    }
+  }
+
+  /**
+   * Sends the metrics recorded since the previous report.
+   */
+  public synchronized void report() {
+    if (stageMetrics == null) {
+      return;
+    }
+    for (Counter counter : counters) {
+      long total = counter.total.getAsLong();
+      count(counter.name, total - counter.reported);
+      counter.reported = total;
+    }
+    for (Gauge gauge : gauges) {
+      stageMetrics.gauge(gauge.name, gauge.value.getAsLong());
+    }
+    long[] percentiles = latency.snapshot();
+    if (percentiles != null) {
+      stageMetrics.gauge(LATENCY_P50, percentiles[0] / 1000);
+      stageMetrics.gauge(LATENCY_P90, percentiles[1] / 1000);
+      stageMetrics.gauge(LATENCY_P99, percentiles[2] / 1000);
+      stageMetrics.gauge(LATENCY_MAX, percentiles[3] / 1000);
+    }
+  }
+
+  private void count(String name, long delta) {
+    // the metrics API takes int increments
+    for (long left = delta; left > 0; left -= Integer.MAX_VALUE) {
+      stageMetrics.count(name, (int) Math.min(left, Integer.MAX_VALUE));
+    }
+  }
+
+  /**
+   * A running total reported as a counter.
+   */
+  private static final class Counter {
+    private final String name;
+    private final LongSupplier total;
+    private long reported;
+
+    private Counter(String name, LongSupplier total) {
+      this.name = name;
+      this.total = total;
+    }
+  }
+
+  /**
+   * A value reported as a gauge.
+   */
+  private static final class Gauge {
+    private final String name;
+    private final LongSupplier value;
+
+    private Gauge(String name, LongSupplier value) {
+      this.name = name;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Histogram of values with a fixed set of buckets: values below 8 have their own bucket, larger values are split
+   * into 8 buckets per power of two, so the value of a bucket is within 12.5% of the values counted in it.
+   */
+  static final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values of 2^34 and above, about 4.8 hours in microseconds, share the last bucket
+    static final int BUCKETS = (34 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final long[] counts = new long[BUCKETS];
+
+    Histogram() {
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    void record(long value) {
+      buckets[bucket(value)].increment();
+    }
+
+    static int bucket(long value) {
+      if (value < SUB_BUCKETS) {
+        return (int) Math.max(value, 0);
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return Math.min((exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket, BUCKETS - 1);
+    }
+
+    /**
+     * @return the highest value counted in the given bucket
+     */
+    static long upperBound(int bucket) {
+      return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+    }
+
+    private static long lowerBound(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+        return bucket;
+      }
+      int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Resets the histogram.
+     *
+     * @return the 50th, 90th and 99th percentile and the maximum of the values recorded since the previous snapshot,
+     *   or {@code null} if there were none
+     */
+    @Nullable
+    long[] snapshot() {
+      return snapshot(0.5, 0.9, 0.99);
+    }
+
+    /**
+     * Resets the histogram.
+     *
+     * @param quantiles ascending quantiles between 0 and 1
+     * @return the value of each quantile followed by the maximum of the values recorded since the previous snapshot,
+     *   or {@code null} if there were none
+     */
+    @Nullable
+    synchronized long[] snapshot(double... quantiles) {
+      long total = 0;
+      int last = -1;
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = buckets[i].sumThenReset();
+        total += counts[i];
+        if (counts[i] > 0) {
+          last = i;
+        }
+      }
+      if (total == 0) {
+        return null;
+      }
+      long[] result = new long[quantiles.length + 1];
+      long[] ranks = new long[quantiles.length];
+      for (int i = 0; i < quantiles.length; i++) {
+        result[i] = -1;
+        ranks[i] = (long) Math.ceil(total * quantiles[i]);
+      }
+      result[quantiles.length] = upperBound(last);
+      long seen = 0;
+      for (int i = 0, next = 0; i <= last && next < ranks.length; i++) {
+        seen += counts[i];
+        while (next < ranks.length && seen >= ranks[next]) {
+          result[next++] = upperBound(i);
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Counts the bytes read from a response entity, including the remainder that is consumed when the response is
+   * released.
+   */
+  private final class CountingEntity extends HttpEntityWrapper {
+
+    private CountingStream content;
+
+    private CountingEntity(HttpEntity entity) {
+      super(entity);
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      // a streamed entity returns the same stream every time, which must be counted once
+      if (content == null || wrappedEntity.isRepeatable()) {
+        content = new CountingStream(super.getContent());
+      }
+      return content;
+    }
+  }
+
+  /**
+   * Input stream that adds the number of bytes read to the response bytes once it is closed or exhausted.
+   */
+  private final class CountingStream extends FilterInputStream {
+
+    private long count;
+    private boolean reported;
+
+    private CountingStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b < 0) {
+        done();
+      } else {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int read = super.read(buffer, offset, length);
+      if (read < 0) {
+        done();
+      } else {
+        count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (!reported) {
+          // the rest of the body would be consumed by the close anyway, so that the connection can be reused
+          while (skip(Long.MAX_VALUE) > 0) {
+            // counted by skip
+          }
+        }
+      } finally {
+        done();
+        super.close();
+      }
+    }
+
+    private void done() {
+      // a single update per response keeps the shared counter out of the read loop
+      if (!reported) {
+        reported = true;
+        responseBytes.add(count);
+      }
+    }
+  }
+}
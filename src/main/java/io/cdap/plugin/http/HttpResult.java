@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import java.nio.charset.StandardCharsets;
+import javax.annotation.Nullable;
+
+/**
+ * Status, fully read body and pagination link of an HTTP response.
+ */
+public final class HttpResult {
+
+  private final int statusCode;
+  private final byte[] body;
+  @Nullable
+  private final String link;
+
+  public HttpResult(int statusCode, @Nullable byte[] body) {
+    this(statusCode, body, null);
+  }
+
+  public HttpResult(int statusCode, @Nullable byte[] body, @Nullable String link) {
+    this.statusCode = statusCode;
+    this.body = body == null ? new byte[0] : body;
+    this.link = link;
+  }
+
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  public boolean isSuccess() {
+    return isSuccess(statusCode);
+  }
+
+  /**
+   * @return whether the status code is a 2xx success, such as 201 Created or 204 No Content
+   */
+  public static boolean isSuccess(int statusCode) {
+    return statusCode >= 200 && statusCode < 300;
+  }
+
+  public byte[] getBody() {
+    return body;
+  }
+
+  /**
+   * @return the value of the {@code Link} header, used to find the next page
+   */
+  @Nullable
+  public String getLink() {
+    return link;
+  }
+
+  public String getBodyAsString() {
+    return new String(body, StandardCharsets.UTF_8);
+  }
+}
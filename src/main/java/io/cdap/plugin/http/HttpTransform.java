@@ -16,7 +16,6 @@
 
 package io.cdap.plugin.http;
 
-import com.google.gson.Gson;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
@@ -27,20 +26,10 @@ import io.cdap.cdap.etl.api.PipelineConfigurer;
 import io.cdap.cdap.etl.api.StageConfigurer;
 import io.cdap.cdap.etl.api.Transform;
 import io.cdap.cdap.etl.api.TransformContext;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import javax.annotation.Nullable;
 
 
 /**
@@ -60,9 +49,7 @@ public class HttpTransform extends Transform<StructuredRecord, StructuredRecord>
 
   // Usually, you will need a private variable to store the config that was passed to your class
   private final HttpConfig config;
-  private Schema outputSchema;
-  private String httpURLField;
-  private Gson gson;
+  private RecordProcessor processor;
 
   /**
    * Config properties for the plugin.
@@ -89,6 +76,34 @@ public class HttpTransform extends Transform<StructuredRecord, StructuredRecord>
     // the output schema is always the same as the input schema
     Schema inputSchema = stageConfigurer.getInputSchema();
     config.validate(inputSchema);
+    // a transform only gets an emitter for the duration of a single transform() call and is never told that the
+    // input ended, so it cannot keep requests for earlier records in flight without losing the last results.
+    if (config.getMaxConcurrentRequests() > 1) {
+      throw new IllegalArgumentException(
+        String.format("'%s' must be 1 for the Http transform, which sends one request at a time. Use " +
+                        "the HttpCompute plugin to keep several requests in flight.",
+                      HttpConfig.PROPERTY_MAX_CONCURRENT_REQUESTS));
+    }
+    // for the same reason, it could never send the last partial batch
+    if (config.isBatching()) {
+      throw new IllegalArgumentException(
+        String.format("'%s' must be 1 for the Http transform, which cannot hold records back until the end of the " +
+                        "input. Use the HttpCompute plugin to batch requests.", HttpConfig.PROPERTY_BATCH_SIZE));
+    }
+    // nor retry failed records after the rest of the input
+    if (config.getDeferredRetries() > 0) {
+      throw new IllegalArgumentException(
+        String.format("'%s' must be 0 for the Http transform, which is never told that the input ended. Use the " +
+                        "HttpCompute plugin to retry failed records later.", HttpConfig.PROPERTY_DEFERRED_RETRIES));
+    }
+    // with one request at a time there is never an identical request in flight to share. Coalescing is on by
+    // default where it applies, so only an explicit setting is rejected.
+    if (config.isCoalesceRequestsSet()) {
+      throw new IllegalArgumentException(
+        String.format("'%s' cannot be enabled for the Http transform, which sends one request at a time. Use the " +
+                        "HttpCompute plugin to share responses between identical requests.",
+                      HttpConfig.PROPERTY_COALESCE_REQUESTS));
+    }
 
     try {
       pipelineConfigurer.getStageConfigurer().setOutputSchema(Schema.parseJson(config.getSchema()));
@@ -101,118 +116,24 @@ public class HttpTransform extends Transform<StructuredRecord, StructuredRecord>
   @Override
   public void initialize(TransformContext context) throws Exception {
     super.initialize(context);
-    httpURLField = config.getHttpgetUrlField();
-    outputSchema = Schema.parseJson(config.getSchema());
+    processor = new RecordProcessor(config, context.getMetrics());
   }
 
-  // transform is called once for each record that goes into this stage
   @Override
-  public void transform(StructuredRecord input, Emitter<StructuredRecord> emitter) throws Exception {
-    StructuredRecord.Builder builder = StructuredRecord.builder(outputSchema);
-
-    String url = getURL(input);
-    String userName = getUserName(input);
-    String pw = getPassword(input);
-    Map<String, String> authHeaders = getAuthHeader(input);
-    Map<String, String> httpHeaders = config.getMapFromKeyValueString(config.getHeaders());
-
-    String responseBody = invokeHttp(url, userName, pw, authHeaders, httpHeaders);
-    builder.set(config.getResponseField(),responseBody);
-
-    List<Schema.Field> fields = outputSchema.getFields();
-    for (Schema.Field field : fields) {
-      String name = field.getName();
-      if (input.get(name) != null) {
-        builder.set(name, input.get(name));
+  public void destroy() {
+    if (processor != null) {
+      try {
+        processor.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close HTTP client.", e);
       }
     }
-
-    emitter.emit(builder.build());
-  }
-
-  private String getURL(StructuredRecord input) throws Exception {
-    //Check if input record contains the HTTP URL Get URL
-    if (input.get(httpURLField) == null) {
-      new Exception("Input Record does not contain field " + httpURLField);
-    }
-    return input.get(httpURLField);
+    super.destroy();
   }
 
-  @Nullable
-  private String getUserName(StructuredRecord input) throws Exception {
-    if (config.getUsername() == null) {
-      return null;
-    }
-    Gson gson = new Gson();
-    Map<String, String> map = gson.fromJson(config.getUsername(), Map.class);
-    String lookup = input.get(config.getAuthLookup());
-    if (!map.containsKey(lookup)) {
-      new Exception("Unable to find Username for " + lookup);
-
-    }
-    return map.get(lookup);
-  }
-
-  @Nullable
-  private String getPassword(StructuredRecord input) throws Exception {
-    if (config.getPassword() == null) {
-      return null;
-    }
-    Gson gson = new Gson();
-    Map<String, String> map = gson.fromJson(config.getPassword(), Map.class);
-    String lookup = input.get(config.getAuthLookup());
-    if (!map.containsKey(lookup)) {
-      new Exception("Unable to find Password for " + lookup);
-    }
-    return map.get(lookup);
-  }
-
-  @Nullable
-  private Map<String, String> getAuthHeader(StructuredRecord input) throws Exception {
-    if (config.getAuthToken() == null) {
-      return null;
-    }
-
-    Gson gson = new Gson();
-    Map<String, String> map = gson.fromJson(config.getAuthToken(), Map.class);
-    String lookup = input.get(config.getAuthLookup());
-    if (!map.containsKey(lookup)) {
-      new Exception("Unable to find Authtoken for " + lookup);
-    }
-    Map<String,String> hdr = new HashMap<String, String>();
-    hdr.put("Authorization",map.get(lookup));
-    return hdr;
-  }
-
-
-  private String invokeHttp(String url, String userName, String password, Map<String, String> authHeaders, Map<String, String> httpHeaders) throws IOException {
-
-    CloseableHttpClient httpclient = null;
-    try {
-      httpclient = HttpClient.getInstance(url, userName, password, authHeaders, httpHeaders);
-      HttpGet get = new HttpGet(url);
-      HttpResponse response = httpclient.execute(get);
-      int statusCode = response.getStatusLine().getStatusCode();
-      if (statusCode != 200) {
-        //throw new IOException("Failed invoking URL - " + url + " with HTTP error code : " + statusCode);
-        String error = "{ \"httperror\": { \"code\": \"" + statusCode + "\", \"message\": \"Error Invoking URL "+ url +" \"} }";
-        return error;
-      }
-      HttpEntity httpEntity = response.getEntity();
-      byte[] bytes = bytes = EntityUtils.toByteArray(httpEntity);
-      String body = new String(bytes, StandardCharsets.UTF_8);
-      return body;
-
-
-    } catch (Exception ex){
-      String error = "{ \"httperror\": { \"code\": \"" + 500 + "\", \"message\": \"Error Invoking URL "+ url +" " + ex.getLocalizedMessage() +" \"} }";
-      return error;
-    }finally {
-      if (httpclient != null) {
-        httpclient.close();
-      }
-    }
+  // transform is called once for each record that goes into this stage
+  @Override
+  public void transform(StructuredRecord input, Emitter<StructuredRecord> emitter) throws Exception {
+    processor.process(input, emitter);
   }
-
-
 }
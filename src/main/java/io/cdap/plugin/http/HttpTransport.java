@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sends a single request over pooled connections. The {@link HttpClient} runs rate limits, retries and the circuit
+ * breaker on top of the transport, so an implementation only has to move bytes.
+ */
+public interface HttpTransport extends Closeable {
+
+  /**
+   * Sends the request once and hands the response to the handler. Whatever the handler leaves of the response body
+   * is consumed before the connection is reused.
+   */
+  <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> handler, HttpContext context) throws IOException;
+
+  /**
+   * @return the number of pooled connections that are currently in use
+   */
+  int getLeasedConnections();
+
+  /**
+   * @return the number of pooled connections that are open and idle
+   */
+  int getAvailableConnections();
+
+  /**
+   * Creates the transport for the HTTP version of the stage.
+   */
+  static HttpTransport create(HttpConfig config) {
+    return config.getHttpVersion() == HttpConfig.HttpVersion.HTTP_2 ? new Http2Transport(config)
+      : new Http1Transport(config);
+  }
+}
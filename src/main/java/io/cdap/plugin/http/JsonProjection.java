@@ -0,0 +1,468 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Reads a JSON response as a stream and copies the values found at configured paths into typed output fields.
+ *
+ * The paths are compiled into a tree once. While reading, only the branches of the document that lead to a mapped
+ * path are descended into; everything else is skipped by the reader without being materialized.
+ *
+ * When an array path is given, the projection explodes that array instead: the mapped paths are resolved relative
+ * to each element, and each element is handed over as soon as it was read, so the array is never held in memory.
+ *
+ * Paths use the form {@code $.customer.address[0].city}. The leading {@code $} is optional.
+ */
+public class JsonProjection {
+
+  /**
+   * Receives the projected values of one array element.
+   */
+  public interface ElementHandler {
+    void onElement(Object[] values) throws IOException;
+  }
+
+  // the document when projecting a single record, each element of the exploded array otherwise
+  private final Node root;
+  // leads from the document to the exploded array, null when projecting a single record
+  private final Node document;
+  private final String[] fieldNames;
+  private final Schema.Type[] fieldTypes;
+  private final String[] capturePaths;
+  // slot of the element key in the projected values, -1 if there is none
+  private final int keySlot;
+
+  /**
+   * @param mappings output field name to JSON path
+   * @param outputSchema schema of the output records
+   * @throws IllegalArgumentException if a path is invalid or a field does not exist or has an unsupported type
+   */
+  public JsonProjection(Map<String, String> mappings, Schema outputSchema) {
+    this(mappings, null, outputSchema);
+  }
+
+  /**
+   * @param mappings output field name to JSON path, relative to the array elements if an array path is given
+   * @param arrayPath path of the array to explode, or {@code null} to project the whole document into one record
+   * @param outputSchema schema of the output records
+   * @throws IllegalArgumentException if a path is invalid or a field does not exist or has an unsupported type
+   */
+  public JsonProjection(Map<String, String> mappings, @Nullable String arrayPath, Schema outputSchema) {
+    this(mappings, arrayPath, Collections.emptyList(), outputSchema);
+  }
+
+  /**
+   * @param mappings output field name to JSON path, relative to the array elements if an array path is given
+   * @param arrayPath path of the array to explode, or {@code null} to project the whole document into one record
+   * @param capturePaths paths of document values that are read as strings alongside the output fields, such as
+   *                     the token of the next page
+   * @param outputSchema schema of the output records
+   * @throws IllegalArgumentException if a path is invalid or a field does not exist or has an unsupported type
+   */
+  public JsonProjection(Map<String, String> mappings, @Nullable String arrayPath, List<String> capturePaths,
+                        Schema outputSchema) {
+    this(mappings, arrayPath, capturePaths, null, outputSchema);
+  }
+
+  /**
+   * @param mappings output field name to JSON path, relative to the array elements if an array path is given
+   * @param arrayPath path of the array to explode, or {@code null} to project the whole document into one record
+   * @param capturePaths paths of document values that are read as strings alongside the output fields, such as
+   *                     the token of the next page
+   * @param keyPath path of a value of each array element that identifies the element, read with
+   *                {@link #getKey(Object[])}
+   * @param outputSchema schema of the output records
+   * @throws IllegalArgumentException if a path is invalid or a field does not exist or has an unsupported type
+   */
+  public JsonProjection(Map<String, String> mappings, @Nullable String arrayPath, List<String> capturePaths,
+                        @Nullable String keyPath, Schema outputSchema) {
+    this.root = new Node();
+    this.fieldNames = new String[mappings.size()];
+    this.fieldTypes = new Schema.Type[mappings.size() + 1];
+    this.capturePaths = capturePaths.toArray(new String[0]);
+    if (arrayPath == null) {
+      this.document = null;
+    } else {
+      this.document = new Node();
+      Node node = document;
+      for (Object segment : parsePath(arrayPath)) {
+        node = segment instanceof Integer ? node.element((Integer) segment) : node.field((String) segment);
+      }
+      node.explode = true;
+    }
+    int slot = 0;
+    int keySlot = -1;
+    for (Map.Entry<String, String> mapping : mappings.entrySet()) {
+      String fieldName = mapping.getKey();
+      fieldNames[slot] = fieldName;
+      fieldTypes[slot] = getFieldType(outputSchema, fieldName);
+      if (keyPath != null && Arrays.equals(parsePath(keyPath), parsePath(mapping.getValue()))) {
+        // the key is also an output field
+        keySlot = slot;
+      }
+      insert(root, mapping.getValue(), String.format("field '%s'", fieldName)).slot = slot++;
+    }
+    if (keyPath != null && keySlot < 0) {
+      // an extra slot after the output fields, which is never set on a record
+      keySlot = slot;
+      fieldTypes[keySlot] = Schema.Type.STRING;
+      insert(root, keyPath, "the element key").slot = keySlot;
+    }
+    this.keySlot = keySlot;
+    for (int i = 0; i < this.capturePaths.length; i++) {
+      insert(document == null ? root : document, this.capturePaths[i], "a captured value").capture = i;
+    }
+  }
+
+  /**
+   * Adds the path to the tree, making sure that it does not overlap any path added before.
+   *
+   * @return the node of the path
+   */
+  private Node insert(Node start, String path, String owner) {
+    Node node = start;
+    for (Object segment : parsePath(path)) {
+      if (node.isLeaf()) {
+        throw new IllegalArgumentException(
+          String.format("JSON path '%s' of %s is inside the path of %s.", path, owner, describe(node)));
+      }
+      node = segment instanceof Integer ? node.element((Integer) segment) : node.field((String) segment);
+    }
+    if (node.isLeaf() || node.fields != null || node.elements != null) {
+      throw new IllegalArgumentException(
+        String.format("JSON path '%s' of %s overlaps the path of another field.", path, owner));
+    }
+    return node;
+  }
+
+  private String describe(Node node) {
+    if (node.slot >= fieldNames.length) {
+      return "the element key";
+    }
+    if (node.slot >= 0) {
+      return String.format("field '%s'", fieldNames[node.slot]);
+    }
+    return node.explode ? "the exploded array" : "a captured value";
+  }
+
+  public boolean isExplode() {
+    return document != null;
+  }
+
+  /**
+   * @return the number of captured values, which is the size of the array passed to read them
+   */
+  public int getCaptureCount() {
+    return capturePaths.length;
+  }
+
+  /**
+   * Reads the JSON body and sets the mapped fields on the builder. Mapped values missing from the body are left
+   * unset.
+   */
+  public void project(InputStream body, StructuredRecord.Builder builder) throws IOException {
+    project(body, builder, new String[capturePaths.length]);
+  }
+
+  /**
+   * Reads the JSON body, sets the mapped fields on the builder and stores the captured values, in the order of the
+   * capture paths, into the given array. Values missing from the body are left unset.
+   */
+  public void project(InputStream body, StructuredRecord.Builder builder, String[] captures) throws IOException {
+    Object[] values = new Object[fieldTypes.length];
+    try (JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+      if (!isEmpty(reader)) {
+        walk(reader, root, values, captures, null);
+      }
+    }
+    setValues(builder, values);
+  }
+
+  /**
+   * Reads the JSON body and passes the projected values of every element of the exploded array to the handler,
+   * in order, while the body is being read.
+   *
+   * @return the number of elements, or 0 if the body does not contain the array
+   */
+  public long explode(InputStream body, ElementHandler handler) throws IOException {
+    return explode(body, handler, new String[capturePaths.length]);
+  }
+
+  /**
+   * Reads the JSON body like {@link #explode(InputStream, ElementHandler)} and stores the captured values, in the
+   * order of the capture paths, into the given array.
+   *
+   * @return the number of elements, or 0 if the body does not contain the array
+   */
+  public long explode(InputStream body, ElementHandler handler, String[] captures) throws IOException {
+    long[] count = new long[1];
+    try (JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+      if (!isEmpty(reader)) {
+        walk(reader, document, null, captures, values -> {
+          count[0]++;
+          handler.onElement(values);
+        });
+      }
+    }
+    return count[0];
+  }
+
+  /**
+   * @return whether the body contains no JSON value at all, like the body of a 204 No Content response
+   */
+  private static boolean isEmpty(JsonReader reader) throws IOException {
+    try {
+      reader.peek();
+      return false;
+    } catch (EOFException e) {
+      return true;
+    }
+  }
+
+  /**
+   * @return the element key among the projected values of an element, or {@code null} if it was not found
+   */
+  @Nullable
+  public String getKey(Object[] values) {
+    if (keySlot < 0 || values[keySlot] == null) {
+      return null;
+    }
+    Object key = values[keySlot];
+    return key instanceof ByteBuffer ? StandardCharsets.UTF_8.decode(((ByteBuffer) key).duplicate()).toString()
+      : String.valueOf(key);
+  }
+
+  /**
+   * Sets the values produced by this projection on the builder, skipping values that were not found.
+   */
+  public void setValues(StructuredRecord.Builder builder, Object[] values) {
+    for (int i = 0; i < fieldNames.length; i++) {
+      if (values[i] instanceof ByteBuffer) {
+        // read only, the values of a lookup element are shared by every record joined with it
+        builder.set(fieldNames[i], ((ByteBuffer) values[i]).asReadOnlyBuffer());
+      } else if (values[i] != null) {
+        builder.set(fieldNames[i], values[i]);
+      }
+    }
+  }
+
+  private void walk(JsonReader reader, Node node, Object[] values, String[] captures,
+                    @Nullable ElementHandler handler) throws IOException {
+    if (node.slot >= 0) {
+      values[node.slot] = readValue(reader, fieldTypes[node.slot]);
+      return;
+    }
+    if (node.capture >= 0) {
+      captures[node.capture] = (String) readValue(reader, Schema.Type.STRING);
+      return;
+    }
+    JsonToken token = reader.peek();
+    if (token == JsonToken.BEGIN_ARRAY && node.explode) {
+      reader.beginArray();
+      while (reader.hasNext()) {
+        Object[] elementValues = new Object[fieldTypes.length];
+        walk(reader, root, elementValues, null, null);
+        handler.onElement(elementValues);
+      }
+      reader.endArray();
+    } else if (token == JsonToken.BEGIN_OBJECT && node.fields != null) {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        Node child = node.fields.get(reader.nextName());
+        if (child == null) {
+          reader.skipValue();
+        } else {
+          walk(reader, child, values, captures, handler);
+        }
+      }
+      reader.endObject();
+    } else if (token == JsonToken.BEGIN_ARRAY && node.elements != null) {
+      reader.beginArray();
+      int index = 0;
+      while (reader.hasNext()) {
+        Node child = index < node.elements.length ? node.elements[index] : null;
+        if (child == null) {
+          reader.skipValue();
+        } else {
+          walk(reader, child, values, captures, handler);
+        }
+        index++;
+      }
+      reader.endArray();
+    } else {
+      reader.skipValue();
+    }
+  }
+
+  private static Object readValue(JsonReader reader, Schema.Type type) throws IOException {
+    JsonToken token = reader.peek();
+    if (token == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    switch (type) {
+      case STRING:
+        return readString(reader, token);
+      case BYTES:
+        // the UTF-8 encoding of what a string field receives
+        return ByteBuffer.wrap(readString(reader, token).getBytes(StandardCharsets.UTF_8));
+      case INT:
+        return reader.nextInt();
+      case LONG:
+        return reader.nextLong();
+      case FLOAT:
+        return (float) reader.nextDouble();
+      case DOUBLE:
+        return reader.nextDouble();
+      case BOOLEAN:
+        return token == JsonToken.STRING ? Boolean.parseBoolean(reader.nextString()) : reader.nextBoolean();
+      default:
+        // rejected when the projection is created
+        throw new IllegalStateException("Unsupported type " + type);
+    }
+  }
+
+  /**
+   * Reads a value as a string, with objects and arrays written as JSON.
+   */
+  private static String readString(JsonReader reader, JsonToken token) throws IOException {
+    if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY) {
+      return new JsonParser().parse(reader).toString();
+    }
+    return token == JsonToken.BOOLEAN ? Boolean.toString(reader.nextBoolean()) : reader.nextString();
+  }
+
+  private static Schema.Type getFieldType(Schema outputSchema, String fieldName) {
+    Schema.Field field = outputSchema.getField(fieldName);
+    if (field == null) {
+      throw new IllegalArgumentException(
+        String.format("Mapped field '%s' does not exist in the output schema.", fieldName));
+    }
+    Schema schema = field.getSchema().isNullable() ? field.getSchema().getNonNullable() : field.getSchema();
+    switch (schema.getType()) {
+      case STRING:
+      case BYTES:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+      case BOOLEAN:
+        return schema.getType();
+      default:
+        throw new IllegalArgumentException(
+          String.format("Mapped field '%s' is of unsupported type %s. Must be a string, bytes, number or boolean.",
+                        fieldName, schema.getType()));
+    }
+  }
+
+  /**
+   * Splits a path into field names and array indexes.
+   */
+  static Object[] parsePath(String path) {
+    String remaining = path.trim();
+    if (remaining.startsWith("$")) {
+      remaining = remaining.substring(1);
+    }
+    List<Object> segments = new ArrayList<>();
+    int pos = 0;
+    while (pos < remaining.length()) {
+      char c = remaining.charAt(pos);
+      if (c == '.') {
+        pos++;
+        continue;
+      }
+      if (c == '[') {
+        int end = remaining.indexOf(']', pos);
+        if (end < 0) {
+          throw new IllegalArgumentException(String.format("Missing ']' in JSON path '%s'.", path));
+        }
+        try {
+          segments.add(Integer.parseInt(remaining.substring(pos + 1, end).trim()));
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException(String.format("Invalid array index in JSON path '%s'.", path));
+        }
+        pos = end + 1;
+        continue;
+      }
+      int end = pos;
+      while (end < remaining.length() && remaining.charAt(end) != '.' && remaining.charAt(end) != '[') {
+        end++;
+      }
+      segments.add(remaining.substring(pos, end));
+      pos = end;
+    }
+    return segments.toArray();
+  }
+
+  /**
+   * One step of the compiled paths. A node either feeds an output field, captures a value, is the exploded array
+   * or has children, never more than one of these.
+   */
+  private static final class Node {
+    private int slot = -1;
+    private int capture = -1;
+    private boolean explode;
+    private Map<String, Node> fields;
+    private Node[] elements;
+
+    private boolean isLeaf() {
+      return slot >= 0 || capture >= 0 || explode;
+    }
+
+    private Node field(String name) {
+      if (fields == null) {
+        fields = new HashMap<>();
+      }
+      return fields.computeIfAbsent(name, key -> new Node());
+    }
+
+    private Node element(int index) {
+      if (index < 0) {
+        throw new IllegalArgumentException("Array index cannot be negative.");
+      }
+      if (elements == null) {
+        elements = new Node[index + 1];
+      } else if (elements.length <= index) {
+        elements = Arrays.copyOf(elements, index + 1);
+      }
+      if (elements[index] == null) {
+        elements[index] = new Node();
+      }
+      return elements[index];
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * In-memory copy of a reference dataset, keyed by a value of each element, that records are joined with instead of
+ * calling the endpoint for each of them.
+ *
+ * Only the projected values of each element are kept, not the response bodies. The dataset is loaded when the index
+ * is created and can be reloaded in the background at a fixed interval. A reload builds a complete new map before
+ * it replaces the current one, so lookups never see a partially loaded dataset, and a failed reload keeps the
+ * previous data.
+ */
+public class LookupIndex implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LookupIndex.class);
+
+  /**
+   * Fetches the whole reference dataset.
+   */
+  public interface Loader {
+    /**
+     * @return the projected values of every element, by element key
+     */
+    Map<String, Object[]> load() throws IOException;
+  }
+
+  private final Loader loader;
+  @Nullable
+  private final ScheduledExecutorService refresher;
+  private final LongAdder refreshes = new LongAdder();
+  private final LongAdder refreshFailures = new LongAdder();
+  private volatile Map<String, Object[]> elements;
+
+  /**
+   * Loads the dataset.
+   *
+   * @param refreshIntervalSeconds seconds between reloads, or 0 to never reload
+   * @throws IOException if the dataset cannot be loaded
+   */
+  public LookupIndex(Loader loader, long refreshIntervalSeconds) throws IOException {
+    this.loader = loader;
+    this.elements = loader.load();
+    LOG.info("Loaded {} reference elements.", elements.size());
+    if (refreshIntervalSeconds <= 0) {
+      this.refresher = null;
+      return;
+    }
+    this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "http-lookup-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+    refresher.scheduleWithFixedDelay(this::refresh, refreshIntervalSeconds, refreshIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Reloads the dataset now.
+   */
+  void refresh() {
+    try {
+      Map<String, Object[]> loaded = loader.load();
+      elements = loaded;
+      refreshes.increment();
+      LOG.debug("Reloaded {} reference elements.", loaded.size());
+    } catch (Exception e) {
+      refreshFailures.increment();
+      LOG.warn("Failed to reload the reference dataset, keeping the {} elements loaded before.", elements.size(), e);
+    }
+  }
+
+  /**
+   * @return the projected values of the element with the key, or {@code null} if there is none
+   */
+  @Nullable
+  public Object[] get(String key) {
+    return elements.get(key);
+  }
+
+  public int size() {
+    return elements.size();
+  }
+
+  public long getRefreshes() {
+    return refreshes.sum();
+  }
+
+  public long getRefreshFailures() {
+    return refreshFailures.sum();
+  }
+
+  @Override
+  public void close() {
+    if (refresher != null) {
+      refresher.shutdownNow();
+    }
+  }
+}
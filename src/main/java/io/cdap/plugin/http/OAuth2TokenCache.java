@@ -0,0 +1,328 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.apache.http.HttpHeaders;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * OAuth2 bearer tokens obtained with the client credentials grant, one per authLookup value.
+ *
+ * A token is fetched when it is first needed and refreshed in the background shortly before it expires, so request
+ * threads only wait for a token the first time, or when refreshing failed until the token expired. At most one
+ * fetch per lookup value is in flight: threads that need a token while it is being fetched wait for that fetch
+ * instead of starting their own. A request that was rejected with 401 forces a refresh, unless the token it was
+ * sent with has already been replaced.
+ */
+public class OAuth2TokenCache implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(OAuth2TokenCache.class);
+  private static final Type MAP_TYPE = new TypeToken<Map<String, String>>() { }.getType();
+  // how long before its expiry a token is refreshed, at most half of its lifetime
+  private static final long REFRESH_MARGIN_NANOS = TimeUnit.SECONDS.toNanos(60);
+  // wait before trying again after a background refresh failed
+  private static final long RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  private final HttpClient httpClient;
+  private final String tokenUrl;
+  private final Map<String, String> clientIds;
+  private final Map<String, String> clientSecrets;
+  @Nullable
+  private final String scope;
+  private final ConcurrentMap<String, Slot> slots = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService refresher;
+
+  private final LongAdder fetches = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+
+  public OAuth2TokenCache(HttpClient httpClient, String tokenUrl, Map<String, String> clientIds,
+                          Map<String, String> clientSecrets, @Nullable String scope) {
+    this.httpClient = httpClient;
+    this.tokenUrl = tokenUrl;
+    this.clientIds = clientIds;
+    this.clientSecrets = clientSecrets;
+    this.scope = scope;
+    this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "http-oauth2-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Creates the cache for the OAuth2 settings of the config, or returns {@code null} if no token endpoint is
+   * configured.
+   */
+  @Nullable
+  public static OAuth2TokenCache create(HttpConfig config, HttpClient httpClient) {
+    String tokenUrl = config.getOAuth2TokenUrl();
+    if (tokenUrl == null) {
+      return null;
+    }
+    return new OAuth2TokenCache(httpClient, tokenUrl, parse(config.getOAuth2ClientId()),
+                                parse(config.getOAuth2ClientSecret()), config.getOAuth2Scope());
+  }
+
+  private static Map<String, String> parse(@Nullable String json) {
+    Map<String, String> map = json == null ? null : new Gson().<Map<String, String>>fromJson(json, MAP_TYPE);
+    return map == null ? Collections.emptyMap() : map;
+  }
+
+  /**
+   * Returns a valid token for the lookup value, fetching one only if there is none yet or the current one expired.
+   */
+  public String getToken(String lookupValue) throws IOException {
+    Slot slot = slots.computeIfAbsent(lookupValue, Slot::new);
+    Token token = slot.token;
+    if (token != null && !token.isExpired(System.nanoTime())) {
+      return token.value;
+    }
+    return slot.refresh(token).value;
+  }
+
+  /**
+   * Returns a token to replace one that the server rejected. The token is fetched again only if it was not already
+   * replaced since, so concurrent requests rejected with the same token cause a single fetch.
+   */
+  public String refreshToken(String lookupValue, String rejected) throws IOException {
+    Slot slot = slots.computeIfAbsent(lookupValue, Slot::new);
+    Token token = slot.token;
+    if (token != null && !token.value.equals(rejected) && !token.isExpired(System.nanoTime())) {
+      return token.value;
+    }
+    return slot.refresh(token).value;
+  }
+
+  public long getFetches() {
+    return fetches.sum();
+  }
+
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  @Override
+  public void close() {
+    refresher.shutdownNow();
+  }
+
+  private Token fetch(String lookupValue) throws IOException {
+    String clientId = clientIds.get(lookupValue);
+    String clientSecret = clientSecrets.get(lookupValue);
+    if (clientId == null || clientSecret == null) {
+      throw new IllegalArgumentException("Unable to find the OAuth2 client credentials for " + lookupValue);
+    }
+    HttpPost request = new HttpPost(tokenUrl);
+    // client_secret_basic, with the form encoding that RFC 6749 asks for
+    String credentials = URLEncoder.encode(clientId, "UTF-8") + ":" + URLEncoder.encode(clientSecret, "UTF-8");
+    request.setHeader(HttpHeaders.AUTHORIZATION, "Basic " + Base64.getEncoder()
+      .encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+    List<NameValuePair> form = new ArrayList<>(2);
+    form.add(new BasicNameValuePair("grant_type", "client_credentials"));
+    if (scope != null) {
+      form.add(new BasicNameValuePair("scope", scope));
+    }
+    request.setEntity(new UrlEncodedFormEntity(form, StandardCharsets.UTF_8));
+
+    fetches.increment();
+    long requested = System.nanoTime();
+    try {
+      return httpClient.execute(request, response -> {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode != 200) {
+          throw new IOException(String.format("Failed to obtain an OAuth2 token for %s from %s, HTTP status %d.",
+                                              lookupValue, tokenUrl, statusCode));
+        }
+        return parseToken(EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8), requested);
+      }, HttpClientContext.create());
+    } catch (IOException | RuntimeException e) {
+      failures.increment();
+      throw e;
+    }
+  }
+
+  /**
+   * Parses a token response. The lifetime is counted from when the token was requested, so the token is never used
+   * after the server considers it expired.
+   */
+  private static Token parseToken(String body, long requested) throws IOException {
+    try {
+      JsonObject json = new Gson().fromJson(body, JsonObject.class);
+      JsonElement accessToken = json == null ? null : json.get("access_token");
+      if (accessToken == null || accessToken.isJsonNull()) {
+        throw new IOException("OAuth2 token response has no access_token.");
+      }
+      JsonElement expiresIn = json.get("expires_in");
+      if (expiresIn == null || expiresIn.isJsonNull()) {
+        // only a 401 tells when it expires
+        return new Token(accessToken.getAsString(), Long.MAX_VALUE, Long.MAX_VALUE);
+      }
+      long lifetime = TimeUnit.SECONDS.toNanos(expiresIn.getAsLong());
+      long margin = Math.min(REFRESH_MARGIN_NANOS, lifetime / 2);
+      return new Token(accessToken.getAsString(), requested + lifetime, requested + lifetime - margin);
+    } catch (JsonParseException | IllegalStateException | NumberFormatException e) {
+      throw new IOException("OAuth2 token response is not valid: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * A token and when it must be refreshed, in {@link System#nanoTime()}.
+   */
+  private static final class Token {
+    private final String value;
+    private final long expiresAt;
+    private final long refreshAt;
+
+    private Token(String value, long expiresAt, long refreshAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+      this.refreshAt = refreshAt;
+    }
+
+    private boolean isExpired(long now) {
+      return expiresAt != Long.MAX_VALUE && now - expiresAt >= 0;
+    }
+  }
+
+  /**
+   * The token of one lookup value and the fetch that replaces it, if one is in flight.
+   */
+  private final class Slot {
+    private final String lookupValue;
+    private volatile Token token;
+    // guarded by this
+    private CompletableFuture<Token> pending;
+
+    private Slot(String lookupValue) {
+      this.lookupValue = lookupValue;
+    }
+
+    /**
+     * Replaces the given token, joining the fetch in flight if there is one. If the token was already replaced, the
+     * replacement is returned without a fetch.
+     */
+    private Token refresh(@Nullable Token stale) throws IOException {
+      CompletableFuture<Token> future;
+      boolean fetching = false;
+      synchronized (this) {
+        Token current = token;
+        if (current != null && current != stale) {
+          return current;
+        }
+        if (pending == null) {
+          pending = new CompletableFuture<>();
+          fetching = true;
+        }
+        future = pending;
+      }
+      if (fetching) {
+        try {
+          Token fetched = fetch(lookupValue);
+          // replaced before the fetch is marked done, so that no later caller fetches it again
+          token = fetched;
+          future.complete(fetched);
+          scheduleRefresh(fetched, fetched.refreshAt - System.nanoTime());
+        } catch (IOException | RuntimeException e) {
+          future.completeExceptionally(e);
+        } finally {
+          synchronized (this) {
+            pending = null;
+          }
+        }
+      }
+      return await(future);
+    }
+
+    private void scheduleRefresh(Token expected, long delayNanos) {
+      if (expected.refreshAt == Long.MAX_VALUE) {
+        return;
+      }
+      try {
+        refresher.schedule(() -> refreshInBackground(expected), Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException e) {
+        // the cache was closed
+      }
+    }
+
+    private void refreshInBackground(Token expected) {
+      if (token != expected) {
+        // already replaced after a 401, which scheduled the refresh of the new token
+        return;
+      }
+      try {
+        refresh(expected);
+      } catch (Exception e) {
+        LOG.warn("Failed to refresh the OAuth2 token for {}, trying again in {} seconds.", lookupValue,
+                 TimeUnit.NANOSECONDS.toSeconds(RETRY_DELAY_NANOS), e);
+        if (token == expected && !expected.isExpired(System.nanoTime())) {
+          scheduleRefresh(expected, RETRY_DELAY_NANOS);
+        }
+      }
+    }
+
+    private Token await(CompletableFuture<Token> future) throws IOException {
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for an OAuth2 token.", e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new IOException(cause);
+      }
+    }
+  }
+}
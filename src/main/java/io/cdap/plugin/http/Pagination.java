@@ -0,0 +1,240 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.client.utils.URIUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Works out the URL of the next page of a paginated response.
+ *
+ * The next page is found in the {@code Link} header with relation {@code next}, in a token read from the response
+ * body, or by advancing an offset query parameter until a page comes back with fewer elements than the page size.
+ */
+public class Pagination {
+
+  /**
+   * How the next page is found.
+   */
+  public enum Type {
+    NONE("none"),
+    LINK_HEADER("linkHeader"),
+    NEXT_PAGE_TOKEN("nextPageToken"),
+    OFFSET("offset");
+
+    private final String value;
+
+    Type(String value) {
+      this.value = value;
+    }
+
+    public String getValue() {
+      return value;
+    }
+
+    public static Type fromValue(@Nullable String value) {
+      if (value == null || value.isEmpty()) {
+        return NONE;
+      }
+      for (Type type : values()) {
+        if (type.value.equalsIgnoreCase(value)) {
+          return type;
+        }
+      }
+      throw new IllegalArgumentException(
+        String.format("Invalid pagination type '%s'. Must be one of none, linkHeader, nextPageToken or offset.",
+                      value));
+    }
+  }
+
+  private static final Logger LOG = LoggerFactory.getLogger(Pagination.class);
+
+  // one entry of a Link header, such as <https://host/items?page=2>; rel="next"
+  private static final Pattern LINK = Pattern.compile("<([^>]*)>([^<]*)");
+  private static final Pattern REL = Pattern.compile("(?i);\\s*rel\\s*=\\s*\"?([^\";,]*)\"?");
+
+  private final Type type;
+  @Nullable
+  private final String tokenParameter;
+  private final String offsetParameter;
+  private final String limitParameter;
+  private final int pageSize;
+  private final int maxPages;
+
+  public Pagination(HttpConfig config) {
+    this.type = config.getPaginationType();
+    this.tokenParameter = config.getNextPageTokenParameter();
+    this.offsetParameter = config.getOffsetParameter();
+    this.limitParameter = config.getLimitParameter();
+    this.pageSize = config.getPageSize();
+    this.maxPages = config.getMaxPages();
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * @return the URL of the first page of the given URL
+   */
+  public String getFirstPage(String url) {
+    if (type != Type.OFFSET) {
+      return url;
+    }
+    return setParameters(url, 0);
+  }
+
+  /**
+   * Returns the URL of the next page if it can be known before the current page was read, which is the case for
+   * links in a header and for offsets, where it assumes that the current page is full.
+   *
+   * @param url the URL of the record, before pagination
+   * @param pageUrl the URL of the current page
+   * @param pages the number of pages fetched so far, including the current one
+   * @param link the {@code Link} header of the current page
+   */
+  @Nullable
+  public String getExpectedNextPage(String url, String pageUrl, int pages, @Nullable String link) {
+    if (maxPages > 0 && pages >= maxPages) {
+      return null;
+    }
+    switch (type) {
+      case LINK_HEADER:
+        return checkNotCurrent(pageUrl, resolve(pageUrl, getNextLink(link)));
+      case OFFSET:
+        return setParameters(url, (long) pages * pageSize);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns the URL of the next page after the current page was read, or {@code null} if it was the last one.
+   *
+   * @param url the URL of the record, before pagination
+   * @param pageUrl the URL of the current page
+   * @param pages the number of pages fetched so far, including the current one
+   * @param link the {@code Link} header of the current page
+   * @param token the next page token read from the current page
+   * @param elements the number of elements on the current page
+   */
+  @Nullable
+  public String getNextPage(String url, String pageUrl, int pages, @Nullable String link, @Nullable String token,
+                            long elements) {
+    if (maxPages > 0 && pages >= maxPages) {
+      return null;
+    }
+    switch (type) {
+      case LINK_HEADER:
+        return getExpectedNextPage(url, pageUrl, pages, link);
+      case NEXT_PAGE_TOKEN:
+        if (token == null || token.isEmpty()) {
+          return null;
+        }
+        return checkNotCurrent(pageUrl, tokenParameter == null ? resolve(pageUrl, token)
+          : setParameter(url, tokenParameter, token));
+      case OFFSET:
+        // a short page is the last one
+        return elements < pageSize ? null : getExpectedNextPage(url, pageUrl, pages, link);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return the target of the link with relation {@code next} in the value of a {@code Link} header
+   */
+  @Nullable
+  static String getNextLink(@Nullable String link) {
+    if (link == null) {
+      return null;
+    }
+    Matcher matcher = LINK.matcher(link);
+    while (matcher.find()) {
+      Matcher rel = REL.matcher(matcher.group(2));
+      while (rel.find()) {
+        for (String relation : rel.group(1).trim().split("\\s+")) {
+          if ("next".equalsIgnoreCase(relation)) {
+            return matcher.group(1).trim();
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private static String resolve(String pageUrl, @Nullable String target) {
+    if (target == null || target.isEmpty()) {
+      return null;
+    }
+    try {
+      return URIUtils.resolve(new URI(pageUrl), target).toString();
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      throw new IllegalArgumentException(String.format("Invalid next page URL '%s'.", target), e);
+    }
+  }
+
+  // guards against a server that keeps pointing at the same page
+  @Nullable
+  private static String checkNotCurrent(String pageUrl, @Nullable String next) {
+    return pageUrl.equals(next) ? null : next;
+  }
+
+  /**
+   * Returns the next page unless it was fetched before. This ends the pagination when a server links back to an
+   * earlier page, such as from A to B and back to A, which would otherwise go on forever when {@code maxPages} is 0.
+   *
+   * @param visited the URLs of the pages fetched so far, to which the next page is added
+   */
+  @Nullable
+  public static String checkNotVisited(@Nullable String next, Set<String> visited) {
+    if (next == null || visited.add(next)) {
+      return next;
+    }
+    LOG.warn("Stopping pagination at {}, which was already fetched.", next);
+    return null;
+  }
+
+  private String setParameters(String url, long offset) {
+    try {
+      return new URIBuilder(url)
+        .setParameter(offsetParameter, Long.toString(offset))
+        .setParameter(limitParameter, Integer.toString(pageSize))
+        .build().toString();
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(String.format("Invalid URL '%s'.", url), e);
+    }
+  }
+
+  private static String setParameter(String url, String name, String value) {
+    try {
+      return new URIBuilder(url).setParameter(name, value).build().toString();
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(String.format("Invalid URL '%s'.", url), e);
+    }
+  }
+}
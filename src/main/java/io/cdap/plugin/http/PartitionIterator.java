@@ -0,0 +1,424 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.etl.api.StageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Lazily produces the output of one partition. Input records are pulled only when the request window has room,
+ * so at most {@code maxConcurrentRequests} requests are in flight at any time. When requests are batched, each
+ * request of the window carries a batch of records.
+ *
+ * The records emitted by a request are handed over through a {@link RecordStream} while the request is still
+ * running, so a response with many elements or pages never has to be held in memory as a whole. Each request
+ * buffers at most {@value #STREAM_CAPACITY} records before it waits for them to be consumed.
+ *
+ * Batches that reach the batch timeout are sent by a timer, even while no record arrives. Such a request runs on the
+ * timer thread, in addition to the requests of the window.
+ *
+ * Records that fail with a retryable error can be put aside and tried again once the rest of the partition is done,
+ * for up to {@code deferredRetries} rounds, so that a struggling endpoint does not hold up the healthy records.
+ */
+public class PartitionIterator implements Iterator<StructuredRecord>, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PartitionIterator.class);
+  private static final int STREAM_CAPACITY = 1000;
+  // results are handed over by the streams, the window only runs the requests
+  private static final RequestWindow.Sink<Void> NO_RESULT = result -> { };
+
+  private final Iterator<StructuredRecord> input;
+  private final RecordProcessor processor;
+  // the key of the state shared with the other partitions of the stage run, null if it is not shared
+  @Nullable
+  private final String stageKey;
+  private final int maxInFlight;
+  private final boolean preserveOrder;
+  private final RequestWindow<Void> window;
+  // guards the streams, every stream in it and the batches
+  private final Object lock = new Object();
+  // the streams of the requests in flight or with records not yet taken, in submission order
+  private final Deque<RecordStream> streams = new ArrayDeque<>();
+  // requests waiting for room in the window
+  private final Deque<Request> queued = new ArrayDeque<>();
+  // batches that are still filling up, by batch key, null if requests are not batched
+  private final Map<String, Batch> batches;
+  private final int batchSize;
+  private final long batchTimeoutNanos;
+  // sends the batches that timed out, null if they do not time out
+  @Nullable
+  private final ScheduledExecutorService flusher;
+  private final int deferredRetries;
+  private final RetryPolicy retryPolicy;
+  // records put aside for the next round, added by the threads of the window
+  private final Queue<StructuredRecord> deferred = new ConcurrentLinkedQueue<>();
+  private int round;
+  // the records of the current round of deferred retries, null while the input is read
+  @Nullable
+  private Iterator<StructuredRecord> retrying;
+  @Nullable
+  private StructuredRecord next;
+  // set by the thread that consumes the output or by the task completion listener of the partition
+  private volatile boolean closed;
+
+  public PartitionIterator(Iterator<StructuredRecord> input, HttpConfig config) throws IOException {
+    this(input, config, null);
+  }
+
+  /**
+   * @param stageMetrics the metrics to report requests to, or {@code null} to not report them
+   */
+  public PartitionIterator(Iterator<StructuredRecord> input, HttpConfig config,
+                           @Nullable StageMetrics stageMetrics) throws IOException {
+    this(input, config, stageMetrics, null);
+  }
+
+  /**
+   * @param stageKey a value unique to the stage run, whose partitions on the same executor share the lookup index,
+   *   the response cache and the OAuth2 token cache, or {@code null} to not share them
+   */
+  public PartitionIterator(Iterator<StructuredRecord> input, HttpConfig config, @Nullable StageMetrics stageMetrics,
+                           @Nullable String stageKey) throws IOException {
+    this.input = input;
+    this.stageKey = stageKey;
+    if (stageKey == null) {
+      this.processor = new RecordProcessor(config, stageMetrics);
+    } else {
+      RecordProcessor owner = StageResources.acquire(stageKey, config, stageMetrics);
+      try {
+        this.processor = new RecordProcessor(config, stageMetrics, owner);
+      } catch (IOException | RuntimeException e) {
+        StageResources.release(stageKey);
+        throw e;
+      }
+    }
+    this.maxInFlight = config.getMaxConcurrentRequests();
+    this.preserveOrder = config.isPreserveOrder();
+    // the order is kept by the streams, so the window may complete requests in any order
+    this.window = new RequestWindow<>(maxInFlight);
+    this.batches = config.isBatching() ? new LinkedHashMap<>() : null;
+    this.batchSize = config.getBatchSize();
+    this.batchTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getBatchTimeout());
+    this.deferredRetries = config.getDeferredRetries();
+    this.retryPolicy = new RetryPolicy(config);
+    if (batches != null && batchTimeoutNanos > 0) {
+      flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "http-batch-flusher");
+        thread.setDaemon(true);
+        return thread;
+      });
+      // checks the age of the batches four times per timeout
+      long period = Math.max(1, config.getBatchTimeout() / 4);
+      flusher.scheduleWithFixedDelay(this::flushExpired, period, period, TimeUnit.MILLISECONDS);
+    } else {
+      flusher = null;
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    try {
+      while (next == null) {
+        next = take(false);
+        if (next != null) {
+          break;
+        }
+        Iterator<StructuredRecord> source = retrying == null ? input : retrying;
+        if (hasRoom() && !queued.isEmpty()) {
+          start(queued.pollFirst());
+        } else if (hasRoom() && source.hasNext()) {
+          StructuredRecord record = source.next();
+          if (batches == null) {
+            submit(record);
+          } else {
+            addToBatch(record);
+          }
+        } else if (hasRoom() && batches != null && hasBatches()) {
+          // the end of the input flushes the partial batches
+          if (flusher != null) {
+            flusher.shutdown();
+          }
+          List<Batch> remaining;
+          synchronized (lock) {
+            remaining = new ArrayList<>(batches.values());
+            batches.clear();
+          }
+          for (Batch batch : remaining) {
+            submit(batch);
+          }
+        } else if (hasStreams()) {
+          next = take(true);
+        } else if (!deferred.isEmpty() && round < deferredRetries) {
+          startRound();
+        } else {
+          // input is exhausted and every request is done
+          close();
+          return false;
+        }
+      }
+      return true;
+    } catch (RuntimeException e) {
+      close();
+      throw e;
+    } catch (Exception e) {
+      close();
+      throw new RuntimeException(e);
+    }
+  }
+
+  private boolean hasRoom() {
+    synchronized (lock) {
+      return streams.size() < maxInFlight;
+    }
+  }
+
+  private boolean hasBatches() {
+    synchronized (lock) {
+      return !batches.isEmpty();
+    }
+  }
+
+  private boolean hasStreams() {
+    synchronized (lock) {
+      return !streams.isEmpty();
+    }
+  }
+
+  /**
+   * Takes the next record of the streams. With preserved order only the oldest stream is read, otherwise any.
+   * Streams that are done are removed, and the first failure of a request is thrown.
+   *
+   * @param block whether to wait until a record arrives or a request is done
+   * @return {@code null} if no record is available, or if a request is done and its slot can be reused
+   */
+  @Nullable
+  private StructuredRecord take(boolean block) throws Exception {
+    synchronized (lock) {
+      while (true) {
+        boolean removed = false;
+        Iterator<RecordStream> iterator = streams.iterator();
+        while (iterator.hasNext()) {
+          RecordStream stream = iterator.next();
+          if (stream.isDone()) {
+            if (stream.getFailure() != null) {
+              throw stream.getFailure();
+            }
+            iterator.remove();
+            removed = true;
+          }
+        }
+        for (RecordStream stream : streams) {
+          StructuredRecord record = stream.poll();
+          if (record != null || preserveOrder) {
+            if (record != null) {
+              return record;
+            }
+            break;
+          }
+        }
+        if (!block || removed || streams.isEmpty()) {
+          return null;
+        }
+        lock.wait();
+      }
+    }
+  }
+
+  private void submit(StructuredRecord record) throws Exception {
+    // the last round handles every failure
+    boolean defer = round < deferredRetries;
+    queue(stream -> {
+      if (!processor.process(record, stream, defer)) {
+        deferred.add(record);
+      }
+    });
+  }
+
+  /**
+   * Starts the request if the window has room, or else queues it until a request is done.
+   */
+  private void queue(Request request) throws Exception {
+    if (hasRoom() && queued.isEmpty()) {
+      start(request);
+    } else {
+      queued.addLast(request);
+    }
+  }
+
+  private void start(Request request) throws Exception {
+    RecordStream stream = new RecordStream(lock, STREAM_CAPACITY);
+    synchronized (lock) {
+      streams.addLast(stream);
+    }
+    window.poll(NO_RESULT);
+    window.submit(() -> {
+      try {
+        request.run(stream);
+        stream.finish(null);
+      } catch (Exception e) {
+        stream.finish(e);
+      }
+      return null;
+    }, NO_RESULT);
+  }
+
+  /**
+   * Starts retrying the records that were put aside, after the retry delay of the round.
+   */
+  private void startRound() throws InterruptedException {
+    round++;
+    List<StructuredRecord> records = new ArrayList<>(deferred);
+    deferred.clear();
+    long delay = retryPolicy.getDelay(round, null);
+    LOG.info("Retrying {} failed records in {} ms, round {} of {}.", records.size(), delay, round, deferredRetries);
+    TimeUnit.MILLISECONDS.sleep(delay);
+    retrying = records.iterator();
+  }
+
+  private void addToBatch(StructuredRecord record) throws Exception {
+    String key = processor.getBatchKey(record);
+    if (key == null) {
+      submit(record);
+      return;
+    }
+    Batch batch;
+    synchronized (lock) {
+      batch = batches.computeIfAbsent(key, k -> new Batch(System.nanoTime()));
+      batch.records.add(record);
+      if (batch.records.size() < batchSize) {
+        return;
+      }
+      batches.remove(key);
+    }
+    submit(batch);
+  }
+
+  /**
+   * Sends the batches that reached the batch timeout, on the timer thread. Their streams are added in the same step
+   * as the batches are removed, so that the consumer never sees a batch in neither place.
+   */
+  private void flushExpired() {
+    List<Batch> expired = new ArrayList<>();
+    List<RecordStream> expiredStreams = new ArrayList<>();
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      long now = System.nanoTime();
+      Iterator<Batch> iterator = batches.values().iterator();
+      while (iterator.hasNext()) {
+        Batch batch = iterator.next();
+        if (now - batch.created >= batchTimeoutNanos) {
+          iterator.remove();
+          RecordStream stream = new RecordStream(lock, STREAM_CAPACITY);
+          streams.addLast(stream);
+          expired.add(batch);
+          expiredStreams.add(stream);
+        }
+      }
+    }
+    for (int i = 0; i < expired.size(); i++) {
+      RecordStream stream = expiredStreams.get(i);
+      try {
+        processor.processBatch(expired.get(i).records, stream);
+        stream.finish(null);
+      } catch (Exception e) {
+        stream.finish(e);
+      }
+    }
+  }
+
+  private void submit(Batch batch) throws Exception {
+    queue(stream -> processor.processBatch(batch.records, stream));
+  }
+
+  @Override
+  public StructuredRecord next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    StructuredRecord record = next;
+    next = null;
+    return record;
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (flusher != null) {
+      flusher.shutdownNow();
+    }
+    synchronized (lock) {
+      // lets workers waiting for room in their stream give up
+      for (RecordStream stream : streams) {
+        stream.cancel();
+      }
+      streams.clear();
+    }
+    window.close();
+    try {
+      processor.close();
+    } catch (IOException e) {
+      LOG.warn("Failed to close HTTP client.", e);
+    } finally {
+      if (stageKey != null) {
+        StageResources.release(stageKey);
+      }
+    }
+  }
+
+  /**
+   * Work of one request, emitting its records to the given stream.
+   */
+  private interface Request {
+    void run(RecordStream stream) throws Exception;
+  }
+
+  /**
+   * Records waiting to be sent in one request.
+   */
+  private static final class Batch {
+    private final long created;
+    private final List<StructuredRecord> records = new ArrayList<>();
+
+    private Batch(long created) {
+      this.created = created;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import org.apache.http.HttpHost;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.spark.api.java.function.PairFunction;
+import scala.Tuple2;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import javax.annotation.Nullable;
+
+/**
+ * Pairs each record with the key it is hash partitioned by: the host of its URL or its authLookup value.
+ *
+ * Records with the same key end up in the same partition, so each partition opens connections to few hosts and
+ * fetches tokens for few tenants, and keeps reusing them.
+ */
+public class PartitionKey implements PairFunction<StructuredRecord, String, StructuredRecord> {
+
+  private final HttpComputeConfig config;
+  // compiled on the executor, the template is not serializable
+  private transient RequestTemplate urlTemplate;
+  private transient boolean initialized;
+
+  public PartitionKey(HttpComputeConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public Tuple2<String, StructuredRecord> call(StructuredRecord record) {
+    return new Tuple2<>(getKey(record), record);
+  }
+
+  /**
+   * @return the key of the record, or {@code null} if it has no URL host or authLookup value, in which case its
+   *   request fails anyway
+   */
+  @Nullable
+  String getKey(StructuredRecord record) {
+    if (config.getPartitionBy() == HttpComputeConfig.PartitionBy.AUTH_LOOKUP) {
+      Object value = record.get(config.getAuthLookup());
+      return value == null ? null : value.toString();
+    }
+    if (!initialized) {
+      urlTemplate = config.createUrlTemplate();
+      initialized = true;
+    }
+    String url = urlTemplate == null ? record.get(config.getHttpgetUrlField()) : urlTemplate.render(record);
+    if (url == null) {
+      return null;
+    }
+    try {
+      // with the port, which is a different connection pool route
+      HttpHost host = URIUtils.extractHost(new URI(url));
+      return host == null ? null : host.toHostString().toLowerCase();
+    } catch (URISyntaxException e) {
+      return null;
+    }
+  }
+}
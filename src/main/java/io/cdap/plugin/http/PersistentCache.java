@@ -0,0 +1,220 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * Cache of HTTP responses in a directory that outlives the pipeline run, on the local file system of the workers or
+ * on a Hadoop file system such as HDFS.
+ *
+ * Responses are stored with their {@code ETag} and {@code Last-Modified} validators, one file per request. A stored
+ * response is never served without asking the server: the request is sent with {@code If-None-Match} and
+ * {@code If-Modified-Since}, and the stored response is used when the server answers 304 Not Modified. Responses
+ * without validators are not stored, since they could not be revalidated.
+ */
+public class PersistentCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PersistentCache.class);
+  // written at the start of every file, so that files of an incompatible layout are ignored
+  private static final int FORMAT = 1;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final FileSystem fileSystem;
+  private final Path directory;
+
+  private final LongAdder revalidated = new LongAdder();
+  private final LongAdder stored = new LongAdder();
+
+  public PersistentCache(FileSystem fileSystem, Path directory) {
+    this.fileSystem = fileSystem;
+    this.directory = directory;
+  }
+
+  /**
+   * Creates the cache in the directory of the config, or returns {@code null} if no directory is configured.
+   */
+  @Nullable
+  public static PersistentCache create(HttpConfig config) throws IOException {
+    String directory = config.getPersistentCacheDir();
+    if (directory == null) {
+      return null;
+    }
+    Path path = new Path(directory);
+    return new PersistentCache(path.getFileSystem(new Configuration()), path);
+  }
+
+  /**
+   * @return the stored response for the key, or {@code null} if there is none or it cannot be read
+   */
+  @Nullable
+  public Entry get(String key) {
+    Path file = getPath(key);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(fileSystem.open(file)))) {
+      // a different key means a hash collision, which is treated as a miss
+      if (in.readInt() != FORMAT || !key.equals(in.readUTF())) {
+        return null;
+      }
+      String eTag = readNullable(in);
+      String lastModified = readNullable(in);
+      String link = readNullable(in);
+      byte[] body = new byte[in.readInt()];
+      in.readFully(body);
+      return new Entry(new HttpResult(200, body, link), eTag, lastModified);
+    } catch (FileNotFoundException e) {
+      return null;
+    } catch (IOException e) {
+      LOG.warn("Ignoring unreadable cached response {}.", file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Stores a successful response if it has a validator. A response that cannot be stored is logged and otherwise
+   * ignored, the cache only saves requests.
+   */
+  public void put(String key, HttpResult result, @Nullable String eTag, @Nullable String lastModified) {
+    if (!result.isSuccess() || (eTag == null && lastModified == null)) {
+      return;
+    }
+    Path file = getPath(key);
+    // written next to its final place and renamed, so that readers never see a partial file
+    Path temp = new Path(file.getParent(), "." + file.getName() + "." + UUID.randomUUID() + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileSystem.create(temp, true)))) {
+        out.writeInt(FORMAT);
+        out.writeUTF(key);
+        writeNullable(out, eTag);
+        writeNullable(out, lastModified);
+        writeNullable(out, result.getLink());
+        out.writeInt(result.getBody().length);
+        out.write(result.getBody());
+      }
+      // HDFS does not replace an existing file on rename
+      if (!fileSystem.rename(temp, file) && !(fileSystem.delete(file, false) && fileSystem.rename(temp, file))) {
+        throw new IOException("Failed to rename " + temp + " to " + file);
+      }
+      stored.increment();
+    } catch (IOException e) {
+      LOG.warn("Failed to store the response for {} in {}.", key, directory, e);
+      try {
+        fileSystem.delete(temp, false);
+      } catch (IOException ignored) {
+        // nothing more to do
+      }
+    }
+  }
+
+  /**
+   * Records that a stored response was served after the server confirmed that it did not change.
+   */
+  public void onRevalidated() {
+    revalidated.increment();
+  }
+
+  public long getRevalidated() {
+    return revalidated.sum();
+  }
+
+  public long getStored() {
+    return stored.sum();
+  }
+
+  /**
+   * Returns the file of the key. Files are spread over 256 subdirectories by the hash of the key, to keep
+   * directories small.
+   */
+  private Path getPath(String key) {
+    String hash = sha256(key);
+    return new Path(new Path(directory, hash.substring(0, 2)), hash);
+  }
+
+  private static String sha256(String key) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+      char[] hex = new char[digest.length * 2];
+      for (int i = 0; i < digest.length; i++) {
+        hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+        hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+      }
+      return new String(hex);
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform supports SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Nullable
+  private static String readNullable(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeNullable(DataOutputStream out, @Nullable String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  /**
+   * A stored response and its validators.
+   */
+  public static final class Entry {
+    private final HttpResult result;
+    @Nullable
+    private final String eTag;
+    @Nullable
+    private final String lastModified;
+
+    private Entry(HttpResult result, @Nullable String eTag, @Nullable String lastModified) {
+      this.result = result;
+      this.eTag = eTag;
+      this.lastModified = lastModified;
+    }
+
+    public HttpResult getResult() {
+      return result;
+    }
+
+    @Nullable
+    public String getETag() {
+      return eTag;
+    }
+
+    @Nullable
+    public String getLastModified() {
+      return lastModified;
+    }
+  }
+}
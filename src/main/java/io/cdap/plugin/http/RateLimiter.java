@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Token bucket rate limiter with one bucket per host.
+ *
+ * Each bucket holds up to {@code burst} tokens and is refilled at the configured rate. A request that finds the
+ * bucket empty reserves the next token and sleeps until it is due, so waiting requests are served in order and never
+ * exceed the rate together. A request whose deadline passes before its token is due gives up without reserving it.
+ */
+public class RateLimiter {
+
+  private final double permitsPerSecond;
+  private final double burst;
+  private final ConcurrentMap<String, Bucket> buckets;
+
+  public RateLimiter(double permitsPerSecond, int burst) {
+    this.permitsPerSecond = permitsPerSecond;
+    this.burst = burst;
+    this.buckets = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @return the rate limiter configured for the stage, or {@code null} if requests are not rate limited
+   */
+  @Nullable
+  public static RateLimiter create(HttpConfig config) {
+    double rateLimit = config.getRateLimit();
+    return rateLimit > 0 ? new RateLimiter(rateLimit, config.getRateLimitBurst()) : null;
+  }
+
+  /**
+   * Blocks until a request may be sent to the given host.
+   */
+  public void acquire(String host) throws InterruptedException {
+    acquire(host, null);
+  }
+
+  /**
+   * Blocks until a request may be sent to the given host, unless that is only after the deadline.
+   *
+   * @param deadline the {@link System#nanoTime()} by which the request must be sent, or {@code null} if there is none
+   * @return {@code false} if no token is available before the deadline, in which case none was taken
+   */
+  public boolean acquire(String host, @Nullable Long deadline) throws InterruptedException {
+    long maxWaitNanos = deadline == null ? Long.MAX_VALUE : deadline - System.nanoTime();
+    long waitNanos = buckets.computeIfAbsent(host, key -> new Bucket()).reserve(maxWaitNanos);
+    if (waitNanos < 0) {
+      return false;
+    }
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+    return true;
+  }
+
+  /**
+   * Tokens of one host. The count goes negative while requests are waiting for tokens that are not refilled yet.
+   */
+  private final class Bucket {
+    private double tokens = burst;
+    private long updated = System.nanoTime();
+
+    /**
+     * Takes a token and returns how long to wait until it is available.
+     *
+     * @return -1 if the token would only be available after the maximum wait, in which case it is not taken
+     */
+    private synchronized long reserve(long maxWaitNanos) {
+      long now = System.nanoTime();
+      tokens = Math.min(burst, tokens + (now - updated) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+      updated = now;
+      long waitNanos = tokens >= 1 ? 0 : (long) ((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+      if (waitNanos > maxWaitNanos) {
+        return -1;
+      }
+      tokens--;
+      return waitNanos;
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.etl.api.Emitter;
+import io.cdap.cdap.etl.api.InvalidEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Emitter} that keeps everything emitted for one input record, so that the output of a request processed
+ * on a worker thread can be handed back to the thread that owns the real output.
+ */
+public class RecordCollector implements Emitter<StructuredRecord> {
+
+  private final List<StructuredRecord> records = new ArrayList<>(1);
+  private final List<InvalidEntry<StructuredRecord>> errors = new ArrayList<>(0);
+
+  @Override
+  public void emit(StructuredRecord record) {
+    records.add(record);
+  }
+
+  @Override
+  public void emitAlert(Map<String, String> payload) {
+    // alerts are not published by this plugin
+  }
+
+  @Override
+  public void emitError(InvalidEntry<StructuredRecord> invalidEntry) {
+    errors.add(invalidEntry);
+  }
+
+  public List<StructuredRecord> getRecords() {
+    return records;
+  }
+
+  public List<InvalidEntry<StructuredRecord>> getErrors() {
+    return errors;
+  }
+}
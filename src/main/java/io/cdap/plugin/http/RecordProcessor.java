@@ -0,0 +1,932 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.etl.api.Emitter;
+import io.cdap.cdap.etl.api.InvalidEntry;
+import io.cdap.cdap.etl.api.StageMetrics;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * Calls the configured HTTP endpoint for input records and builds the output records from the responses.
+ *
+ * One processor owns the pooled {@link HttpClient} of a stage or a Spark partition and is shared by every thread
+ * that processes records for it. The processors of the partitions of one executor can share the lookup index, the
+ * response cache and the OAuth2 token cache of another processor, see {@link StageResources}.
+ */
+public class RecordProcessor implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RecordProcessor.class);
+  private static final Gson GSON = new Gson();
+
+  private final HttpConfig config;
+  private final Schema outputSchema;
+  @Nullable
+  private final String httpURLField;
+  @Nullable
+  private final RequestTemplate urlTemplate;
+  private final String method;
+  @Nullable
+  private final RequestTemplate bodyTemplate;
+  private final ContentType contentType;
+  private final HttpConfig.OnError onError;
+  private final HttpMetrics metrics;
+  private final HttpClient httpClient;
+  private final CredentialTable credentialTable;
+  @Nullable
+  private final OAuth2TokenCache tokens;
+  @Nullable
+  private final ResponseCache cache;
+  @Nullable
+  private final PersistentCache persistentCache;
+  @Nullable
+  private final RequestCoalescer coalescer;
+  @Nullable
+  private final JsonProjection projection;
+  // whether the response field receives the body as it was received rather than as a string
+  private final boolean bytesResponse;
+  private final Pagination pagination;
+  @Nullable
+  private final ExecutorService prefetcher;
+  @Nullable
+  private final LookupIndex lookupIndex;
+  // whether the token cache, response cache and lookup index belong to another processor
+  private final boolean shared;
+
+  // the System.nanoTime() after which no more requests are sent
+  @Nullable
+  private final Long deadline;
+
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder deferred = new LongAdder();
+  private final LongAdder expired = new LongAdder();
+
+  public RecordProcessor(HttpConfig config) throws IOException {
+    this(config, null);
+  }
+
+  /**
+   * @param stageMetrics the metrics to report requests to, or {@code null} to not report them
+   */
+  public RecordProcessor(HttpConfig config, @Nullable StageMetrics stageMetrics) throws IOException {
+    this(config, stageMetrics, null);
+  }
+
+  /**
+   * @param stageMetrics the metrics to report requests to, or {@code null} to not report them
+   * @param owner the processor whose token cache, response cache and lookup index are used instead of loading them
+   *   again, or {@code null} to create them. The owner reports their metrics and must outlive this processor.
+   */
+  RecordProcessor(HttpConfig config, @Nullable StageMetrics stageMetrics,
+                  @Nullable RecordProcessor owner) throws IOException {
+    this(config, stageMetrics, owner, true);
+  }
+
+  /**
+   * Creates the processor that owns the state shared by the partitions of a stage run on one executor. It processes
+   * no records itself, so the deadline of a partition does not apply to the requests it sends.
+   */
+  static RecordProcessor createOwner(HttpConfig config, @Nullable StageMetrics stageMetrics) throws IOException {
+    return new RecordProcessor(config, stageMetrics, null, false);
+  }
+
+  private RecordProcessor(HttpConfig config, @Nullable StageMetrics stageMetrics, @Nullable RecordProcessor owner,
+                          boolean limited) throws IOException {
+    this.config = config;
+    this.shared = owner != null;
+    this.httpURLField = config.getHttpgetUrlField();
+    this.urlTemplate = config.createUrlTemplate();
+    this.method = config.getHttpMethod();
+    this.bodyTemplate = config.createBodyTemplate();
+    this.contentType = config.getRequestContentType();
+    this.onError = config.getOnError();
+    this.deadline = limited && config.getDeadline() > 0
+      ? System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getDeadline()) : null;
+    this.outputSchema = Schema.parseJson(config.getSchema());
+    this.metrics = new HttpMetrics(stageMetrics);
+    this.httpClient = new HttpClient(config, metrics);
+    this.credentialTable = CredentialTable.create(config);
+    this.tokens = shared ? owner.tokens : OAuth2TokenCache.create(config, httpClient);
+    // only GET responses are determined by the URL alone, other methods have a body or side effects
+    boolean get = "GET".equals(method);
+    this.cache = shared ? owner.cache : get ? ResponseCache.create(config) : null;
+    this.persistentCache = get ? PersistentCache.create(config) : null;
+    // identical requests can only overlap when several are in flight
+    this.coalescer = get && config.isCoalesceRequests() && config.getMaxConcurrentRequests() > 1
+      ? new RequestCoalescer() : null;
+    this.projection = config.createProjection(outputSchema);
+    this.bytesResponse = isBytesField(outputSchema, config.getResponseField());
+    this.pagination = new Pagination(config);
+    if (cache != null && !shared) {
+      metrics.counter(HttpMetrics.CACHE_HITS, cache::getHits);
+      metrics.counter(HttpMetrics.CACHE_MISSES, cache::getMisses);
+      metrics.counter(HttpMetrics.CACHE_EVICTIONS, cache::getEvictions);
+    }
+    if (tokens != null && !shared) {
+      metrics.counter(HttpMetrics.OAUTH2_FETCHES, tokens::getFetches);
+      metrics.counter(HttpMetrics.OAUTH2_FAILURES, tokens::getFailures);
+    }
+    metrics.counter(HttpMetrics.RECORDS_FAILED, failed::sum);
+    metrics.counter(HttpMetrics.RECORDS_DEFERRED, deferred::sum);
+    metrics.counter(HttpMetrics.RECORDS_EXPIRED, expired::sum);
+    if (persistentCache != null) {
+      metrics.counter(HttpMetrics.CACHE_REVALIDATED, persistentCache::getRevalidated);
+    }
+    if (coalescer != null) {
+      metrics.counter(HttpMetrics.COALESCED, coalescer::getCoalesced);
+    }
+    this.prefetcher = config.isPrefetchNextPage() && pagination.getType() != Pagination.Type.NONE
+      ? Executors.newCachedThreadPool(new PrefetchThreadFactory()) : null;
+    try {
+      this.lookupIndex = shared ? owner.lookupIndex : config.isLookup()
+        ? new LookupIndex(this::loadLookup, config.getLookupRefreshInterval()) : null;
+    } catch (IOException e) {
+      httpClient.close();
+      throw e;
+    }
+    if (lookupIndex != null && !shared) {
+      metrics.gauge(HttpMetrics.LOOKUP_ELEMENTS, lookupIndex::size);
+      metrics.counter(HttpMetrics.LOOKUP_REFRESHES, lookupIndex::getRefreshes);
+      metrics.counter(HttpMetrics.LOOKUP_REFRESH_FAILURES, lookupIndex::getRefreshFailures);
+    }
+  }
+
+  /**
+   * Calls the endpoint for the given record and emits the resulting output records, following further pages when
+   * pagination is configured. Safe to call from several threads at the same time.
+   */
+  public void process(StructuredRecord input, Emitter<StructuredRecord> emitter) throws Exception {
+    process(input, emitter, false);
+  }
+
+  /**
+   * Calls the endpoint for the given record and emits the resulting output records, or handles the failure as
+   * configured.
+   *
+   * @param deferRetryable whether to return instead of handling a failure that may not happen again when the record
+   *   is retried later, such as a 503 response or a connection failure. Only a record that has not emitted anything
+   *   yet is deferred, since the records of earlier pages may already be consumed.
+   * @return {@code false} if the record failed in a way that is worth retrying later and the failure was not handled
+   */
+  public boolean process(StructuredRecord input, Emitter<StructuredRecord> emitter,
+                         boolean deferRetryable) throws Exception {
+    if (lookupIndex != null) {
+      lookup(input, emitter);
+      return true;
+    }
+    String url;
+    CredentialTable.Entry credentials;
+    try {
+      url = getURL(input);
+    } catch (IllegalArgumentException e) {
+      emitFailure(input, null, HttpStatus.SC_BAD_REQUEST, e.getMessage(), emitter);
+      return true;
+    }
+    if (isPastDeadline()) {
+      emitExpired(input, url, emitter);
+      return true;
+    }
+    try {
+      credentials = credentialTable.lookup(input);
+    } catch (IllegalArgumentException e) {
+      // the record names a tenant without credentials, which no retry can fix
+      emitFailure(input, url, HttpStatus.SC_BAD_REQUEST, e.getMessage(), emitter);
+      return true;
+    }
+
+    CountingEmitter output = new CountingEmitter(emitter);
+    String pageUrl = url;
+    // the next page, requested while the current one is emitted
+    Future<HttpResult> prefetched = null;
+    String prefetchedUrl = null;
+    int failedStatus = 0;
+    String failure = null;
+    boolean retryable = false;
+    Set<String> visited = new HashSet<>();
+    try {
+      pageUrl = pagination.getFirstPage(url);
+      visited.add(pageUrl);
+      for (int pages = 1; pageUrl != null; pages++) {
+        Page page;
+        if (projection != null && cache == null && persistentCache == null && coalescer == null
+          && prefetcher == null) {
+          // nothing needs the body afterwards, so project it straight from the connection
+          page = invokeHttp(input, pageUrl, credentials, response -> {
+            int code = response.getStatusLine().getStatusCode();
+            if (!HttpResult.isSuccess(code)) {
+              return new Page(code, null);
+            }
+            Page streamed = new Page(code, getLink(response));
+            emitProjected(getContent(response), input, output, streamed);
+            return streamed;
+          });
+        } else {
+          HttpResult result = prefetched == null ? fetch(input, pageUrl, credentials) : await(prefetched);
+          prefetched = null;
+          page = new Page(result.getStatusCode(), result.getLink());
+          if (result.isSuccess()) {
+            String expected = prefetcher == null ? null
+              : pagination.getExpectedNextPage(url, pageUrl, pages, result.getLink());
+            if (expected != null) {
+              prefetched = prefetcher.submit(() -> fetch(input, expected, credentials));
+              prefetchedUrl = expected;
+            }
+            emitPage(result, input, output, page);
+          }
+        }
+        if (!HttpResult.isSuccess(page.statusCode)) {
+          failedStatus = page.statusCode;
+          retryable = RetryPolicy.isRetryable(method, failedStatus);
+          break;
+        }
+
+        String next = Pagination.checkNotVisited(
+          pagination.getNextPage(url, pageUrl, pages, page.link, page.token, page.elements), visited);
+        if (prefetched != null && !prefetchedUrl.equals(next)) {
+          // the current page turned out to be the last one
+          prefetched.cancel(true);
+          prefetched = null;
+        }
+        pageUrl = next;
+      }
+    } catch (Exception ex){
+      failedStatus = 500;
+      failure = ex.getLocalizedMessage();
+      // the same response would be too large again
+      retryable = ex instanceof IOException && !(ex instanceof ContentDecoder.ResponseTooLargeException)
+        && RetryPolicy.isRetryable(method, (IOException) ex);
+      if (ex instanceof SocketTimeoutException && isPastDeadline()) {
+        expired.increment();
+        failedStatus = HttpStatus.SC_REQUEST_TIMEOUT;
+        retryable = false;
+      }
+    } finally {
+      if (prefetched != null) {
+        prefetched.cancel(true);
+      }
+    }
+    if (failedStatus == 0) {
+      return true;
+    }
+    if (deferRetryable && retryable && output.emitted == 0) {
+      deferred.increment();
+      return false;
+    }
+    emitFailure(input, pageUrl, failedStatus, failure, emitter);
+    return true;
+  }
+
+  /**
+   * Joins the record with the element of the reference dataset that has its key.
+   */
+  private void lookup(StructuredRecord input, Emitter<StructuredRecord> emitter) {
+    Object key = input.get(config.getLookupKeyField());
+    Object[] values = key == null ? null : lookupIndex.get(String.valueOf(key));
+    if (values == null) {
+      emitFailure(input, config.getLookupUrl(), 404, "No element in the reference dataset for key " + key, emitter);
+      return;
+    }
+    StructuredRecord.Builder builder = newBuilder(input);
+    projection.setValues(builder, values);
+    emitter.emit(builder.build());
+  }
+
+  /**
+   * Fetches every page of the reference dataset and indexes the projected values of its elements by their key.
+   * Elements without a key are ignored, and of several elements with the same key the first one is kept.
+   */
+  private Map<String, Object[]> loadLookup() throws IOException {
+    String url = config.getLookupUrl();
+    Map<String, Object[]> elements = new HashMap<>();
+    long[] duplicates = {0};
+    String pageUrl = pagination.getFirstPage(url);
+    Set<String> visited = new HashSet<>(Collections.singleton(pageUrl));
+    for (int pages = 1; pageUrl != null; pages++) {
+      String[] captures = new String[projection.getCaptureCount()];
+      Page page = invokeHttp(new HttpGet(pageUrl), credentialTable.getDefault(), response -> {
+        int code = response.getStatusLine().getStatusCode();
+        if (!HttpResult.isSuccess(code)) {
+          return new Page(code, null);
+        }
+        Page read = new Page(code, getLink(response));
+        read.elements = projection.explode(getContent(response), values -> {
+          String key = projection.getKey(values);
+          if (key != null && elements.putIfAbsent(key, values) != null) {
+            duplicates[0]++;
+          }
+        }, captures);
+        read.token = captures.length == 0 ? null : captures[0];
+        return read;
+      });
+      if (!HttpResult.isSuccess(page.statusCode)) {
+        throw new IOException(String.format("Failed to fetch the reference dataset from %s, HTTP status %d.",
+                                            pageUrl, page.statusCode));
+      }
+      pageUrl = Pagination.checkNotVisited(
+        pagination.getNextPage(url, pageUrl, pages, page.link, page.token, page.elements), visited);
+    }
+    if (duplicates[0] > 0) {
+      LOG.warn("Ignored {} reference elements with the key of an earlier element.", duplicates[0]);
+    }
+    return elements;
+  }
+
+  /**
+   * Returns the key of the batch the record belongs to. Only records with the same URL and credentials can share a
+   * request.
+   *
+   * @return {@code null} if the record has no URL or no credentials, in which case it must be processed on its own
+   *   so that it fails as configured
+   */
+  @Nullable
+  public String getBatchKey(StructuredRecord input) {
+    try {
+      return ResponseCache.key(getURL(input), credentialTable.lookup(input).getLookupValue());
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Sends one request for a batch of records with the same batch key and emits the output records of every element
+   * of the response, as soon as it was read. Elements are matched to records by their key, or by position if no
+   * response key path is configured. Records without a matching element are emitted as failures. Safe to call from
+   * several threads at the same time.
+   */
+  public void processBatch(List<StructuredRecord> inputs, Emitter<StructuredRecord> emitter) throws Exception {
+    StructuredRecord first = inputs.get(0);
+    String url = getURL(first);
+    CredentialTable.Entry credentials = credentialTable.lookup(first);
+    String keyField = config.getBatchKeyField();
+
+    List<StructuredRecord> batch = new ArrayList<>(inputs.size());
+    List<String> keys = new ArrayList<>(inputs.size());
+    for (StructuredRecord input : inputs) {
+      Object key = input.get(keyField);
+      if (key == null) {
+        emitFailure(input, url, 400, "Input record does not contain the batch key field " + keyField, emitter);
+      } else {
+        batch.add(input);
+        keys.add(String.valueOf(key));
+      }
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+    if (isPastDeadline()) {
+      for (StructuredRecord input : batch) {
+        emitExpired(input, url, emitter);
+      }
+      return;
+    }
+
+    boolean[] matched = new boolean[batch.size()];
+    String batchUrl = url;
+    int failedStatus = 0;
+    String failure = null;
+    boolean timedOut = false;
+    try {
+      HttpRequestBase request;
+      if (config.getBatchMode() == HttpConfig.BatchMode.JSON_ARRAY) {
+        HttpPost post = new HttpPost(url);
+        post.setEntity(new StringEntity(GSON.toJson(keys), ContentType.APPLICATION_JSON));
+        request = post;
+      } else {
+        batchUrl = new URIBuilder(url).setParameter(config.getBatchParameter(), String.join(",", keys))
+          .build().toString();
+        request = new HttpGet(batchUrl);
+      }
+      boolean byKey = config.getBatchResponseKeyPath() != null;
+      Map<String, List<Integer>> positions = byKey ? index(keys) : null;
+      int statusCode = invokeHttp(request, credentials, response -> {
+        int code = response.getStatusLine().getStatusCode();
+        if (!HttpResult.isSuccess(code)) {
+          return code;
+        }
+        int[] position = {0};
+        projection.explode(getContent(response), values -> {
+          List<Integer> targets = byKey ? positions.get(projection.getKey(values))
+            : position[0] < batch.size() ? Collections.singletonList(position[0]++) : null;
+          if (targets == null) {
+            return;
+          }
+          for (int target : targets) {
+            matched[target] = true;
+            StructuredRecord.Builder builder = newBuilder(batch.get(target));
+            projection.setValues(builder, values);
+            emitter.emit(builder.build());
+          }
+        });
+        return code;
+      });
+      if (!HttpResult.isSuccess(statusCode)) {
+        failedStatus = statusCode;
+      }
+    } catch (Exception ex) {
+      failedStatus = 500;
+      failure = ex.getLocalizedMessage();
+      if (ex instanceof SocketTimeoutException && isPastDeadline()) {
+        failedStatus = HttpStatus.SC_REQUEST_TIMEOUT;
+        timedOut = true;
+      }
+    }
+    if (failedStatus != 0) {
+      // records that already got their element keep it
+      for (int i = 0; i < batch.size(); i++) {
+        if (!matched[i]) {
+          if (timedOut) {
+            expired.increment();
+          }
+          emitFailure(batch.get(i), batchUrl, failedStatus, failure, emitter);
+          matched[i] = true;
+        }
+      }
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      if (!matched[i]) {
+        emitFailure(batch.get(i), batchUrl, 404, "No element in the batch response for key " + keys.get(i), emitter);
+      }
+    }
+  }
+
+  private static Map<String, List<Integer>> index(List<String> keys) {
+    Map<String, List<Integer>> positions = new HashMap<>();
+    for (int i = 0; i < keys.size(); i++) {
+      positions.computeIfAbsent(keys.get(i), key -> new ArrayList<>(1)).add(i);
+    }
+    return positions;
+  }
+
+  /**
+   * Emits the records of a fully read page.
+   */
+  private void emitPage(HttpResult result, StructuredRecord input, Emitter<StructuredRecord> emitter,
+                        Page page) throws IOException {
+    if (projection != null) {
+      emitProjected(new ByteArrayInputStream(result.getBody()), input, emitter, page);
+      return;
+    }
+    StructuredRecord.Builder builder = newBuilder(input);
+    // read only, the body may be shared with the cache and other records
+    builder.set(config.getResponseField(), bytesResponse ? ByteBuffer.wrap(result.getBody()).asReadOnlyBuffer()
+      : result.getBodyAsString());
+    emitter.emit(builder.build());
+    page.elements = 1;
+  }
+
+  /**
+   * Emits the record, or one record per exploded array element, projected from the body, and records the next page
+   * token and the number of elements on the page.
+   */
+  private void emitProjected(InputStream body, StructuredRecord input, Emitter<StructuredRecord> emitter,
+                             Page page) throws IOException {
+    String[] captures = new String[projection.getCaptureCount()];
+    if (projection.isExplode()) {
+      // each element is emitted as soon as it was read
+      page.elements = projection.explode(body, values -> {
+        StructuredRecord.Builder builder = newBuilder(input);
+        projection.setValues(builder, values);
+        emitter.emit(builder.build());
+      }, captures);
+    } else {
+      StructuredRecord.Builder builder = newBuilder(input);
+      projection.project(body, builder, captures);
+      emitter.emit(builder.build());
+      page.elements = 1;
+    }
+    page.token = captures.length == 0 ? null : captures[0];
+  }
+
+  private static boolean isBytesField(Schema schema, @Nullable String fieldName) {
+    Schema.Field field = fieldName == null ? null : schema.getField(fieldName);
+    if (field == null) {
+      return false;
+    }
+    Schema fieldSchema = field.getSchema().isNullable() ? field.getSchema().getNonNullable() : field.getSchema();
+    return fieldSchema.getType() == Schema.Type.BYTES;
+  }
+
+  /**
+   * Creates a builder for an output record with the fields copied from the input record.
+   */
+  StructuredRecord.Builder newBuilder(StructuredRecord input) {
+    StructuredRecord.Builder builder = StructuredRecord.builder(outputSchema);
+    List<Schema.Field> fields = outputSchema.getFields();
+    for (Schema.Field field : fields) {
+      String name = field.getName();
+      if (input.get(name) != null) {
+        builder.set(name, input.get(name));
+      }
+    }
+    return builder;
+  }
+
+  /**
+   * Handles a record whose request failed as the error handling of the stage is configured: sends the input record
+   * with the status code to the error port, emits it with the error in the response field, drops it, or fails the
+   * pipeline.
+   */
+  private void emitFailure(StructuredRecord input, @Nullable String url, int statusCode, @Nullable String message,
+                           Emitter<StructuredRecord> emitter) {
+    failed.increment();
+    // without a URL nothing was invoked, and the message says why
+    String error = url == null ? message : "Error invoking URL " + url + (message == null ? "" : ": " + message);
+    switch (onError) {
+      case SEND_TO_ERROR_PORT:
+        emitter.emitError(new InvalidEntry<>(statusCode, error, input));
+        break;
+      case WRITE_TO_RESPONSE:
+        StructuredRecord.Builder builder = newBuilder(input);
+        if (config.getResponseField() != null) {
+          JsonObject httpError = new JsonObject();
+          httpError.addProperty("code", String.valueOf(statusCode));
+          httpError.addProperty("message", error);
+          JsonObject response = new JsonObject();
+          response.add("httperror", httpError);
+          String json = GSON.toJson(response);
+          builder.set(config.getResponseField(),
+                      bytesResponse ? ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)) : json);
+        }
+        emitter.emit(builder.build());
+        break;
+      case SKIP:
+        LOG.debug("Skipping record after HTTP status {}. {}", statusCode, error);
+        break;
+      case FAIL_PIPELINE:
+        throw new IllegalStateException(String.format("Failed to process a record, HTTP status %d. %s",
+                                                      statusCode, error));
+    }
+  }
+
+  private boolean isPastDeadline() {
+    return deadline != null && deadline - System.nanoTime() <= 0;
+  }
+
+  /**
+   * Handles a record that is not sent because the deadline passed, as a timeout.
+   */
+  private void emitExpired(StructuredRecord input, String url, Emitter<StructuredRecord> emitter) {
+    expired.increment();
+    emitFailure(input, url, HttpStatus.SC_REQUEST_TIMEOUT,
+                String.format("Not sent, the deadline of %d seconds has passed.", config.getDeadline()), emitter);
+  }
+
+  private String getURL(StructuredRecord input) {
+    if (urlTemplate != null) {
+      return urlTemplate.render(input);
+    }
+    //Check if input record contains the HTTP URL Get URL
+    String url = input.get(httpURLField);
+    if (url == null) {
+      throw new IllegalArgumentException("Input Record does not contain field " + httpURLField);
+    }
+    return url;
+  }
+
+  /**
+   * Returns the response for the request, serving it from the cache or from an identical request that is already in
+   * flight when possible.
+   */
+  private HttpResult fetch(StructuredRecord input, String url,
+                           CredentialTable.Entry credentials) throws IOException {
+    String key = ResponseCache.key(url, credentials.getLookupValue());
+    if (cache != null) {
+      HttpResult cached = cache.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    if (coalescer == null) {
+      return invokeAndCache(key, input, url, credentials);
+    }
+    return coalescer.execute(key, () -> invokeAndCache(key, input, url, credentials));
+  }
+
+  private HttpResult invokeAndCache(String key, StructuredRecord input, String url,
+                                    CredentialTable.Entry credentials) throws IOException {
+    HttpResult result = persistentCache == null ? invokeHttp(input, url, credentials)
+      : revalidate(key, input, url, credentials);
+    // cached before the coalesced call completes, so that no later request misses both
+    if (cache != null) {
+      cache.put(key, result);
+    }
+    return result;
+  }
+
+  private HttpResult invokeHttp(StructuredRecord input, String url,
+                                CredentialTable.Entry credentials) throws IOException {
+    return invokeHttp(input, url, credentials, response -> {
+      int statusCode = response.getStatusLine().getStatusCode();
+      if (!HttpResult.isSuccess(statusCode)) {
+        return new HttpResult(statusCode, null);
+      }
+      return new HttpResult(statusCode, getBody(response), getLink(response));
+    });
+  }
+
+  /**
+   * Requests the URL, conditionally if a response for it is in the persistent cache. The stored response is returned
+   * if the server reports that it did not change, and a new response is stored if it can be revalidated later.
+   */
+  private HttpResult revalidate(String key, StructuredRecord input, String url,
+                                CredentialTable.Entry credentials) throws IOException {
+    PersistentCache.Entry stored = persistentCache.get(key);
+    HttpRequestBase request = newRequest(input, url);
+    if (stored != null && stored.getETag() != null) {
+      request.addHeader(HttpHeaders.IF_NONE_MATCH, stored.getETag());
+    }
+    if (stored != null && stored.getLastModified() != null) {
+      request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, stored.getLastModified());
+    }
+    return invokeHttp(request, credentials, response -> {
+      int statusCode = response.getStatusLine().getStatusCode();
+      if (statusCode == HttpStatus.SC_NOT_MODIFIED && stored != null) {
+        persistentCache.onRevalidated();
+        return stored.getResult();
+      }
+      if (!HttpResult.isSuccess(statusCode)) {
+        return new HttpResult(statusCode, null);
+      }
+      HttpResult result = new HttpResult(statusCode, getBody(response), getLink(response));
+      persistentCache.put(key, result, getHeader(response, HttpHeaders.ETAG),
+                          getHeader(response, HttpHeaders.LAST_MODIFIED));
+      return result;
+    });
+  }
+
+  /**
+   * @return the body of the response, which is empty for a response without one, such as 204 No Content
+   */
+  private static InputStream getContent(HttpResponse response) throws IOException {
+    HttpEntity entity = response.getEntity();
+    return entity == null ? new ByteArrayInputStream(new byte[0]) : entity.getContent();
+  }
+
+  @Nullable
+  private static byte[] getBody(HttpResponse response) throws IOException {
+    HttpEntity entity = response.getEntity();
+    return entity == null ? null : EntityUtils.toByteArray(entity);
+  }
+
+  @Nullable
+  private static String getHeader(HttpResponse response, String name) {
+    Header header = response.getFirstHeader(name);
+    return header == null ? null : header.getValue();
+  }
+
+  private static HttpResult await(Future<HttpResult> prefetched) throws Exception {
+    try {
+      return prefetched.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+  }
+
+  /**
+   * @return the values of the {@code Link} headers of the response, or {@code null} if there are none
+   */
+  @Nullable
+  private static String getLink(HttpResponse response) {
+    Header[] headers = response.getHeaders("Link");
+    if (headers.length == 0) {
+      return null;
+    }
+    StringBuilder link = new StringBuilder(headers[0].getValue());
+    for (int i = 1; i < headers.length; i++) {
+      link.append(", ").append(headers[i].getValue());
+    }
+    return link.toString();
+  }
+
+  private <T> T invokeHttp(StructuredRecord input, String url, CredentialTable.Entry credentials,
+                           ResponseHandler<T> handler) throws IOException {
+    return invokeHttp(newRequest(input, url), credentials, handler);
+  }
+
+  /**
+   * Creates the request of the configured method, with the body rendered for the record.
+   */
+  private HttpRequestBase newRequest(StructuredRecord input, String url) throws IOException {
+    HttpEntityEnclosingRequestBase request;
+    switch (method) {
+      case "GET":
+        return new HttpGet(url);
+      case "DELETE":
+        return new HttpDelete(url);
+      case "POST":
+        request = new HttpPost(url);
+        break;
+      case "PUT":
+        request = new HttpPut(url);
+        break;
+      case "PATCH":
+        request = new HttpPatch(url);
+        break;
+      default:
+        // rejected when the stage is configured
+        throw new IllegalStateException("Unsupported HTTP method " + method);
+    }
+    if (bodyTemplate != null) {
+      request.setEntity(bodyTemplate.renderEntity(input, contentType));
+    }
+    return request;
+  }
+
+  private <T> T invokeHttp(HttpRequestBase request, CredentialTable.Entry credentials,
+                           ResponseHandler<T> handler) throws IOException {
+    // added rather than set, to keep the headers that belong to the request itself
+    for (Header header : credentials.getHeaders()) {
+      request.addHeader(header);
+    }
+
+    // credentials are scoped to the request so that the pooled client can be shared across tenants
+    HttpClientContext context = HttpClientContext.create();
+    CredentialsProvider credentialsProvider =
+      credentials.getCredentialsProvider(URIUtils.extractHost(request.getURI()));
+    if (credentialsProvider != null) {
+      context.setCredentialsProvider(credentialsProvider);
+    }
+    if (deadline != null) {
+      context.setAttribute(HttpClient.DEADLINE, deadline);
+    }
+    if (tokens == null) {
+      return httpClient.execute(request, handler, context);
+    }
+
+    String token = tokens.getToken(credentials.getLookupValue());
+    request.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+    boolean[] rejected = {false};
+    T result = httpClient.execute(request, response -> {
+      if (response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+        rejected[0] = true;
+        return null;
+      }
+      return handler.handleResponse(response);
+    }, context);
+    if (!rejected[0]) {
+      return result;
+    }
+    // the token was revoked or expired early, it is replaced once
+    request.setHeader(HttpHeaders.AUTHORIZATION,
+                      "Bearer " + tokens.refreshToken(credentials.getLookupValue(), token));
+    return httpClient.execute(request, handler, context);
+  }
+
+  /**
+   * Sends the metrics recorded since the previous report.
+   */
+  void reportMetrics() {
+    metrics.report();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (prefetcher != null) {
+      prefetcher.shutdownNow();
+    }
+    if (lookupIndex != null && !shared) {
+      lookupIndex.close();
+    }
+    if (tokens != null && !shared) {
+      tokens.close();
+    }
+    if (cache != null && !shared) {
+      LOG.info("Response cache hits: {}, misses: {}, evictions: {}.",
+               cache.getHits(), cache.getMisses(), cache.getEvictions());
+    }
+    if (persistentCache != null) {
+      LOG.info("Persistent cache responses revalidated: {}, stored: {}.",
+               persistentCache.getRevalidated(), persistentCache.getStored());
+    }
+    if (coalescer != null) {
+      LOG.info("Requests served by an identical in flight request: {}.", coalescer.getCoalesced());
+    }
+    try {
+      httpClient.close();
+    } finally {
+      metrics.report();
+    }
+  }
+
+  /**
+   * Passes records on to another emitter and counts them.
+   */
+  private static final class CountingEmitter implements Emitter<StructuredRecord> {
+    private final Emitter<StructuredRecord> delegate;
+    private int emitted;
+
+    private CountingEmitter(Emitter<StructuredRecord> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void emit(StructuredRecord record) {
+      delegate.emit(record);
+      emitted++;
+    }
+
+    @Override
+    public void emitAlert(Map<String, String> payload) {
+      delegate.emitAlert(payload);
+    }
+
+    @Override
+    public void emitError(InvalidEntry<StructuredRecord> invalidEntry) {
+      delegate.emitError(invalidEntry);
+    }
+  }
+
+  /**
+   * What was learned from one page about the pages that follow it.
+   */
+  private static final class Page {
+    private final int statusCode;
+    @Nullable
+    private final String link;
+    @Nullable
+    private String token;
+    private long elements;
+
+    private Page(int statusCode, @Nullable String link) {
+      this.statusCode = statusCode;
+      this.link = link;
+    }
+  }
+
+  /**
+   * Creates daemon threads for prefetching so that a processor that was not closed never keeps the JVM alive.
+   */
+  private static final class PrefetchThreadFactory implements ThreadFactory {
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "http-prefetch-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.etl.api.Emitter;
+import io.cdap.cdap.etl.api.InvalidEntry;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import javax.annotation.Nullable;
+
+/**
+ * {@link Emitter} that hands the records emitted for one request from the worker thread to the thread consuming the
+ * output while the request is still running. At most {@code capacity} records are held, once they are not taken
+ * fast enough the worker waits in {@link #emit}.
+ *
+ * All streams of a partition share one lock, so that the consumer can wait for the next record of any of them. Every
+ * method must be called while holding that lock, except for the {@link Emitter} methods, which take it themselves.
+ */
+public final class RecordStream implements Emitter<StructuredRecord> {
+
+  private final Object lock;
+  private final int capacity;
+  private final Deque<StructuredRecord> records = new ArrayDeque<>();
+  private boolean finished;
+  private boolean cancelled;
+  @Nullable
+  private Exception failure;
+
+  public RecordStream(Object lock, int capacity) {
+    this.lock = lock;
+    this.capacity = capacity;
+  }
+
+  @Override
+  public void emit(StructuredRecord record) {
+    synchronized (lock) {
+      while (records.size() >= capacity && !cancelled) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new CancellationException("Interrupted while waiting for the output to be consumed.");
+        }
+      }
+      if (cancelled) {
+        throw new CancellationException("The output is no longer consumed.");
+      }
+      records.addLast(record);
+      lock.notifyAll();
+    }
+  }
+
+  @Override
+  public void emitAlert(Map<String, String> payload) {
+    // alerts are not published by this plugin
+  }
+
+  @Override
+  public void emitError(InvalidEntry<StructuredRecord> invalidEntry) {
+    // the stages using streams have no error port
+  }
+
+  /**
+   * Marks the request as done, waking up a consumer waiting for its records.
+   *
+   * @param failure the exception the request failed with, or {@code null} if it completed
+   */
+  public void finish(@Nullable Exception failure) {
+    synchronized (lock) {
+      this.finished = true;
+      this.failure = failure;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Drops the buffered records and makes further calls to {@link #emit} fail, so that a worker waiting for room
+   * gives up.
+   */
+  public void cancel() {
+    cancelled = true;
+    records.clear();
+    lock.notifyAll();
+  }
+
+  /**
+   * Takes the oldest buffered record and makes room for the worker.
+   *
+   * @return {@code null} if no record is buffered
+   */
+  @Nullable
+  public StructuredRecord poll() {
+    StructuredRecord record = records.pollFirst();
+    if (record != null) {
+      lock.notifyAll();
+    }
+    return record;
+  }
+
+  /**
+   * @return whether the request is done and every record it emitted was taken
+   */
+  public boolean isDone() {
+    return finished && records.isEmpty();
+  }
+
+  /**
+   * @return the exception the request failed with, or {@code null} if it is still running or completed
+   */
+  @Nullable
+  public Exception getFailure() {
+    return failure;
+  }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * Sends a second copy of a GET request that did not get its response within the hedge delay, and uses the response
+ * that arrives first.
+ *
+ * The delay is either fixed or a percentile of the latencies of recent requests, so that only the slowest requests
+ * are hedged. Once one copy has its response the other one is aborted, or not sent at all. The share of hedged
+ * requests is bounded by a budget that every request adds a fraction of a hedge to, so that a slow host does not
+ * receive twice the load.
+ */
+public class RequestHedger implements Closeable {
+
+  /**
+   * Sends a single attempt of a request.
+   */
+  public interface Sender {
+    Object send(HttpUriRequest request, ResponseHandler<?> handler) throws IOException;
+  }
+
+  // the latency percentile is estimated again after this many responses, and at most once per interval
+  private static final int MIN_SAMPLES = 20;
+  private static final long ESTIMATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  // the budget is counted in thousandths of a hedge, and at most this many hedges are sent at once after a calm period
+  private static final long HEDGE_COST = 1000;
+  private static final long MAX_BUDGET = 10 * HEDGE_COST;
+  // returned by the handler of the attempt whose response is not used
+  private static final Object LOST = new Object();
+
+  private final long fixedDelayNanos;
+  private final double percentile;
+  private final long budgetPerRequest;
+  private final AtomicLong budget = new AtomicLong(MAX_BUDGET);
+  private final HttpMetrics.Histogram latencies = new HttpMetrics.Histogram();
+  private final LongAdder samples = new LongAdder();
+  private final AtomicLong nextEstimate = new AtomicLong(System.nanoTime());
+  // negative until enough latencies were seen
+  private volatile long estimatedDelayNanos = -1;
+  private final ScheduledExecutorService timer;
+  private final ExecutorService senders;
+
+  private final LongAdder hedges = new LongAdder();
+  private final LongAdder wins = new LongAdder();
+
+  /**
+   * @param delayMillis fixed hedge delay in milliseconds, or a negative value to use the percentile
+   * @param percentile percentile of the recent latencies that is used as the hedge delay
+   * @param maxPercent maximum number of hedges as a percentage of the requests
+   */
+  public RequestHedger(long delayMillis, double percentile, double maxPercent) {
+    this.fixedDelayNanos = delayMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    this.percentile = percentile;
+    this.budgetPerRequest = Math.round(maxPercent * HEDGE_COST / 100);
+    this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "http-hedge-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.senders = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "http-hedge");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * @return the hedger configured for the stage, or {@code null} if requests are not hedged
+   */
+  @Nullable
+  public static RequestHedger create(HttpConfig config) {
+    if (!config.isHedging()) {
+      return null;
+    }
+    return new RequestHedger(config.getHedgeDelay(), config.getHedgePercentile(), config.getHedgeMaxPercent());
+  }
+
+  /**
+   * Sends the request, and a copy of it if it is a GET that has no response after the hedge delay. The handler is
+   * only called with the response that is used.
+   */
+  public Object execute(HttpUriRequest request, Sender sender, ResponseHandler<?> handler) throws IOException {
+    addBudget();
+    long delay = getDelayNanos();
+    if (delay < 0 || !"GET".equals(request.getMethod())) {
+      return new Race(request, null, sender, handler).run();
+    }
+    // not a clone, which would share the abort state of the request
+    Race race = new Race(request, RequestBuilder.copy(request).build(), sender, handler);
+    race.scheduleHedge(delay);
+    return race.run();
+  }
+
+  /**
+   * @return the current hedge delay in nanoseconds, or a negative value if it is not known yet
+   */
+  long getDelayNanos() {
+    return fixedDelayNanos >= 0 ? fixedDelayNanos : estimatedDelayNanos;
+  }
+
+  public long getHedges() {
+    return hedges.sum();
+  }
+
+  public long getWins() {
+    return wins.sum();
+  }
+
+  /**
+   * @return the percentage of hedges whose response was used
+   */
+  public long getWinPercent() {
+    long sent = hedges.sum();
+    return sent == 0 ? 0 : wins.sum() * 100 / sent;
+  }
+
+  @Override
+  public void close() {
+    timer.shutdownNow();
+    senders.shutdownNow();
+  }
+
+  private void addBudget() {
+    long current;
+    do {
+      current = budget.get();
+      if (current >= MAX_BUDGET) {
+        return;
+      }
+    } while (!budget.compareAndSet(current, Math.min(MAX_BUDGET, current + budgetPerRequest)));
+  }
+
+  private boolean spendBudget() {
+    long current;
+    do {
+      current = budget.get();
+      if (current < HEDGE_COST) {
+        return false;
+      }
+    } while (!budget.compareAndSet(current, current - HEDGE_COST));
+    return true;
+  }
+
+  private void recordLatency(long latencyNanos) {
+    if (fixedDelayNanos >= 0) {
+      return;
+    }
+    latencies.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    samples.increment();
+    long next = nextEstimate.get();
+    long now = System.nanoTime();
+    if (now - next >= 0 && samples.sum() >= MIN_SAMPLES
+      && nextEstimate.compareAndSet(next, now + ESTIMATE_INTERVAL_NANOS)) {
+      samples.reset();
+      long[] snapshot = latencies.snapshot(percentile / 100);
+      if (snapshot != null) {
+        estimatedDelayNanos = TimeUnit.MICROSECONDS.toNanos(snapshot[0]);
+      }
+    }
+  }
+
+  /**
+   * A request and its hedge, of which the first to get a response wins.
+   */
+  private final class Race {
+    private final HttpUriRequest primary;
+    @Nullable
+    private final HttpUriRequest hedge;
+    private final Sender sender;
+    private final ResponseHandler<?> handler;
+    private final AtomicReference<HttpUriRequest> winner = new AtomicReference<>();
+    private final CompletableFuture<Object> outcome = new CompletableFuture<>();
+    // guarded by this
+    private int pending = 1;
+    private ScheduledFuture<?> hedgeTimer;
+
+    private Race(HttpUriRequest primary, @Nullable HttpUriRequest hedge, Sender sender, ResponseHandler<?> handler) {
+      this.primary = primary;
+      this.hedge = hedge;
+      this.sender = sender;
+      this.handler = handler;
+    }
+
+    private synchronized void scheduleHedge(long delayNanos) {
+      try {
+        hedgeTimer = timer.schedule(this::sendHedge, delayNanos, TimeUnit.NANOSECONDS);
+        pending++;
+      } catch (RejectedExecutionException e) {
+        // the hedger was closed
+      }
+    }
+
+    /**
+     * Sends the primary request on the calling thread and returns the result of the attempt that won.
+     */
+    private Object run() throws IOException {
+      attempt(primary, hedge);
+      try {
+        return outcome.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        abort(primary);
+        abort(hedge);
+        throw new InterruptedIOException("Interrupted while waiting for the response of " + primary.getURI());
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new IOException(cause);
+      }
+    }
+
+    private void sendHedge() {
+      synchronized (this) {
+        if (winner.get() != null || outcome.isDone() || !spendBudget()) {
+          finished(null);
+          return;
+        }
+      }
+      hedges.increment();
+      try {
+        senders.execute(() -> attempt(hedge, primary));
+      } catch (RejectedExecutionException e) {
+        synchronized (this) {
+          finished(null);
+        }
+      }
+    }
+
+    private void attempt(HttpUriRequest request, @Nullable HttpUriRequest other) {
+      long start = System.nanoTime();
+      Object result = null;
+      Throwable failure = null;
+      try {
+        result = sender.send(request, response -> {
+          recordLatency(System.nanoTime() - start);
+          if (!winner.compareAndSet(null, request)) {
+            return LOST;
+          }
+          cancel(other);
+          return handler.handleResponse(response);
+        });
+      } catch (IOException | RuntimeException | Error e) {
+        failure = e;
+      }
+      if (winner.get() == request) {
+        if (request == hedge) {
+          wins.increment();
+        }
+        if (failure == null) {
+          outcome.complete(result);
+        } else {
+          outcome.completeExceptionally(failure);
+        }
+        return;
+      }
+      synchronized (this) {
+        // a failure before the hedge was sent is returned right away, to be retried as any other failure
+        if (failure != null && request == primary && hedgeTimer != null && hedgeTimer.cancel(false)) {
+          pending--;
+        }
+        finished(failure);
+      }
+    }
+
+    /**
+     * Called when an attempt ended without winning, or the hedge was not sent. Fails the race if no attempt is left.
+     */
+    private void finished(@Nullable Throwable failure) {
+      pending--;
+      if (pending == 0 && winner.get() == null) {
+        outcome.completeExceptionally(failure == null ? new IOException("No attempt of the request completed.")
+                                        : failure);
+      }
+    }
+
+    private void cancel(@Nullable HttpUriRequest other) {
+      synchronized (this) {
+        if (hedgeTimer != null && hedgeTimer.cancel(false)) {
+          pending--;
+        }
+      }
+      abort(other);
+    }
+
+    private void abort(@Nullable HttpUriRequest request) {
+      if (request != null && !request.isAborted()) {
+        request.abort();
+      }
+    }
+  }
+}
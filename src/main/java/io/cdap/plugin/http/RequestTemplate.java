@@ -0,0 +1,237 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A URL or request body that references input fields, such as {@code https://api/items/${id}?type=${type}}.
+ *
+ * The template is compiled once into a list of literal and field segments. Rendering appends the segments for a
+ * record to a buffer that is reused by every record processed on the same thread, escaping the field values so that
+ * they cannot break the structure of the URL or the body. A reference of the form {@code ${raw:field}} inserts the
+ * value as it is, for fields that hold a part of the URL or the body themselves, such as a path or a JSON object.
+ */
+public final class RequestTemplate {
+
+  /**
+   * How field values are escaped when they are rendered.
+   */
+  public enum Escaping {
+    // percent encodes everything but unreserved characters, which is safe in paths and in query strings
+    URL,
+    // escapes the value for use inside a JSON string
+    JSON,
+    NONE
+  }
+
+  private static final String RAW = "raw:";
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+  private static final ThreadLocal<StringBuilder> URL_BUFFER = ThreadLocal.withInitial(StringBuilder::new);
+  private static final ThreadLocal<BodyBuffer> BODY_BUFFER = ThreadLocal.withInitial(BodyBuffer::new);
+
+  private final Segment[] segments;
+  private final List<String> fields;
+  private final Escaping escaping;
+
+  private RequestTemplate(List<Segment> segments, List<String> fields, Escaping escaping) {
+    this.segments = segments.toArray(new Segment[0]);
+    this.fields = Collections.unmodifiableList(fields);
+    this.escaping = escaping;
+  }
+
+  /**
+   * Compiles the template.
+   *
+   * @throws IllegalArgumentException if a field reference is not closed or empty
+   */
+  public static RequestTemplate compile(String template, Escaping escaping) {
+    List<Segment> segments = new ArrayList<>();
+    Set<String> fields = new LinkedHashSet<>();
+    int pos = 0;
+    while (pos < template.length()) {
+      int start = template.indexOf("${", pos);
+      if (start < 0) {
+        segments.add(new Segment(template.substring(pos), false, false));
+        break;
+      }
+      if (start > pos) {
+        segments.add(new Segment(template.substring(pos, start), false, false));
+      }
+      int end = template.indexOf('}', start);
+      if (end < 0) {
+        throw new IllegalArgumentException(String.format("Missing '}' in template '%s'.", template));
+      }
+      String field = template.substring(start + 2, end).trim();
+      boolean raw = field.startsWith(RAW);
+      if (raw) {
+        field = field.substring(RAW.length()).trim();
+      }
+      if (field.isEmpty()) {
+        throw new IllegalArgumentException(String.format("Empty field reference in template '%s'.", template));
+      }
+      segments.add(new Segment(field, true, raw));
+      fields.add(field);
+      pos = end + 1;
+    }
+    return new RequestTemplate(segments, new ArrayList<>(fields), escaping);
+  }
+
+  /**
+   * @return the input fields referenced by the template
+   */
+  public List<String> getFields() {
+    return fields;
+  }
+
+  /**
+   * Renders the template for the record. Fields that are null render as an empty string.
+   */
+  public String render(StructuredRecord record) {
+    StringBuilder buffer = URL_BUFFER.get();
+    buffer.setLength(0);
+    try {
+      render(record, buffer);
+    } catch (IOException e) {
+      // a StringBuilder does not throw
+      throw new IllegalStateException(e);
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * Renders the template for the record into a request entity, encoded with the charset of the content type, or
+   * UTF-8 if it has none. The entity is backed by a buffer of the current thread, so it must be sent before the next
+   * entity is rendered on the same thread.
+   */
+  public ByteArrayEntity renderEntity(StructuredRecord record, ContentType contentType) throws IOException {
+    BodyBuffer buffer = BODY_BUFFER.get();
+    buffer.reset();
+    Writer writer = buffer.getWriter(contentType.getCharset() == null ? StandardCharsets.UTF_8
+                                       : contentType.getCharset());
+    render(record, writer);
+    writer.flush();
+    return new ByteArrayEntity(buffer.array(), 0, buffer.size(), contentType);
+  }
+
+  private void render(StructuredRecord record, Appendable out) throws IOException {
+    for (Segment segment : segments) {
+      if (!segment.field) {
+        out.append(segment.value);
+        continue;
+      }
+      Object value = record.get(segment.value);
+      if (value == null) {
+        continue;
+      }
+      if (segment.raw) {
+        out.append(String.valueOf(value));
+      } else {
+        append(out, String.valueOf(value));
+      }
+    }
+  }
+
+  private void append(Appendable out, String value) throws IOException {
+    switch (escaping) {
+      case URL:
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+          char c = (char) (b & 0xFF);
+          if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+            || c == '-' || c == '.' || c == '_' || c == '~') {
+            out.append(c);
+          } else {
+            out.append('%').append(HEX[c >> 4]).append(HEX[c & 0xF]);
+          }
+        }
+        break;
+      case JSON:
+        for (int i = 0; i < value.length(); i++) {
+          char c = value.charAt(i);
+          if (c == '"' || c == '\\') {
+            out.append('\\').append(c);
+          } else if (c == '\n') {
+            out.append("\\n");
+          } else if (c == '\r') {
+            out.append("\\r");
+          } else if (c == '\t') {
+            out.append("\\t");
+          } else if (c < 0x20) {
+            out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+          } else {
+            out.append(c);
+          }
+        }
+        break;
+      default:
+        out.append(value);
+    }
+  }
+
+  /**
+   * A literal part of the template, or the name of a referenced field.
+   */
+  private static final class Segment {
+    private final String value;
+    private final boolean field;
+    // whether the value of the field is inserted without escaping
+    private final boolean raw;
+
+    private Segment(String value, boolean field, boolean raw) {
+      this.value = value;
+      this.field = field;
+      this.raw = raw;
+    }
+  }
+
+  /**
+   * Reusable body buffer that exposes its array, so that the entity does not copy it.
+   */
+  private static final class BodyBuffer extends ByteArrayOutputStream {
+    private Charset charset;
+    private Writer writer;
+
+    /**
+     * @return a writer encoding into this buffer, kept as long as the charset stays the same
+     */
+    private Writer getWriter(Charset charset) {
+      if (!charset.equals(this.charset)) {
+        this.charset = charset;
+        this.writer = new OutputStreamWriter(this, charset);
+      }
+      return writer;
+    }
+
+    private byte[] array() {
+      return buf;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps up to a fixed number of requests in flight and hands their results back on the calling thread.
+ *
+ * Results are delivered in completion order. Delivery always happens on the thread calling {@link #submit},
+ * {@link #poll} or {@link #awaitOne}, so sinks such as a CDAP emitter never need to be thread safe.
+ *
+ * @param <R> type of the result produced by each request
+ */
+public final class RequestWindow<R> implements Closeable {
+
+  /**
+   * Receives completed results.
+   *
+   * @param <R> type of the result
+   */
+  public interface Sink<R> {
+    void accept(R result) throws Exception;
+  }
+
+  private static final AtomicInteger WINDOW_COUNT = new AtomicInteger();
+
+  private final int maxInFlight;
+  private final ExecutorService executor;
+  private final CompletionService<R> completionService;
+  private int inFlight;
+
+  public RequestWindow(int maxInFlight) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("Maximum number of in flight requests must be at least 1.");
+    }
+    this.maxInFlight = maxInFlight;
+    this.executor = Executors.newFixedThreadPool(maxInFlight, new DaemonThreadFactory());
+    this.completionService = new ExecutorCompletionService<>(executor);
+  }
+
+  /**
+   * Submits a request. If the window is full, this blocks until a slot frees up, delivering completed results
+   * to the sink while it waits.
+   */
+  public void submit(Callable<R> request, Sink<R> sink) throws Exception {
+    while (inFlight >= maxInFlight) {
+      awaitOne(sink);
+    }
+    completionService.submit(request);
+    inFlight++;
+  }
+
+  /**
+   * Delivers every result that is already available without blocking.
+   */
+  public void poll(Sink<R> sink) throws Exception {
+    Future<R> future;
+    while (inFlight > 0 && (future = completionService.poll()) != null) {
+      deliver(future, sink);
+    }
+  }
+
+  /**
+   * Blocks until one result is delivered.
+   *
+   * @return {@code false} if nothing was in flight
+   */
+  public boolean awaitOne(Sink<R> sink) throws Exception {
+    if (inFlight == 0) {
+      return false;
+    }
+    deliver(completionService.take(), sink);
+    return true;
+  }
+
+  public int inFlight() {
+    return inFlight;
+  }
+
+  private void deliver(Future<R> future, Sink<R> sink) throws Exception {
+    R result;
+    try {
+      result = future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    } finally {
+      inFlight--;
+    }
+    sink.accept(result);
+  }
+
+  /**
+   * Stops the worker threads. Requests whose results were not delivered are abandoned.
+   */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Creates daemon worker threads so that a window that was not closed never keeps the JVM alive.
+   */
+  private static final class DaemonThreadFactory implements ThreadFactory {
+    private final int windowId = WINDOW_COUNT.incrementAndGet();
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "http-request-" + windowId + "-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
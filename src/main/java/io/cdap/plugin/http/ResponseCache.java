@@ -0,0 +1,164 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * In-memory cache of HTTP responses bounded by entry count and total body size, evicting the least recently used
+ * entry first.
+ *
+ * Only successful responses are cached. Not found responses can optionally be cached for a separate, usually
+ * shorter, time so that repeated lookups of missing keys do not go over the wire again.
+ */
+public class ResponseCache {
+
+  private final long ttlNanos;
+  private final long notFoundTtlNanos;
+  private final int maxEntries;
+  private final long maxBytes;
+  // access ordered, so iteration starts at the least recently used entry
+  private final LinkedHashMap<String, Entry> entries;
+  private long totalBytes;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public ResponseCache(int maxEntries, long maxBytes, long ttlSeconds, long notFoundTtlSeconds) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    this.notFoundTtlNanos = TimeUnit.SECONDS.toNanos(notFoundTtlSeconds);
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Creates the cache described by the config, or returns {@code null} if caching is disabled.
+   */
+  @Nullable
+  public static ResponseCache create(HttpConfig config) {
+    if (config.getCacheMaxEntries() <= 0) {
+      return null;
+    }
+    return new ResponseCache(config.getCacheMaxEntries(), config.getCacheMaxBytes(), config.getCacheTtl(),
+                             config.getCacheNotFoundTtl());
+  }
+
+  /**
+   * Builds the cache key of a request. The auth lookup value is part of the key because different tenants may get
+   * different responses for the same URL.
+   */
+  public static String key(String url, @Nullable String authLookupValue) {
+    return authLookupValue == null ? url : authLookupValue + '\u0000' + url;
+  }
+
+  @Nullable
+  public HttpResult get(String key) {
+    long now = System.nanoTime();
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null && entry.expiresAt - now > 0) {
+        hits.increment();
+        return entry.result;
+      }
+      if (entry != null) {
+        remove(key, entry);
+      }
+    }
+    misses.increment();
+    return null;
+  }
+
+  /**
+   * Caches the result if its status code is cacheable.
+   */
+  public void put(String key, HttpResult result) {
+    long ttl;
+    if (result.isSuccess()) {
+      ttl = ttlNanos;
+    } else if (result.getStatusCode() == 404) {
+      ttl = notFoundTtlNanos;
+    } else {
+      return;
+    }
+    long size = result.getBody().length + key.length() * 2L;
+    if (ttl <= 0 || size > maxBytes) {
+      return;
+    }
+    Entry entry = new Entry(result, size, System.nanoTime() + ttl);
+    synchronized (this) {
+      Entry previous = entries.put(key, entry);
+      if (previous != null) {
+        totalBytes -= previous.size;
+      }
+      totalBytes += size;
+      Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+      while ((entries.size() > maxEntries || totalBytes > maxBytes) && iterator.hasNext()) {
+        Entry eldest = iterator.next().getValue();
+        iterator.remove();
+        totalBytes -= eldest.size;
+        evictions.increment();
+      }
+    }
+  }
+
+  private void remove(String key, Entry entry) {
+    entries.remove(key);
+    totalBytes -= entry.size;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * A cached result and the time it expires at, as reported by {@link System#nanoTime()}.
+   */
+  private static final class Entry {
+    private final HttpResult result;
+    private final long size;
+    private final long expiresAt;
+
+    private Entry(HttpResult result, long size, long expiresAt) {
+      this.result = result;
+      this.size = size;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Decides which failed requests are retried and how long to wait before each retry.
+ *
+ * Requests are retried after connection failures and timeouts, and after 429, 500, 502, 503 and 504 responses.
+ * Requests that are not idempotent, such as POST and PATCH, are only retried when the server cannot have processed
+ * them: when the connection could not be established, or after a 429 or 503 response.
+ * The delay grows exponentially with full jitter, so that requests that failed together do not retry together. A
+ * {@code Retry-After} header takes precedence over the computed delay.
+ */
+public class RetryPolicy {
+
+  private final int maxRetries;
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+
+  public RetryPolicy(int maxRetries, long initialDelayMillis, long maxDelayMillis) {
+    this.maxRetries = maxRetries;
+    this.initialDelayMillis = initialDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+  }
+
+  public RetryPolicy(HttpConfig config) {
+    this(config.getMaxRetries(), config.getRetryInitialDelay(), config.getRetryMaxDelay());
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  public static boolean isRetryable(int statusCode) {
+    switch (statusCode) {
+      case 429:
+      case 500:
+      case 502:
+      case 503:
+      case 504:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * @return whether a request of the given method with the given response may be retried
+   */
+  public static boolean isRetryable(String method, int statusCode) {
+    if (!isRetryable(statusCode)) {
+      return false;
+    }
+    return isIdempotent(method) || statusCode == 429 || statusCode == 503;
+  }
+
+  /**
+   * @return whether a request of the given method that failed with the given exception may be retried
+   */
+  public static boolean isRetryable(String method, IOException failure) {
+    // nothing was sent if the connection could not be established
+    return isIdempotent(method) || failure instanceof ConnectException || failure instanceof ConnectTimeoutException
+      || failure instanceof UnknownHostException;
+  }
+
+  public static boolean isIdempotent(String method) {
+    switch (method) {
+      case "GET":
+      case "HEAD":
+      case "OPTIONS":
+      case "PUT":
+      case "DELETE":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Returns the number of milliseconds to wait before the given retry, or a negative value if the server asked for
+   * a longer wait than the maximum delay, in which case the request is not retried.
+   *
+   * @param retry the number of the retry, starting at 1
+   * @param retryAfter the {@code Retry-After} header of the failed response, if any
+   */
+  public long getDelay(int retry, @Nullable String retryAfter) {
+    Long requested = parseRetryAfter(retryAfter);
+    if (requested != null) {
+      return requested > maxDelayMillis ? -1 : requested;
+    }
+    long ceiling = initialDelayMillis << Math.min(retry - 1, 30);
+    if (ceiling <= 0 || ceiling > maxDelayMillis) {
+      ceiling = maxDelayMillis;
+    }
+    return ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
+
+  /**
+   * Parses a {@code Retry-After} value, which is either a number of seconds or an HTTP date.
+   *
+   * @return the requested delay in milliseconds, or {@code null} if there is none
+   */
+  @Nullable
+  static Long parseRetryAfter(@Nullable String retryAfter) {
+    if (retryAfter == null || retryAfter.trim().isEmpty()) {
+      return null;
+    }
+    String value = retryAfter.trim();
+    try {
+      return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value)));
+    } catch (NumberFormatException e) {
+      Date date = DateUtils.parseDate(value);
+      return date == null ? null : Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.etl.api.StageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * State of a stage run that the partitions processed by one executor share: the lookup index, the response cache
+ * and the OAuth2 token cache. They belong to a {@link RecordProcessor} of their own, which the processors of the
+ * partitions borrow them from, so the reference dataset is loaded once per executor rather than once per partition.
+ *
+ * Spark tasks of a stage only share static state, so the processors are kept in a static map, keyed by a value that
+ * is unique to each run of the stage. A processor is closed once no partition used it for {@link #LINGER_SECONDS},
+ * since there is no callback on the executors when a stage is done, and the next partition usually starts right
+ * after the previous one finished.
+ */
+final class StageResources {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StageResources.class);
+  private static final long LINGER_SECONDS = 60;
+  // guarded by itself
+  private static final Map<String, StageResources> RESOURCES = new HashMap<>();
+  private static final ScheduledExecutorService CLOSER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "http-stage-resources-closer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final String key;
+  private final RecordProcessor owner;
+  private int users;
+  @Nullable
+  private ScheduledFuture<?> closing;
+
+  private StageResources(String key, RecordProcessor owner) {
+    this.key = key;
+    this.owner = owner;
+  }
+
+  /**
+   * Returns the processor that owns the shared state of the stage run, creating it for the first partition. Every
+   * call must be followed by a call to {@link #release} once the partition is done.
+   *
+   * @throws IOException if the lookup index cannot be loaded
+   */
+  static RecordProcessor acquire(String key, HttpConfig config,
+                                 @Nullable StageMetrics stageMetrics) throws IOException {
+    // held while the lookup index loads, so that the other partitions wait for it instead of loading their own
+    synchronized (RESOURCES) {
+      StageResources resources = RESOURCES.get(key);
+      if (resources == null) {
+        resources = new StageResources(key, RecordProcessor.createOwner(config, stageMetrics));
+        RESOURCES.put(key, resources);
+      }
+      if (resources.closing != null) {
+        resources.closing.cancel(false);
+        resources.closing = null;
+      }
+      resources.users++;
+      return resources.owner;
+    }
+  }
+
+  /**
+   * Reports the metrics of the shared state, since the executor may stop before it is closed, and closes it later
+   * if no other partition uses it.
+   */
+  static void release(String key) {
+    synchronized (RESOURCES) {
+      StageResources resources = RESOURCES.get(key);
+      if (resources == null) {
+        return;
+      }
+      resources.owner.reportMetrics();
+      if (--resources.users == 0) {
+        resources.closing = CLOSER.schedule(resources::close, LINGER_SECONDS, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  private void close() {
+    synchronized (RESOURCES) {
+      if (users > 0 || RESOURCES.get(key) != this) {
+        return;
+      }
+      RESOURCES.remove(key);
+    }
+    try {
+      owner.close();
+    } catch (IOException e) {
+      LOG.warn("Failed to close the shared HTTP client of the stage.", e);
+    }
+  }
+}
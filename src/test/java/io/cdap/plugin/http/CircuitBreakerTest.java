@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link CircuitBreaker}.
+ */
+public class CircuitBreakerTest {
+
+  @Test
+  public void testOpensAfterConsecutiveFailures() throws CircuitBreaker.OpenException {
+    CircuitBreaker breaker = new CircuitBreaker(3, 1, TimeUnit.HOURS);
+    breaker.onFailure("a");
+    breaker.onFailure("a");
+    breaker.onSuccess("a");
+    breaker.onFailure("a");
+    breaker.onFailure("a");
+    breaker.check("a");
+    breaker.onFailure("a");
+    assertOpen(breaker, "a");
+    // other hosts are not affected
+    breaker.check("b");
+  }
+
+  @Test
+  public void testProbesAfterOpenTime() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(1, 100, TimeUnit.MILLISECONDS);
+    breaker.onFailure("a");
+    assertOpen(breaker, "a");
+    TimeUnit.MILLISECONDS.sleep(150);
+
+    // a single probe is let through
+    breaker.check("a");
+    assertOpen(breaker, "a");
+    breaker.onFailure("a");
+    assertOpen(breaker, "a");
+
+    TimeUnit.MILLISECONDS.sleep(150);
+    breaker.check("a");
+    breaker.onSuccess("a");
+    breaker.check("a");
+    breaker.check("a");
+  }
+
+  @Test
+  public void testEndedProbeLetsNextRequestProbe() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(1, 100, TimeUnit.MILLISECONDS);
+    breaker.onFailure("a");
+    TimeUnit.MILLISECONDS.sleep(150);
+    Assert.assertTrue(breaker.check("a"));
+    assertOpen(breaker, "a");
+
+    // the probe threw before the host answered
+    breaker.endProbe("a");
+    Assert.assertTrue(breaker.check("a"));
+    breaker.onSuccess("a");
+    Assert.assertFalse(breaker.check("a"));
+  }
+
+  private static void assertOpen(CircuitBreaker breaker, String host) {
+    try {
+      breaker.check(host);
+      Assert.fail("Expected the circuit to be open");
+    } catch (CircuitBreaker.OpenException e) {
+      // expected
+    }
+  }
+}
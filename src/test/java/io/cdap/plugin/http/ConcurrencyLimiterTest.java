@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link ConcurrencyLimiter}.
+ */
+public class ConcurrencyLimiterTest {
+
+  private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+
+  @Test
+  public void testGrowsWhileSaturated() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(16);
+    Assert.assertEquals(4, limiter.getLimit("host"));
+    for (int round = 0; round < 40; round++) {
+      runRound(limiter, false);
+    }
+    Assert.assertEquals(16, limiter.getLimit("host"));
+  }
+
+  @Test
+  public void testBacksOffOncePerRoundTrip() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(16);
+    for (int round = 0; round < 40; round++) {
+      runRound(limiter, false);
+    }
+    // every request of the round is rejected, but the limit is only halved once
+    runRound(limiter, true);
+    Assert.assertEquals(8, limiter.getLimit("host"));
+  }
+
+  @Test
+  public void testBacksOffOnRisingLatency() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(16);
+    for (int i = 0; i < 50; i++) {
+      limiter.acquire("host").release(LATENCY, false);
+    }
+    int limit = limiter.getLimit("host");
+    for (int i = 0; i < 10; i++) {
+      limiter.acquire("host").release(LATENCY * 10, false);
+    }
+    Assert.assertTrue(limiter.getLimit("host") < limit);
+  }
+
+  @Test
+  public void testBlocksAtLimit() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+    ConcurrencyLimiter.Limit first = limiter.acquire("host");
+    CountDownLatch acquired = new CountDownLatch(1);
+    Thread thread = new Thread(() -> {
+      try {
+        limiter.acquire("host").release(LATENCY, false);
+        acquired.countDown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    thread.start();
+    Assert.assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+    first.release(LATENCY, false);
+    Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testGivesUpAtDeadline() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+    ConcurrencyLimiter.Limit first = limiter.acquire("host");
+    long start = System.nanoTime();
+    Assert.assertNull(limiter.acquire("host", start + TimeUnit.MILLISECONDS.toNanos(100)));
+    Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    first.release(LATENCY, false);
+    // the request that gave up did not take a slot
+    Assert.assertNotNull(limiter.acquire("host", System.nanoTime() + TimeUnit.SECONDS.toNanos(5)));
+  }
+
+  /**
+   * Fills the current limit and releases every request.
+   */
+  private static void runRound(ConcurrencyLimiter limiter, boolean overloaded) throws InterruptedException {
+    List<ConcurrencyLimiter.Limit> inFlight = new ArrayList<>();
+    int limit = limiter.getLimit("host");
+    for (int i = 0; i < limit; i++) {
+      inFlight.add(limiter.acquire("host"));
+    }
+    for (ConcurrencyLimiter.Limit slot : inFlight) {
+      slot.release(LATENCY, overloaded);
+    }
+  }
+}
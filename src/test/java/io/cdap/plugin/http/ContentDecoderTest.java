@@ -0,0 +1,230 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Tests for {@link ContentDecoder} and the bytes response field of {@link RecordProcessor}.
+ */
+public class ContentDecoderTest {
+
+  private static final Schema INPUT = Schema.recordOf(
+    "input",
+    Schema.Field.of("url", Schema.of(Schema.Type.STRING)));
+  private static final Schema OUTPUT = Schema.recordOf(
+    "output",
+    Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("response", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+  private static final Schema BYTES_OUTPUT = Schema.recordOf(
+    "output",
+    Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("response", Schema.nullableOf(Schema.of(Schema.Type.BYTES))));
+  private static final String TEXT = "{\"name\": \"compressed\"}";
+
+  private HttpServer server;
+  // the Accept-Encoding header of every request received by the server
+  private final List<String> acceptEncodings = new CopyOnWriteArrayList<>();
+  private final AtomicInteger requests = new AtomicInteger();
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    // compressed with the first accepted encoding
+    server.createContext("/text", exchange -> {
+      String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+      acceptEncodings.add(String.valueOf(accepted));
+      String encoding = accepted == null ? "identity" : accepted.split(",")[0];
+      respond(exchange, encoding, TEXT.getBytes(StandardCharsets.UTF_8), false);
+    });
+    server.createContext("/binary", exchange -> {
+      byte[] body = new byte[256];
+      for (int i = 0; i < body.length; i++) {
+        body[i] = (byte) i;
+      }
+      respond(exchange, "identity", body, false);
+    });
+    server.createContext("/large", exchange -> respond(exchange, "identity", new byte[10000], false));
+    server.createContext("/large-chunked", exchange -> respond(exchange, "identity", new byte[10000], true));
+    server.createContext("/large-gzip", exchange -> respond(exchange, "gzip", new byte[10000], false));
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private void respond(HttpExchange exchange, String encoding, byte[] body, boolean chunked) throws IOException {
+    requests.incrementAndGet();
+    byte[] encoded = encode(encoding, body);
+    if (!"identity".equals(encoding)) {
+      exchange.getResponseHeaders().set("Content-Encoding", encoding);
+    }
+    try {
+      exchange.sendResponseHeaders(200, chunked ? 0 : encoded.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(encoded);
+      }
+    } catch (IOException e) {
+      // the client aborted the request
+    }
+  }
+
+  private static byte[] encode(String encoding, byte[] body) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    OutputStream out = "gzip".equals(encoding) ? new GZIPOutputStream(bytes)
+      : "deflate".equals(encoding) ? new DeflaterOutputStream(bytes) : bytes;
+    out.write(body);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private String url(String path) {
+    return "http://localhost:" + server.getAddress().getPort() + path;
+  }
+
+  private static HttpConfig config(Schema output) {
+    HttpConfig config = new HttpConfig("url", output.toString());
+    config.httpresponseField = "response";
+    return config;
+  }
+
+  private RecordCollector process(HttpConfig config, String... paths) throws Exception {
+    RecordCollector collector = new RecordCollector();
+    try (RecordProcessor processor = new RecordProcessor(config)) {
+      for (String path : paths) {
+        processor.process(StructuredRecord.builder(INPUT).set("url", url(path)).build(), collector);
+      }
+    }
+    return collector;
+  }
+
+  @Test
+  public void testDecompressesResponses() throws Exception {
+    RecordCollector gzip = process(config(OUTPUT), "/text");
+    HttpConfig config = config(OUTPUT);
+    config.acceptEncoding = "deflate, gzip";
+    RecordCollector deflate = process(config, "/text");
+
+    Assert.assertEquals(TEXT, gzip.getRecords().get(0).get("response"));
+    Assert.assertEquals(TEXT, deflate.getRecords().get(0).get("response"));
+    Assert.assertEquals("gzip,deflate", acceptEncodings.get(0));
+    Assert.assertEquals("deflate,gzip", acceptEncodings.get(1));
+  }
+
+  @Test
+  public void testIdentityIsRequestedUncompressed() throws Exception {
+    HttpConfig config = config(OUTPUT);
+    config.acceptEncoding = "identity";
+    RecordCollector collector = process(config, "/text");
+
+    Assert.assertEquals(TEXT, collector.getRecords().get(0).get("response"));
+    Assert.assertEquals("identity", acceptEncodings.get(0));
+  }
+
+  @Test
+  public void testWritesBodyIntoBytesField() throws Exception {
+    RecordCollector collector = process(config(BYTES_OUTPUT), "/binary", "/text");
+
+    ByteBuffer binary = collector.getRecords().get(0).get("response");
+    Assert.assertEquals(256, binary.remaining());
+    for (int i = 0; i < 256; i++) {
+      Assert.assertEquals((byte) i, binary.get(i));
+    }
+    // decompressed like a string response
+    ByteBuffer text = collector.getRecords().get(1).get("response");
+    byte[] bytes = new byte[text.remaining()];
+    text.get(bytes);
+    Assert.assertEquals(TEXT, new String(bytes, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testWritesExplodedElementsIntoBytesField() throws Exception {
+    HttpConfig config = config(BYTES_OUTPUT);
+    config.arrayPath = "$";
+    server.createContext("/array", exchange -> respond(
+      exchange, "identity", "[{\"id\": 1}, {\"id\": 2}]".getBytes(StandardCharsets.UTF_8), false));
+    RecordCollector collector = process(config, "/array");
+
+    Assert.assertEquals(2, collector.getRecords().size());
+    Assert.assertEquals("{\"id\":1}", StandardCharsets.UTF_8.decode(
+      collector.getRecords().get(0).<ByteBuffer>get("response")).toString());
+    Assert.assertEquals("{\"id\":2}", StandardCharsets.UTF_8.decode(
+      collector.getRecords().get(1).<ByteBuffer>get("response")).toString());
+  }
+
+  @Test
+  public void testOversizedResponsesFailWithoutRetry() throws Exception {
+    HttpConfig config = config(OUTPUT);
+    config.maxResponseSize = 1000L;
+    config.onError = HttpConfig.OnError.SEND_TO_ERROR_PORT.getValue();
+    RecordCollector collector = process(config, "/large", "/large-chunked", "/large-gzip", "/text");
+
+    // one request each, the connection is reusable afterwards
+    Assert.assertEquals(4, requests.get());
+    Assert.assertEquals(3, collector.getErrors().size());
+    for (int i = 0; i < 3; i++) {
+      Assert.assertTrue(collector.getErrors().get(i).getErrorMsg().contains("maximum response size of 1000 bytes"));
+    }
+    Assert.assertEquals(TEXT, collector.getRecords().get(0).get("response"));
+  }
+
+  @Test
+  public void testValidatesEncodingAndResponseType() {
+    config(OUTPUT).validate(INPUT);
+    config(BYTES_OUTPUT).validate(INPUT);
+
+    HttpConfig config = config(OUTPUT);
+    config.acceptEncoding = "gzip,br";
+    assertInvalid(config);
+    config = config(OUTPUT);
+    config.maxResponseSize = -1L;
+    assertInvalid(config);
+    config = config(Schema.recordOf("output", Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+                                    Schema.Field.of("response", Schema.of(Schema.Type.INT))));
+    assertInvalid(config);
+  }
+
+  private static void assertInvalid(HttpConfig config) {
+    try {
+      config.validate(INPUT);
+      Assert.fail("Expected the config to be invalid");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
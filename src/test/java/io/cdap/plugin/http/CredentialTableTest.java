@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.etl.api.InvalidEntry;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.client.CredentialsProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link CredentialTable}.
+ */
+public class CredentialTableTest {
+
+  private static final Schema INPUT = Schema.recordOf("input",
+                                                      Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+                                                      Schema.Field.of("program",
+                                                                      Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  private static StructuredRecord record(String program) {
+    return StructuredRecord.builder(INPUT).set("url", "http://localhost/a").set("program", program).build();
+  }
+
+  private static HttpConfig config() {
+    HttpConfig config = new HttpConfig("url", INPUT.toString());
+    config.authLookup = "program";
+    config.headers = "Accept:application/json";
+    return config;
+  }
+
+  @Test
+  public void testBasicCredentialsArePreemptive() {
+    HttpConfig config = config();
+    config.username = "{ '291':'user' }";
+    config.password = "{ '291':'secret' }";
+    CredentialTable.Entry entry = CredentialTable.create(config).lookup(record("291"));
+
+    Assert.assertEquals("291", entry.getLookupValue());
+    Assert.assertNull(entry.getCredentialsProvider(new HttpHost("localhost")));
+    Header[] headers = entry.getHeaders();
+    Assert.assertEquals(2, headers.length);
+    Assert.assertEquals("Authorization", headers[0].getName());
+    Assert.assertEquals("Basic dXNlcjpzZWNyZXQ=", headers[0].getValue());
+    Assert.assertEquals("Accept", headers[1].getName());
+  }
+
+  @Test
+  public void testTokenOwnsAuthorizationHeader() {
+    HttpConfig config = config();
+    config.username = "{ '291':'user' }";
+    config.authToken = "{ '291':'Bearer abc', '415':'Bearer def' }";
+    CredentialTable table = CredentialTable.create(config);
+    CredentialTable.Entry entry = table.lookup(record("291"));
+
+    Assert.assertEquals("Bearer abc", entry.getHeaders()[0].getValue());
+    // basic credentials only answer challenges of the host the request is sent to
+    CredentialsProvider credentials = entry.getCredentialsProvider(new HttpHost("localhost", 8080));
+    Assert.assertEquals("user", credentials.getCredentials(new AuthScope("localhost", 8080)).getUserPrincipal()
+      .getName());
+    Assert.assertNull(credentials.getCredentials(new AuthScope("other", 8080)));
+    // the same immutable entry is returned for every record of a tenant
+    Assert.assertSame(entry, table.lookup(record("291")));
+  }
+
+  @Test
+  public void testUnknownLookupValueFails() {
+    HttpConfig config = config();
+    config.username = "{ '291':'user', '415':'other' }";
+    config.password = "{ '291':'secret' }";
+    CredentialTable table = CredentialTable.create(config);
+    try {
+      table.lookup(record("415"));
+      Assert.fail("Expected missing password to fail");
+    } catch (IllegalArgumentException e) {
+      Assert.assertEquals("Unable to find Password for 415", e.getMessage());
+    }
+    try {
+      table.lookup(record(null));
+      Assert.fail("Expected missing lookup value to fail");
+    } catch (IllegalArgumentException e) {
+      Assert.assertTrue(e.getMessage().contains("program"));
+    }
+  }
+
+  @Test
+  public void testUnknownLookupValueFailsOnlyTheRecord() throws Exception {
+    Schema output = Schema.recordOf("output",
+                                    Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+                                    Schema.Field.of("program", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+                                    Schema.Field.of("response", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+    Map<HttpConfig.OnError, RecordCollector> collectors = new EnumMap<>(HttpConfig.OnError.class);
+    for (HttpConfig.OnError onError : HttpConfig.OnError.values()) {
+      HttpConfig config = new HttpConfig("url", output.toString());
+      config.authLookup = "program";
+      config.authToken = "{ '291':'Bearer abc' }";
+      config.httpresponseField = "response";
+      config.onError = onError.getValue();
+      RecordCollector collector = new RecordCollector();
+      try (RecordProcessor processor = new RecordProcessor(config)) {
+        // never sent, so the URL does not need to answer
+        processor.process(record("415"), collector);
+        Assert.assertNotEquals(HttpConfig.OnError.FAIL_PIPELINE, onError);
+      } catch (IllegalStateException e) {
+        Assert.assertEquals(HttpConfig.OnError.FAIL_PIPELINE, onError);
+        Assert.assertTrue(e.getMessage().contains("Unable to find Authtoken for 415"));
+      }
+      collectors.put(onError, collector);
+    }
+
+    List<InvalidEntry<StructuredRecord>> errors = collectors.get(HttpConfig.OnError.SEND_TO_ERROR_PORT).getErrors();
+    Assert.assertEquals(1, errors.size());
+    InvalidEntry<StructuredRecord> error = errors.get(0);
+    Assert.assertEquals(400, error.getErrorCode());
+    Assert.assertEquals("415", error.getInvalidRecord().get("program"));
+    Assert.assertTrue(collectors.get(HttpConfig.OnError.SEND_TO_ERROR_PORT).getRecords().isEmpty());
+
+    List<StructuredRecord> records = collectors.get(HttpConfig.OnError.WRITE_TO_RESPONSE).getRecords();
+    Assert.assertEquals(1, records.size());
+    StructuredRecord written = records.get(0);
+    Assert.assertTrue(written.<String>get("response").contains("\"code\":\"400\""));
+    Assert.assertTrue(written.<String>get("response").contains("Unable to find Authtoken for 415"));
+
+    for (HttpConfig.OnError onError : Arrays.asList(HttpConfig.OnError.SKIP, HttpConfig.OnError.FAIL_PIPELINE)) {
+      Assert.assertTrue(collectors.get(onError).getRecords().isEmpty());
+      Assert.assertTrue(collectors.get(onError).getErrors().isEmpty());
+    }
+  }
+
+  @Test
+  public void testNoCredentials() {
+    CredentialTable.Entry entry = CredentialTable.create(config()).lookup(record(null));
+    Assert.assertNull(entry.getLookupValue());
+    Assert.assertEquals(1, entry.getHeaders().length);
+    Assert.assertEquals("application/json", entry.getHeaders()[0].getValue());
+  }
+}
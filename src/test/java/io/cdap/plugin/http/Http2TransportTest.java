@@ -0,0 +1,201 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.sun.net.httpserver.HttpServer;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link Http2Transport} against a local HTTP/2 server.
+ */
+public class Http2TransportTest {
+
+  private static final Schema SCHEMA = Schema.recordOf("output",
+                                                       Schema.Field.of("url", Schema.of(Schema.Type.STRING)));
+  private static final int REQUESTS = 100;
+
+  private HttpAsyncServer server;
+  private int port;
+  // remote addresses of the client, one per connection
+  private final Set<SocketAddress> connections = ConcurrentHashMap.newKeySet();
+  // every response is delayed, so that concurrent requests overlap on the server
+  private final ScheduledExecutorService responder = Executors.newSingleThreadScheduledExecutor();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+
+  @Before
+  public void startServer() throws Exception {
+    server = H2ServerBootstrap.bootstrap()
+      .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+      .register("*", new AsyncServerRequestHandler<Message<HttpRequest, String>>() {
+        @Override
+        public AsyncRequestConsumer<Message<HttpRequest, String>> prepare(HttpRequest request,
+                                                                           EntityDetails entityDetails,
+                                                                           HttpContext context) {
+          return new BasicRequestConsumer<>(entityDetails == null ? null : new StringAsyncEntityConsumer());
+        }
+
+        @Override
+        public void handle(Message<HttpRequest, String> message, ResponseTrigger trigger, HttpContext context) {
+          HttpCoreContext coreContext = HttpCoreContext.cast(context);
+          connections.add(coreContext.getEndpointDetails().getRemoteAddress());
+          String body = coreContext.getProtocolVersion() + " " + message.getHead().getMethod() +
+            (message.getBody() == null ? "" : " " + message.getBody());
+          maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+          responder.schedule(() -> {
+            inFlight.decrementAndGet();
+            trigger.submitResponse(AsyncResponseBuilder.create(200).setEntity(body, ContentType.TEXT_PLAIN).build(),
+                                   context);
+            return null;
+          }, 100, TimeUnit.MILLISECONDS);
+        }
+      })
+      .create();
+    server.start();
+    Future<ListenerEndpoint> endpoint = server.listen(new InetSocketAddress("localhost", 0), URIScheme.HTTP);
+    port = ((InetSocketAddress) endpoint.get().getAddress()).getPort();
+  }
+
+  @After
+  public void stopServer() {
+    server.close(CloseMode.IMMEDIATE);
+    responder.shutdownNow();
+  }
+
+  private static HttpConfig config() {
+    HttpConfig config = new HttpConfig("url", SCHEMA.toString());
+    config.httpVersion = "HTTP/2";
+    config.maxConnectionsPerRoute = 2;
+    return config;
+  }
+
+  @Test
+  public void testMultiplexesConcurrentRequests() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(REQUESTS);
+    HttpTransport transport = new Http2Transport(config(), HttpVersionPolicy.FORCE_HTTP_2);
+    try (HttpClient client = new HttpClient(transport, config(), new HttpMetrics(null))) {
+      // a connection is shared once it is known to speak HTTP/2
+      Assert.assertEquals("HTTP/2.0 GET", client.execute(new HttpGet("http://localhost:" + port + "/items"),
+                                                         response -> EntityUtils.toString(response.getEntity()),
+                                                         HttpClientContext.create()));
+
+      List<Future<String>> responses = new ArrayList<>();
+      for (int i = 0; i < REQUESTS; i++) {
+        responses.add(executor.submit(
+          () -> client.execute(new HttpGet("http://localhost:" + port + "/items"),
+                               response -> EntityUtils.toString(response.getEntity()), HttpClientContext.create())));
+      }
+      for (Future<String> response : responses) {
+        Assert.assertEquals("HTTP/2.0 GET", response.get(30, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertTrue("Expected at most 2 connections, got " + connections.size(), connections.size() <= 2);
+    // with one request per connection, no more than 2 could have been in flight
+    Assert.assertTrue("Expected requests to be multiplexed, got " + maxInFlight.get() + " in flight",
+                      maxInFlight.get() > 2);
+  }
+
+  @Test
+  public void testSendsBody() throws IOException {
+    try (Http2Transport transport = new Http2Transport(config(), HttpVersionPolicy.FORCE_HTTP_2)) {
+      HttpPost post = new HttpPost("http://localhost:" + port + "/items");
+      post.setHeader("Content-Type", "application/json");
+      post.setEntity(new StringEntity("{\"id\": 1}", org.apache.http.entity.ContentType.APPLICATION_JSON));
+      Assert.assertEquals("HTTP/2.0 POST {\"id\": 1}",
+                          transport.execute(post, response -> EntityUtils.toString(response.getEntity()),
+                                            HttpClientContext.create()));
+    }
+  }
+
+  @Test
+  public void testFailsOnceBodyExceedsMaxResponseSize() throws IOException {
+    HttpConfig config = config();
+    config.maxResponseSize = 5L;
+    try (Http2Transport transport = new Http2Transport(config, HttpVersionPolicy.FORCE_HTTP_2)) {
+      transport.execute(new HttpGet("http://localhost:" + port + "/items"),
+                        response -> EntityUtils.toString(response.getEntity()), HttpClientContext.create());
+      Assert.fail("Expected the response to be too large");
+    } catch (ContentDecoder.ResponseTooLargeException e) {
+      // expected, before the body was handed to the handler
+    }
+  }
+
+  @Test
+  public void testFallsBackToHttp1() throws IOException {
+    HttpServer http1 = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    http1.createContext("/", exchange -> {
+      byte[] body = exchange.getProtocol().getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    http1.start();
+    try (HttpClient client = new HttpClient(config())) {
+      String url = "http://localhost:" + http1.getAddress().getPort() + "/items";
+      Assert.assertEquals("HTTP/1.1", client.execute(new HttpGet(url),
+                                                     response -> EntityUtils.toString(response.getEntity()),
+                                                     HttpClientContext.create()));
+    } finally {
+      http1.stop(0);
+    }
+  }
+}
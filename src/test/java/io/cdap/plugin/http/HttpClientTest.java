@@ -0,0 +1,294 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.sun.net.httpserver.HttpServer;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link HttpClient} against a local server.
+ */
+public class HttpClientTest {
+
+  private static final Schema SCHEMA = Schema.recordOf("output",
+                                                       Schema.Field.of("url", Schema.of(Schema.Type.STRING)));
+
+  private HttpServer server;
+  private final AtomicInteger requests = new AtomicInteger();
+  // number of requests that are answered with the failure status before the server recovers
+  private volatile int failures;
+  private volatile int failureStatus = 503;
+  // time each response is delayed by
+  private volatile long delayMillis;
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      int request = requests.incrementAndGet();
+      if (delayMillis > 0) {
+        try {
+          Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      byte[] body = ("response " + request).getBytes(StandardCharsets.UTF_8);
+      if (request <= failures) {
+        exchange.getResponseHeaders().add("Retry-After", "0");
+        exchange.sendResponseHeaders(failureStatus, body.length);
+      } else {
+        exchange.sendResponseHeaders(200, body.length);
+      }
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private String url() {
+    return "http://localhost:" + server.getAddress().getPort() + "/items";
+  }
+
+  private static HttpConfig config() {
+    HttpConfig config = new HttpConfig("url", SCHEMA.toString());
+    config.maxRetries = 3;
+    config.retryInitialDelay = 10L;
+    return config;
+  }
+
+  private static int execute(HttpClient client, String url) throws IOException {
+    return client.execute(new HttpGet(url), response -> response.getStatusLine().getStatusCode(),
+                          HttpClientContext.create());
+  }
+
+  @Test
+  public void testRetriesUnavailable() throws IOException {
+    failures = 2;
+    try (HttpClient client = new HttpClient(config())) {
+      Assert.assertEquals(200, execute(client, url()));
+    }
+    Assert.assertEquals(3, requests.get());
+  }
+
+  @Test
+  public void testRetriesPostOnlyIfNotProcessed() throws IOException {
+    ResponseHandler<Integer> status = response -> response.getStatusLine().getStatusCode();
+    failures = 1;
+    try (HttpClient client = new HttpClient(config())) {
+      Assert.assertEquals(200, (int) client.execute(new HttpPost(url()), status, HttpClientContext.create()));
+      Assert.assertEquals(2, requests.get());
+
+      // the server may have acted on a POST that failed with a 500
+      failures = 3;
+      failureStatus = 500;
+      Assert.assertEquals(500, (int) client.execute(new HttpPost(url()), status, HttpClientContext.create()));
+      Assert.assertEquals(3, requests.get());
+    }
+  }
+
+  @Test
+  public void testGivesUpAfterMaxRetries() throws IOException {
+    failures = 10;
+    HttpConfig config = config();
+    config.maxRetries = 1;
+    try (HttpClient client = new HttpClient(config)) {
+      Assert.assertEquals(503, execute(client, url()));
+    }
+    Assert.assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void testCircuitBreakerFailsFast() throws IOException {
+    failures = 100;
+    HttpConfig config = config();
+    config.maxRetries = 0;
+    config.circuitBreakerThreshold = 2;
+    try (HttpClient client = new HttpClient(config)) {
+      Assert.assertEquals(503, execute(client, url()));
+      Assert.assertEquals(503, execute(client, url()));
+      try {
+        execute(client, url());
+        Assert.fail("Expected the open circuit to fail the request");
+      } catch (CircuitBreaker.OpenException e) {
+        // expected
+      }
+    }
+    Assert.assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void testProbeThatThrowsDoesNotBlockTheHost() throws IOException, InterruptedException {
+    server.createContext("/large", exchange -> {
+      byte[] body = new byte[100];
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    failures = 1;
+    HttpConfig config = config();
+    config.maxRetries = 0;
+    config.circuitBreakerThreshold = 1;
+    config.circuitBreakerOpenTime = 1L;
+    config.maxResponseSize = 50L;
+    try (HttpClient client = new HttpClient(config)) {
+      Assert.assertEquals(503, execute(client, url()));
+      TimeUnit.MILLISECONDS.sleep(1100);
+      try {
+        execute(client, "http://localhost:" + server.getAddress().getPort() + "/large");
+        Assert.fail("Expected the probe to fail before its response is handled");
+      } catch (ContentDecoder.ResponseTooLargeException e) {
+        // expected
+      }
+      // the next request probes instead of failing on the open circuit
+      Assert.assertEquals(200, execute(client, url()));
+    }
+  }
+
+  @Test
+  public void testReadTimeout() throws IOException {
+    delayMillis = 1000;
+    HttpConfig config = config();
+    config.maxRetries = 0;
+    config.readTimeout = 100;
+    try (HttpClient client = new HttpClient(config)) {
+      execute(client, url());
+      Assert.fail("Expected the request to time out");
+    } catch (SocketTimeoutException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRequestTimeoutIncludesRetries() throws IOException {
+    failures = 10;
+    delayMillis = 200;
+    HttpConfig config = config();
+    config.requestTimeout = 300L;
+    long start = System.nanoTime();
+    try (HttpClient client = new HttpClient(config)) {
+      execute(client, url());
+      Assert.fail("Expected the request to time out");
+    } catch (SocketTimeoutException e) {
+      Assert.assertTrue(e.getMessage().contains("deadline"));
+    }
+    // the second attempt is aborted, not waited for
+    Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+    Assert.assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void testRateLimitTimeoutIsNotAHostFailure() throws IOException, InterruptedException {
+    HttpConfig config = config();
+    config.rateLimit = 1.0;
+    config.requestTimeout = 200L;
+    config.circuitBreakerThreshold = 1;
+    try (HttpClient client = new HttpClient(config)) {
+      Assert.assertEquals(200, execute(client, url()));
+      try {
+        execute(client, url());
+        Assert.fail("Expected the request to time out waiting for the rate limit");
+      } catch (HttpClient.LimitTimeoutException e) {
+        // expected
+      }
+      // neither retried nor counted by the circuit breaker
+      TimeUnit.MILLISECONDS.sleep(1000);
+      Assert.assertEquals(200, execute(client, url()));
+    }
+    Assert.assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void testAuthorizationIsNotRedirectedToOtherHosts() throws IOException {
+    HttpServer other = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    List<String> authorizations = new CopyOnWriteArrayList<>();
+    server.createContext("/redirect", exchange -> {
+      authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+      String query = exchange.getRequestURI().getQuery();
+      if (!"done".equals(query)) {
+        exchange.getResponseHeaders().add("Location", "same".equals(query) ? "/redirect?done"
+          : "http://localhost:" + other.getAddress().getPort() + "/items");
+      }
+      exchange.sendResponseHeaders("done".equals(query) ? 200 : 302, 0);
+      exchange.close();
+    });
+    other.createContext("/", exchange -> {
+      authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+      exchange.sendResponseHeaders(200, 0);
+      exchange.close();
+    });
+    other.start();
+    String redirect = "http://localhost:" + server.getAddress().getPort() + "/redirect?";
+    try (HttpClient client = new HttpClient(config())) {
+      for (String target : new String[] {"same", "other"}) {
+        HttpGet get = new HttpGet(redirect + target);
+        get.addHeader("Authorization", "Basic dXNlcjpzZWNyZXQ=");
+        Assert.assertEquals(200, client.execute(get, response -> response.getStatusLine().getStatusCode(),
+                                                HttpClientContext.create()).intValue());
+      }
+    } finally {
+      other.stop(0);
+      server.removeContext("/redirect");
+    }
+    // the same host gets the header after the redirect, the other host does not
+    String basic = "Basic dXNlcjpzZWNyZXQ=";
+    Assert.assertEquals(Arrays.asList(basic, basic, basic, null), authorizations);
+  }
+
+  @Test
+  public void testPassedDeadlineSendsNothing() throws IOException {
+    HttpConfig config = config();
+    config.deadline = 1L;
+    HttpClientContext context = HttpClientContext.create();
+    context.setAttribute(HttpClient.DEADLINE, System.nanoTime());
+    try (HttpClient client = new HttpClient(config)) {
+      client.execute(new HttpGet(url()), response -> null, context);
+      Assert.fail("Expected the request to time out");
+    } catch (SocketTimeoutException e) {
+      // expected
+    }
+    Assert.assertEquals(0, requests.get());
+  }
+}
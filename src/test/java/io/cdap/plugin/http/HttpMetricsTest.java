@@ -0,0 +1,185 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.sun.net.httpserver.HttpServer;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.etl.api.StageMetrics;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link HttpMetrics}.
+ */
+public class HttpMetricsTest {
+
+  private static final Schema SCHEMA = Schema.recordOf("output",
+                                                       Schema.Field.of("url", Schema.of(Schema.Type.STRING)));
+
+  private HttpServer server;
+  private final AtomicInteger requests = new AtomicInteger();
+  private final RecordingMetrics stageMetrics = new RecordingMetrics();
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      // the first request fails and is retried, every other one returns 1000 bytes, except for missing items
+      int request = requests.incrementAndGet();
+      int status = request == 1 ? 503 : exchange.getRequestURI().getPath().endsWith("missing") ? 404 : 200;
+      byte[] body = new byte[status == 200 ? 1000 : 10];
+      exchange.getResponseHeaders().add("Retry-After", "0");
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testReportsRequests() throws IOException {
+    HttpConfig config = new HttpConfig("url", SCHEMA.toString());
+    config.maxRetries = 3;
+    config.retryInitialDelay = 1L;
+    HttpMetrics metrics = new HttpMetrics(stageMetrics);
+    String url = "http://localhost:" + server.getAddress().getPort() + "/items/";
+    try (HttpClient client = new HttpClient(config, metrics)) {
+      for (String item : new String[] {"a", "b", "missing"}) {
+        // only part of the body is read, the rest is consumed when the response is released
+        client.execute(new HttpGet(url + item), response -> response.getEntity().getContent().read(),
+                       HttpClientContext.create());
+      }
+      Assert.assertEquals(200, (int) client.execute(new HttpGet(url + "c"), response -> {
+        EntityUtils.consume(response.getEntity());
+        return response.getStatusLine().getStatusCode();
+      }, HttpClientContext.create()));
+    }
+    metrics.report();
+
+    Assert.assertEquals(5L, stageMetrics.count(HttpMetrics.REQUESTS));
+    Assert.assertEquals(3L, stageMetrics.count(HttpMetrics.STATUS_2XX));
+    Assert.assertEquals(1L, stageMetrics.count(HttpMetrics.STATUS_4XX));
+    Assert.assertEquals(1L, stageMetrics.count(HttpMetrics.STATUS_5XX));
+    Assert.assertEquals(1L, stageMetrics.count(HttpMetrics.RETRIES));
+    Assert.assertEquals(3020L, stageMetrics.count(HttpMetrics.RESPONSE_BYTES));
+    Assert.assertEquals(0L, (long) stageMetrics.gauges.get(HttpMetrics.IN_FLIGHT));
+    Assert.assertTrue(stageMetrics.gauges.get(HttpMetrics.LATENCY_P50) <= stageMetrics.gauges.get(
+      HttpMetrics.LATENCY_MAX));
+
+    // counters are reported as increments, so nothing is counted twice
+    metrics.report();
+    Assert.assertEquals(5L, stageMetrics.count(HttpMetrics.REQUESTS));
+  }
+
+  @Test
+  public void testRecordsTimeouts() {
+    HttpMetrics metrics = new HttpMetrics(stageMetrics);
+    metrics.onRequest();
+    metrics.onFailure(new java.net.SocketTimeoutException("Read timed out"));
+    metrics.onRequest();
+    metrics.onFailure(new java.net.ConnectException("Connection refused"));
+    metrics.report();
+    Assert.assertEquals(1L, stageMetrics.count(HttpMetrics.TIMEOUTS));
+    Assert.assertEquals(1L, stageMetrics.count(HttpMetrics.ERRORS));
+    Assert.assertEquals(0L, (long) stageMetrics.gauges.get(HttpMetrics.IN_FLIGHT));
+  }
+
+  @Test
+  public void testHistogramBuckets() {
+    long previous = -1;
+    for (int bucket = 0; bucket < HttpMetrics.Histogram.BUCKETS - 1; bucket++) {
+      long upper = HttpMetrics.Histogram.upperBound(bucket);
+      Assert.assertEquals(bucket, HttpMetrics.Histogram.bucket(previous + 1));
+      Assert.assertEquals(bucket, HttpMetrics.Histogram.bucket(upper));
+      // buckets are no wider than an eighth of their values
+      Assert.assertTrue(upper - previous <= Math.max(1, (previous + 1) / 8));
+      previous = upper;
+    }
+    Assert.assertEquals(HttpMetrics.Histogram.BUCKETS - 1, HttpMetrics.Histogram.bucket(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testPercentiles() {
+    HttpMetrics.Histogram histogram = new HttpMetrics.Histogram();
+    Assert.assertNull(histogram.snapshot());
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+    long[] percentiles = histogram.snapshot();
+    assertWithin(500_000, percentiles[0]);
+    assertWithin(900_000, percentiles[1]);
+    assertWithin(990_000, percentiles[2]);
+    assertWithin(1_000_000, percentiles[3]);
+    // a snapshot resets the histogram
+    Assert.assertNull(histogram.snapshot());
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    Assert.assertTrue(String.format("Expected about %d, got %d", expected, actual),
+                      actual >= expected && actual <= expected + expected / 8);
+  }
+
+  /**
+   * Sums the counts and keeps the last value of each gauge.
+   */
+  private static final class RecordingMetrics implements StageMetrics {
+    private final Map<String, Long> counts = new HashMap<>();
+    private final Map<String, Long> gauges = new HashMap<>();
+
+    long count(String name) {
+      return counts.getOrDefault(name, 0L);
+    }
+
+    @Override
+    public void count(String name, int delta) {
+      counts.merge(name, (long) delta, Long::sum);
+    }
+
+    @Override
+    public void gauge(String name, long value) {
+      gauges.put(name, value);
+    }
+
+    @Override
+    public void pipelineCount(String name, int delta) {
+      count(name, delta);
+    }
+
+    @Override
+    public void pipelineGauge(String name, long value) {
+      gauge(name, value);
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2016-2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the plugins in pipelines against a local server that injects faults.
+ */
+public class HttpPipelineTest extends HttpPipelineTestBase {
+
+  private static void injectFaults() {
+    server.throttleEvery = 7;
+    server.errorEvery = 11;
+    server.resetEvery = 13;
+    server.dripEvery = 17;
+  }
+
+  private static void assertFaultsInjected() {
+    Assert.assertTrue(server.getThrottled() > 0);
+    Assert.assertTrue(server.getErrors() > 0);
+    Assert.assertTrue(server.getResets() > 0);
+    Assert.assertTrue(server.getDrips() > 0);
+  }
+
+  @Test
+  public void testTransformRetriesFaults() throws Exception {
+    injectFaults();
+    List<StructuredRecord> output = runPipeline("transformFaults", transform(properties()), input(500));
+    assertOutput(output, 500);
+    assertFaultsInjected();
+  }
+
+  @Test
+  public void testComputeRetriesFaults() throws Exception {
+    injectFaults();
+    server.latencyMillis = 5;
+    Map<String, String> properties = properties();
+    properties.put(HttpConfig.PROPERTY_MAX_CONCURRENT_REQUESTS, "16");
+    List<StructuredRecord> output = runPipeline("computeFaults", compute(properties), input(2000));
+    assertOutput(output, 2000);
+    assertFaultsInjected();
+  }
+
+  @Test
+  public void testFailedRequestsAreSentToErrorPort() throws Exception {
+    server.errorEvery = 1;
+    Map<String, String> properties = properties();
+    properties.put(HttpConfig.PROPERTY_MAX_RETRIES, "1");
+    properties.put(HttpConfig.PROPERTY_ON_ERROR, HttpConfig.OnError.SEND_TO_ERROR_PORT.getValue());
+    List<StructuredRecord> output = runPipeline("failures", transform(properties), input(20));
+
+    Assert.assertTrue(output.isEmpty());
+    List<StructuredRecord> errors = readErrors("failures");
+    Assert.assertEquals(20, errors.size());
+    for (StructuredRecord error : errors) {
+      Assert.assertEquals(503, error.<Integer>get("errCode").intValue());
+      Assert.assertTrue(error.<String>get("errMsg").contains(error.<String>get("url")));
+    }
+    // each record was tried twice
+    Assert.assertEquals(40, server.getRequests());
+  }
+
+  @Test
+  public void testFailedRequestsAreWrittenToResponse() throws Exception {
+    server.errorEvery = 1;
+    Map<String, String> properties = properties();
+    properties.put(HttpConfig.PROPERTY_MAX_RETRIES, "0");
+    List<StructuredRecord> output = runPipeline("failuresInResponse", transform(properties), input(20));
+
+    Assert.assertEquals(20, output.size());
+    for (StructuredRecord record : output) {
+      Assert.assertNull(record.get("name"));
+      Assert.assertTrue(record.<String>get("response").contains("\"code\":\"503\""));
+    }
+    Assert.assertTrue(readErrors("failuresInResponse").isEmpty());
+  }
+
+  @Test
+  public void testComputeRetriesDeferredFailures() throws Exception {
+    // failed records are only tried again after the rest of their partition
+    server.errorEvery = 3;
+    Map<String, String> properties = properties();
+    properties.put(HttpConfig.PROPERTY_MAX_RETRIES, "0");
+    properties.put(HttpConfig.PROPERTY_DEFERRED_RETRIES, "10");
+    List<StructuredRecord> output = runPipeline("deferred", compute(properties), input(200));
+    assertOutput(output, 200);
+    Assert.assertTrue(server.getErrors() > 0);
+  }
+}
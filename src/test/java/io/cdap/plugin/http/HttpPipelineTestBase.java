@@ -0,0 +1,207 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.api.artifact.ArtifactSummary;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.api.dataset.table.Table;
+import io.cdap.cdap.datapipeline.DataPipelineApp;
+import io.cdap.cdap.datapipeline.SmartWorkflow;
+import io.cdap.cdap.etl.api.Engine;
+import io.cdap.cdap.etl.api.Transform;
+import io.cdap.cdap.etl.api.batch.SparkCompute;
+import io.cdap.cdap.etl.mock.batch.MockSink;
+import io.cdap.cdap.etl.mock.batch.MockSource;
+import io.cdap.cdap.etl.mock.test.HydratorTestBase;
+import io.cdap.cdap.etl.mock.transform.FlattenErrorTransform;
+import io.cdap.cdap.etl.proto.v2.ETLBatchConfig;
+import io.cdap.cdap.etl.proto.v2.ETLPlugin;
+import io.cdap.cdap.etl.proto.v2.ETLStage;
+import io.cdap.cdap.proto.ProgramRunStatus;
+import io.cdap.cdap.proto.artifact.AppRequest;
+import io.cdap.cdap.proto.id.ArtifactId;
+import io.cdap.cdap.proto.id.NamespaceId;
+import io.cdap.cdap.test.ApplicationManager;
+import io.cdap.cdap.test.DataSetManager;
+import io.cdap.cdap.test.TestConfiguration;
+import io.cdap.cdap.test.WorkflowManager;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base for tests that run the plugins in a full pipeline against a {@link MockHttpServer}. The pipelines read
+ * records with a numeric id and the URL of the item from a mock source, request the item, and write the records with
+ * the name from the response to a mock sink. Records sent to the error port of a transform are written to a second
+ * sink, with the error code and message.
+ */
+public abstract class HttpPipelineTestBase extends HydratorTestBase {
+
+  @ClassRule
+  public static final TestConfiguration CONFIG = new TestConfiguration("explore.enabled", false);
+
+  protected static final Schema INPUT = Schema.recordOf(
+    "input",
+    Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("id", Schema.of(Schema.Type.STRING)));
+  protected static final Schema OUTPUT = Schema.recordOf(
+    "output",
+    Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("id", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("response", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  private static final ArtifactId APP_ARTIFACT_ID = NamespaceId.DEFAULT.artifact("data-pipeline", "1.0.0");
+  private static final ArtifactSummary APP_ARTIFACT = new ArtifactSummary("data-pipeline", "1.0.0");
+
+  protected static MockHttpServer server;
+
+  @BeforeClass
+  public static void setupTestClass() throws Exception {
+    setupBatchArtifacts(APP_ARTIFACT_ID, DataPipelineApp.class);
+    addPluginArtifact(NamespaceId.DEFAULT.artifact("http-plugins", "1.0.0"), APP_ARTIFACT_ID,
+                      HttpTransform.class, HttpCompute.class);
+    server = new MockHttpServer();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Before
+  public void resetServer() {
+    server.reset();
+  }
+
+  /**
+   * @return the properties shared by the plugins of the pipelines, with short retry delays
+   */
+  protected static Map<String, String> properties() {
+    Map<String, String> properties = new HashMap<>();
+    properties.put(HttpConfig.PROPETY_HTTPGET_URLFIELD, "url");
+    properties.put(HttpConfig.PROPERTY_RESPONSE_FIELD, "response");
+    properties.put(HttpConfig.PROPERTY_FIELD_MAPPINGS, "name:$.name");
+    properties.put(HttpConfig.PROPERTY_MAX_RETRIES, "5");
+    properties.put(HttpConfig.PROPERTY_RETRY_INITIAL_DELAY, "1");
+    properties.put(HttpConfig.PROPERTY_RETRY_MAX_DELAY, "100");
+    properties.put(HttpConfig.OUTPUTSCHEMA_FIELD, OUTPUT.toString());
+    return properties;
+  }
+
+  protected static ETLPlugin transform(Map<String, String> properties) {
+    return new ETLPlugin("Http", Transform.PLUGIN_TYPE, properties, null);
+  }
+
+  protected static ETLPlugin compute(Map<String, String> properties) {
+    return new ETLPlugin("HttpCompute", SparkCompute.PLUGIN_TYPE, properties, null);
+  }
+
+  /**
+   * @return records for the items 0 to count - 1
+   */
+  protected static List<StructuredRecord> input(int count) {
+    List<StructuredRecord> records = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String id = String.valueOf(i);
+      records.add(StructuredRecord.builder(INPUT).set("url", server.url(id)).set("id", id).build());
+    }
+    return records;
+  }
+
+  /**
+   * Deploys a pipeline that passes the input through the given plugin, and writes the input to its source.
+   * The errors of a transform are flattened into records with the {@code errCode} and {@code errMsg} fields.
+   */
+  protected WorkflowManager deployPipeline(String name, ETLPlugin plugin,
+                                           List<StructuredRecord> input) throws Exception {
+    ETLStage source = new ETLStage("source", MockSource.getPlugin(name + "Input", INPUT));
+    ETLStage http = new ETLStage("http", plugin);
+    ETLStage sink = new ETLStage("sink", MockSink.getPlugin(name + "Output"));
+    // the compute plugin only runs on Spark
+    ETLBatchConfig.Builder builder = ETLBatchConfig.builder()
+      .setEngine(Engine.SPARK)
+      .addStage(source)
+      .addStage(http)
+      .addStage(sink)
+      .addConnection(source.getName(), http.getName())
+      .addConnection(http.getName(), sink.getName());
+    // a compute stage has no error port
+    if (Transform.PLUGIN_TYPE.equals(plugin.getType())) {
+      ETLStage errors = new ETLStage("errors", FlattenErrorTransform.getPlugin());
+      ETLStage errorSink = new ETLStage("errorSink", MockSink.getPlugin(name + "Errors"));
+      builder.addStage(errors)
+        .addStage(errorSink)
+        .addConnection(http.getName(), errors.getName())
+        .addConnection(errors.getName(), errorSink.getName());
+    }
+    ETLBatchConfig config = builder.build();
+    ApplicationManager app = deployApplication(NamespaceId.DEFAULT.app(name), new AppRequest<>(APP_ARTIFACT, config));
+
+    DataSetManager<Table> inputManager = getDataset(name + "Input");
+    MockSource.writeInput(inputManager, input);
+    return app.getWorkflowManager(SmartWorkflow.NAME);
+  }
+
+  protected static void run(WorkflowManager workflow) throws Exception {
+    workflow.startAndWaitForRun(ProgramRunStatus.COMPLETED, 30, TimeUnit.MINUTES);
+  }
+
+  protected List<StructuredRecord> readOutput(String name) throws Exception {
+    DataSetManager<Table> outputManager = getDataset(name + "Output");
+    return MockSink.readOutput(outputManager);
+  }
+
+  protected List<StructuredRecord> readErrors(String name) throws Exception {
+    DataSetManager<Table> errorManager = getDataset(name + "Errors");
+    return MockSink.readOutput(errorManager);
+  }
+
+  protected List<StructuredRecord> runPipeline(String name, ETLPlugin plugin,
+                                               List<StructuredRecord> input) throws Exception {
+    run(deployPipeline(name, plugin, input));
+    return readOutput(name);
+  }
+
+  /**
+   * Asserts that the output has exactly one record with the name of the item for each of the items 0 to count - 1.
+   */
+  protected static void assertOutput(List<StructuredRecord> output, int count) {
+    Assert.assertEquals(count, output.size());
+    BitSet seen = new BitSet(count);
+    for (StructuredRecord record : output) {
+      String id = record.get("id");
+      Assert.assertEquals(record.get("response"), MockHttpServer.name(id), record.get("name"));
+      int item = Integer.parseInt(id);
+      Assert.assertFalse("Duplicate record for item " + id, seen.get(item));
+      seen.set(item);
+    }
+    Assert.assertEquals(count, seen.cardinality());
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.etl.proto.v2.ETLPlugin;
+import io.cdap.cdap.test.WorkflowManager;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes a large number of records through pipelines against a local server that injects faults, and checks the
+ * output, the throughput and the heap use. Too slow for the regular build, run it with
+ * {@code mvn test -Dtest=HttpPipelineTestRun}.
+ *
+ * The number of records, the throughput floor in records per second and the bound on the heap growth in megabytes
+ * are set with the system properties {@code http.pipeline.records}, {@code http.pipeline.minThroughput} and
+ * {@code http.pipeline.maxHeapGrowthMb}.
+ */
+public class HttpPipelineTestRun extends HttpPipelineTestBase {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HttpPipelineTestRun.class);
+
+  private static final int RECORDS = Integer.getInteger("http.pipeline.records", 1000000);
+  private static final int MIN_THROUGHPUT = Integer.getInteger("http.pipeline.minThroughput", 2000);
+  private static final long MAX_HEAP_GROWTH_MB = Long.getLong("http.pipeline.maxHeapGrowthMb", 2048);
+
+  private static void injectFaults() {
+    // roughly one request in 250 fails in one of the ways
+    server.throttleEvery = 1009;
+    server.errorEvery = 1013;
+    server.resetEvery = 1019;
+    server.dripEvery = 1021;
+  }
+
+  @Test
+  public void testTransformThroughput() throws Exception {
+    injectFaults();
+    runAndCheck("transformThroughput", transform(properties()), RECORDS);
+  }
+
+  @Test
+  public void testComputeScaling() throws Exception {
+    injectFaults();
+    // with this latency a single request at a time could not reach the throughput floor
+    server.latencyMillis = 2;
+    Map<String, String> properties = properties();
+    properties.put(HttpConfig.PROPERTY_MAX_CONCURRENT_REQUESTS, "32");
+
+    double small = runAndCheck("computeSmall", compute(properties), RECORDS / 10);
+    double large = runAndCheck("computeLarge", compute(properties), RECORDS);
+    Assert.assertTrue(String.format("Throughput dropped from %.0f to %.0f records/s with ten times the records",
+                                    small, large), large >= small / 2);
+  }
+
+  /**
+   * Runs the pipeline over the given number of records and checks its output, throughput and heap use.
+   *
+   * @return the throughput in records per second
+   */
+  private double runAndCheck(String name, ETLPlugin plugin, int records) throws Exception {
+    WorkflowManager workflow = deployPipeline(name, plugin, input(records));
+    long requests = server.getRequests();
+
+    long baseline;
+    long peak;
+    long elapsedNanos;
+    try (HeapSampler heap = new HeapSampler()) {
+      baseline = heap.getBaseline();
+      long start = System.nanoTime();
+      run(workflow);
+      elapsedNanos = System.nanoTime() - start;
+      peak = heap.getPeak();
+    }
+
+    double throughput = records / (elapsedNanos / 1e9);
+    long heapGrowthMb = Math.max(0, peak - baseline) >> 20;
+    LOG.info("Pipeline {} processed {} records with {} requests at {} records/s, heap grew by {} MB", name, records,
+             server.getRequests() - requests, Math.round(throughput), heapGrowthMb);
+
+    Assert.assertTrue(String.format("Throughput of %.0f records/s is below the floor of %d", throughput,
+                                    MIN_THROUGHPUT), throughput >= MIN_THROUGHPUT);
+    Assert.assertTrue(String.format("Heap grew by %d MB, more than %d MB", heapGrowthMb, MAX_HEAP_GROWTH_MB),
+                      heapGrowthMb <= MAX_HEAP_GROWTH_MB);
+    assertOutput(readOutput(name), records);
+    return throughput;
+  }
+
+  /**
+   * Tracks the largest heap occupancy seen after a garbage collection. Unlike the current heap use, it does not depend
+   * on how much garbage the collector lets pile up before it runs.
+   */
+  private static final class HeapSampler implements Closeable {
+
+    private final long baseline;
+    private final AtomicLong peak = new AtomicLong();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    HeapSampler() {
+      System.gc();
+      baseline = collectionUsage();
+      executor.scheduleAtFixedRate(() -> peak.accumulateAndGet(collectionUsage(), Math::max),
+                                   0, 100, TimeUnit.MILLISECONDS);
+    }
+
+    private static long collectionUsage() {
+      long used = 0;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+        if (usage != null) {
+          used += usage.getUsed();
+        }
+      }
+      return used;
+    }
+
+    long getBaseline() {
+      return baseline;
+    }
+
+    long getPeak() {
+      // the heap that is still in use at the end counts as well
+      System.gc();
+      return Math.max(peak.get(), collectionUsage());
+    }
+
+    @Override
+    public void close() {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link JsonProjection}.
+ */
+public class JsonProjectionTest {
+
+  private static final Schema OUTPUT = Schema.recordOf(
+    "output",
+    Schema.Field.of("id", Schema.nullableOf(Schema.of(Schema.Type.LONG))),
+    Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("score", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))),
+    Schema.Field.of("active", Schema.nullableOf(Schema.of(Schema.Type.BOOLEAN))),
+    Schema.Field.of("firstTag", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("address", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("tags", Schema.nullableOf(Schema.arrayOf(Schema.of(Schema.Type.STRING)))),
+    Schema.Field.of("raw", Schema.nullableOf(Schema.of(Schema.Type.BYTES))));
+
+  private static final String BODY = "{\"id\": 42, \"ignored\": {\"deep\": [1, 2, {\"x\": \"y\"}]}, " +
+    "\"profile\": {\"name\": \"Ada\", \"score\": 9.5, \"active\": true}, \"tags\": [\"a\", \"b\"], " +
+    "\"address\": {\"city\": \"London\"}}";
+
+  private static StructuredRecord project(Map<String, String> mappings, String body) throws IOException {
+    StructuredRecord.Builder builder = StructuredRecord.builder(OUTPUT);
+    new JsonProjection(mappings, OUTPUT).project(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)),
+                                                 builder);
+    return builder.build();
+  }
+
+  @Test
+  public void testProjectsTypedValues() throws IOException {
+    Map<String, String> mappings = new LinkedHashMap<>();
+    mappings.put("id", "$.id");
+    mappings.put("name", "$.profile.name");
+    mappings.put("score", "profile.score");
+    mappings.put("active", "$.profile.active");
+    mappings.put("firstTag", "$.tags[0]");
+    mappings.put("address", "$.address");
+
+    StructuredRecord record = project(mappings, BODY);
+    Assert.assertEquals(42L, (long) record.get("id"));
+    Assert.assertEquals("Ada", record.get("name"));
+    Assert.assertEquals(9.5d, record.<Double>get("score"), 0.0001d);
+    Assert.assertTrue(record.<Boolean>get("active"));
+    Assert.assertEquals("a", record.get("firstTag"));
+    Assert.assertEquals("{\"city\":\"London\"}", record.get("address"));
+  }
+
+  @Test
+  public void testMissingValuesAreLeftUnset() throws IOException {
+    Map<String, String> mappings = new LinkedHashMap<>();
+    mappings.put("name", "$.profile.nickname");
+    mappings.put("firstTag", "$.tags[5]");
+    mappings.put("id", "$.profile.name.id");
+
+    StructuredRecord record = project(mappings, BODY);
+    Assert.assertNull(record.get("name"));
+    Assert.assertNull(record.get("firstTag"));
+    Assert.assertNull(record.get("id"));
+  }
+
+  @Test
+  public void testRejectsInvalidMappings() {
+    assertInvalid("missing", "$.a");
+    assertInvalid("tags", "$.tags");
+    assertInvalid("name", "$.a[x]");
+
+    Map<String, String> overlapping = new LinkedHashMap<>();
+    overlapping.put("address", "$.address");
+    overlapping.put("name", "$.address.city");
+    try {
+      new JsonProjection(overlapping, OUTPUT);
+      Assert.fail("Expected overlapping paths to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testExplodesArray() throws IOException {
+    Map<String, String> mappings = new LinkedHashMap<>();
+    mappings.put("id", "$.id");
+    mappings.put("name", "$.name");
+    JsonProjection projection = new JsonProjection(mappings, "$.data.items", OUTPUT);
+    Assert.assertTrue(projection.isExplode());
+
+    String body = "{\"meta\": {\"count\": 3}, \"data\": {\"items\": [{\"id\": 1, \"name\": \"a\"}, " +
+      "{\"id\": 2, \"extra\": [1, 2]}, {\"name\": \"c\"}]}}";
+    List<StructuredRecord> records = new ArrayList<>();
+    long count = projection.explode(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), values -> {
+      StructuredRecord.Builder builder = StructuredRecord.builder(OUTPUT);
+      projection.setValues(builder, values);
+      records.add(builder.build());
+    });
+
+    Assert.assertEquals(3, count);
+    Assert.assertEquals(1L, (long) records.get(0).get("id"));
+    Assert.assertEquals("a", records.get(0).get("name"));
+    Assert.assertEquals(2L, (long) records.get(1).get("id"));
+    Assert.assertNull(records.get(1).get("name"));
+    Assert.assertNull(records.get(2).get("id"));
+    Assert.assertEquals("c", records.get(2).get("name"));
+  }
+
+  @Test
+  public void testExplodesRootArrayAsJson() throws IOException {
+    JsonProjection projection = new JsonProjection(Collections.singletonMap("address", "$"), "$", OUTPUT);
+    List<String> elements = new ArrayList<>();
+    projection.explode(new ByteArrayInputStream("[{\"a\":1},{\"b\":[2]}]".getBytes(StandardCharsets.UTF_8)),
+                       values -> elements.add((String) values[0]));
+    Assert.assertEquals(Arrays.asList("{\"a\":1}", "{\"b\":[2]}"), elements);
+  }
+
+  @Test
+  public void testWritesBytesFieldsAsUtf8() throws IOException {
+    JsonProjection projection = new JsonProjection(Collections.singletonMap("raw", "$.name"), "$.items",
+                                                   Collections.emptyList(), "$.name", OUTPUT);
+    List<StructuredRecord> records = new ArrayList<>();
+    List<String> keys = new ArrayList<>();
+    String body = "{\"items\": [{\"name\": \"Zo\u00eb\"}, {\"name\": {\"a\": 1}}]}";
+    projection.explode(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), values -> {
+      keys.add(projection.getKey(values));
+      StructuredRecord.Builder builder = StructuredRecord.builder(OUTPUT);
+      projection.setValues(builder, values);
+      records.add(builder.build());
+    });
+
+    Assert.assertEquals(Arrays.asList("Zo\u00eb", "{\"a\":1}"), keys);
+    Assert.assertEquals("Zo\u00eb", StandardCharsets.UTF_8.decode(records.get(0).<ByteBuffer>get("raw")).toString());
+    Assert.assertEquals("{\"a\":1}", StandardCharsets.UTF_8.decode(records.get(1).<ByteBuffer>get("raw")).toString());
+  }
+
+  @Test
+  public void testEmitsElementsWhileReading() {
+    JsonProjection projection = new JsonProjection(Collections.singletonMap("id", "$.id"), "$", OUTPUT);
+    // the body is cut off after the second element, which must not prevent the first two from being delivered
+    String truncated = "[{\"id\": 1}, {\"id\": 2}, {\"id\": ";
+    List<Object> ids = new ArrayList<>();
+    try {
+      projection.explode(new ByteArrayInputStream(truncated.getBytes(StandardCharsets.UTF_8)),
+                         values -> ids.add(values[0]));
+      Assert.fail("Expected the truncated body to fail");
+    } catch (IOException e) {
+      // expected
+    }
+    Assert.assertEquals(Arrays.<Object>asList(1L, 2L), ids);
+  }
+
+  @Test
+  public void testCapturesDocumentValues() throws IOException {
+    JsonProjection projection = new JsonProjection(Collections.singletonMap("id", "$.id"), "$.items",
+                                                   Collections.singletonList("$.paging.next"), OUTPUT);
+    String[] captures = new String[projection.getCaptureCount()];
+    List<Object> ids = new ArrayList<>();
+    long count = projection.explode(new ByteArrayInputStream(
+      "{\"items\": [{\"id\": 1}, {\"id\": 2}], \"paging\": {\"next\": 20}}".getBytes(StandardCharsets.UTF_8)),
+                                    values -> ids.add(values[0]), captures);
+    Assert.assertEquals(2, count);
+    Assert.assertEquals(Arrays.<Object>asList(1L, 2L), ids);
+    Assert.assertEquals("20", captures[0]);
+
+    try {
+      new JsonProjection(Collections.singletonMap("id", "$.id"), "$.items", Collections.singletonList("$.items[0]"),
+                         OUTPUT);
+      Assert.fail("Expected a captured value inside the exploded array to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static void assertInvalid(String field, String path) {
+    Map<String, String> mappings = new LinkedHashMap<>();
+    mappings.put(field, path);
+    try {
+      new JsonProjection(mappings, OUTPUT);
+      Assert.fail(String.format("Expected mapping %s:%s to be rejected", field, path));
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.sun.net.httpserver.HttpServer;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link LookupIndex} and the lookup mode of {@link RecordProcessor}.
+ */
+public class LookupIndexTest {
+
+  private static final Schema INPUT = Schema.recordOf(
+    "input",
+    Schema.Field.of("code", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+  private static final Schema OUTPUT = Schema.recordOf(
+    "output",
+    Schema.Field.of("code", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("country", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("response", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  private HttpServer server;
+  // the query of every request received by the server
+  private final List<String> requests = new CopyOnWriteArrayList<>();
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    // two pages of two countries and a last, short page
+    server.createContext("/countries", exchange -> {
+      String query = exchange.getRequestURI().getQuery();
+      requests.add(query);
+      String body;
+      if (query.contains("offset=0")) {
+        body = "{\"items\": [{\"code\": \"FR\", \"name\": \"France\"}, {\"code\": \"DE\", \"name\": \"Germany\"}]}";
+      } else if (query.contains("offset=2")) {
+        body = "{\"items\": [{\"code\": \"IT\", \"name\": \"Italy\"}, {\"code\": \"FR\", \"name\": \"Francia\"}]}";
+      } else {
+        body = "{\"items\": [{\"name\": \"Nowhere\"}]}";
+      }
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    });
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private HttpConfig config() {
+    HttpConfig config = new HttpConfig(null, OUTPUT.toString());
+    config.httpresponseField = "response";
+    config.lookupUrl = "http://localhost:" + server.getAddress().getPort() + "/countries";
+    config.lookupKeyField = "code";
+    config.onError = HttpConfig.OnError.SEND_TO_ERROR_PORT.getValue();
+    config.lookupKeyPath = "$.code";
+    config.arrayPath = "$.items";
+    config.fieldMappings = "country:$.name";
+    config.paginationType = Pagination.Type.OFFSET.getValue();
+    config.pageSize = 2;
+    return config;
+  }
+
+  @Test
+  public void testJoinsRecordsWithoutRequests() throws Exception {
+    RecordCollector collector = new RecordCollector();
+    try (RecordProcessor processor = new RecordProcessor(config())) {
+      for (String code : new String[] {"FR", "IT", "DE", "FR", "ES", null}) {
+        processor.process(StructuredRecord.builder(INPUT).set("code", code).build(), collector);
+      }
+    }
+
+    // the dataset was read once, page by page
+    Assert.assertEquals(3, requests.size());
+    List<StructuredRecord> records = collector.getRecords();
+    Assert.assertEquals(4, records.size());
+    // the first element of a key is kept
+    Assert.assertEquals("France", records.get(0).get("country"));
+    Assert.assertEquals("Italy", records.get(1).get("country"));
+    Assert.assertEquals("Germany", records.get(2).get("country"));
+    Assert.assertEquals("France", records.get(3).get("country"));
+    Assert.assertNull(records.get(0).get("response"));
+    // records without a match are failures
+    Assert.assertEquals(2, collector.getErrors().size());
+    Assert.assertEquals(404, collector.getErrors().get(0).getErrorCode());
+    Assert.assertEquals("ES", collector.getErrors().get(0).getInvalidRecord().get("code"));
+  }
+
+  @Test
+  public void testPartitionsOfAStageRunShareTheIndex() throws Exception {
+    HttpConfig config = config();
+    List<StructuredRecord> input = Collections.singletonList(StructuredRecord.builder(INPUT).set("code", "IT").build());
+    try (PartitionIterator first = new PartitionIterator(input.iterator(), config, null, "stage-1");
+         PartitionIterator second = new PartitionIterator(input.iterator(), config, null, "stage-1")) {
+      Assert.assertEquals("Italy", first.next().get("country"));
+      Assert.assertEquals("Italy", second.next().get("country"));
+    }
+    // a partition that starts right after the others finished still finds the index
+    try (PartitionIterator third = new PartitionIterator(input.iterator(), config, null, "stage-1")) {
+      Assert.assertEquals("Italy", third.next().get("country"));
+    }
+    Assert.assertEquals(3, requests.size());
+
+    // another run of the stage loads the dataset again
+    try (PartitionIterator other = new PartitionIterator(input.iterator(), config, null, "stage-2")) {
+      Assert.assertEquals("Italy", other.next().get("country"));
+    }
+    Assert.assertEquals(6, requests.size());
+  }
+
+  @Test
+  public void testFailsWhenDatasetCannotBeLoaded() throws Exception {
+    HttpConfig config = config();
+    config.lookupUrl = "http://localhost:" + server.getAddress().getPort() + "/missing";
+    config.maxRetries = 0;
+    try {
+      new RecordProcessor(config).close();
+      Assert.fail("Expected the missing dataset to fail the stage");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage().contains("404"));
+    }
+  }
+
+  @Test
+  public void testRefreshReplacesDataAndKeepsItOnFailure() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    LookupIndex index = new LookupIndex(() -> {
+      int load = loads.incrementAndGet();
+      if (load == 3) {
+        throw new IOException("unavailable");
+      }
+      return Collections.singletonMap("key", new Object[] {"value " + load});
+    }, 0);
+
+    Assert.assertEquals("value 1", index.get("key")[0]);
+    index.refresh();
+    Assert.assertEquals("value 2", index.get("key")[0]);
+    index.refresh();
+    Assert.assertEquals("value 2", index.get("key")[0]);
+    Assert.assertNull(index.get("other"));
+    Assert.assertEquals(1, index.getRefreshes());
+    Assert.assertEquals(1, index.getRefreshFailures());
+    index.close();
+  }
+
+  @Test
+  public void testRefreshesInBackground() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    LookupIndex.Loader loader = () -> {
+      loads.incrementAndGet();
+      return Collections.<String, Object[]>emptyMap();
+    };
+    try (LookupIndex index = new LookupIndex(loader, 1)) {
+      long deadline = System.currentTimeMillis() + 10000;
+      while (index.getRefreshes() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+      Assert.assertTrue(index.getRefreshes() > 0);
+      Assert.assertTrue(loads.get() > 1);
+    }
+  }
+
+  @Test
+  public void testValidatesLookupMode() {
+    HttpConfig config = config();
+    config.validate(INPUT);
+
+    config.lookupKeyField = "missing";
+    assertInvalid(config);
+    config = config();
+    config.httpMethod = "POST";
+    assertInvalid(config);
+    config = config();
+    config.arrayPath = null;
+    assertInvalid(config);
+  }
+
+  private static void assertInvalid(HttpConfig config) {
+    try {
+      config.validate(INPUT);
+      Assert.fail("Expected the config to be invalid");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
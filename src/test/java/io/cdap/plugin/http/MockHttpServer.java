@@ -0,0 +1,180 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process HTTP server for tests that answers {@code GET /items/<id>} with
+ * {@code {"id": "<id>", "name": "item-<id>"}} and injects faults into a fixed share of the requests.
+ *
+ * Every n-th request, counted over all requests the server received, gets the fault configured for n: a 429
+ * response, a 503 response, a connection that is closed without a response, or a body that is written a few bytes at
+ * a time. Retries of a failed request are counted as new requests, so they normally succeed.
+ */
+public final class MockHttpServer implements Closeable {
+
+  static {
+    // otherwise the response body waits for the acknowledgement of the separately written headers
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  // time each response is delayed by
+  volatile long latencyMillis;
+  // every n-th request is answered with the fault, 0 to never inject it
+  volatile int throttleEvery;
+  volatile int errorEvery;
+  volatile int resetEvery;
+  volatile int dripEvery;
+  // pause between the pieces of a slowly written body
+  volatile long dripDelayMillis = 2;
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicInteger throttled = new AtomicInteger();
+  private final AtomicInteger errors = new AtomicInteger();
+  private final AtomicInteger resets = new AtomicInteger();
+  private final AtomicInteger drips = new AtomicInteger();
+
+  public MockHttpServer() throws IOException {
+    executor = Executors.newCachedThreadPool();
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(executor);
+    server.createContext("/items/", this::handle);
+    server.start();
+  }
+
+  /**
+   * @return the URL of the item with the given id
+   */
+  public String url(String id) {
+    return "http://localhost:" + server.getAddress().getPort() + "/items/" + id;
+  }
+
+  public static String name(String id) {
+    return "item-" + id;
+  }
+
+  /**
+   * Stops injecting faults and resets the counters.
+   */
+  public void reset() {
+    latencyMillis = 0;
+    throttleEvery = 0;
+    errorEvery = 0;
+    resetEvery = 0;
+    dripEvery = 0;
+    requests.set(0);
+    throttled.set(0);
+    errors.set(0);
+    resets.set(0);
+    drips.set(0);
+  }
+
+  public long getRequests() {
+    return requests.get();
+  }
+
+  public int getThrottled() {
+    return throttled.get();
+  }
+
+  public int getErrors() {
+    return errors.get();
+  }
+
+  public int getResets() {
+    return resets.get();
+  }
+
+  public int getDrips() {
+    return drips.get();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    long request = requests.incrementAndGet();
+    try {
+      if (latencyMillis > 0) {
+        TimeUnit.MILLISECONDS.sleep(latencyMillis);
+      }
+      if (isDue(request, resetEvery)) {
+        resets.incrementAndGet();
+        // closing the exchange before the response headers were sent closes the connection
+        return;
+      }
+      if (isDue(request, throttleEvery)) {
+        throttled.incrementAndGet();
+        exchange.getResponseHeaders().add("Retry-After", "0");
+        exchange.sendResponseHeaders(429, -1);
+        return;
+      }
+      if (isDue(request, errorEvery)) {
+        errors.incrementAndGet();
+        exchange.sendResponseHeaders(503, -1);
+        return;
+      }
+
+      String path = exchange.getRequestURI().getPath();
+      String id = path.substring(path.lastIndexOf('/') + 1);
+      byte[] body = String.format("{\"id\": \"%s\", \"name\": \"%s\"}", id, name(id)).getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      if (isDue(request, dripEvery)) {
+        drips.incrementAndGet();
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+          for (int offset = 0; offset < body.length; offset += 8) {
+            out.write(body, offset, Math.min(8, body.length - offset));
+            out.flush();
+            TimeUnit.MILLISECONDS.sleep(dripDelayMillis);
+          }
+        }
+        return;
+      }
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static boolean isDue(long request, int every) {
+    return every > 0 && request % every == 0;
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
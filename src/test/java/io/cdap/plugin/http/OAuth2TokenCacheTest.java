@@ -0,0 +1,241 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link OAuth2TokenCache} against a local authorization server.
+ */
+public class OAuth2TokenCacheTest {
+
+  private static final Schema SCHEMA = Schema.recordOf(
+    "record",
+    Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("program", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("response", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  private HttpServer server;
+  // the tokens accepted by the resource, by the client they were issued to
+  private final Map<String, String> validTokens = new ConcurrentHashMap<>();
+  private final AtomicInteger issued = new AtomicInteger();
+  // the form and Authorization header of every token request
+  private final List<String> tokenRequests = new ArrayList<>();
+  private volatile long expiresIn = 3600;
+  private volatile CountDownLatch tokenGate = new CountDownLatch(0);
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/token", exchange -> {
+      String form = read(exchange.getRequestBody());
+      String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+      synchronized (tokenRequests) {
+        tokenRequests.add(authorization + " " + form);
+      }
+      try {
+        tokenGate.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      String token = "token-" + issued.incrementAndGet();
+      validTokens.put(authorization, token);
+      respond(exchange, 200, String.format("{\"access_token\": \"%s\", \"token_type\": \"Bearer\", " +
+                                             "\"expires_in\": %d}", token, expiresIn));
+    });
+    server.createContext("/data", exchange -> {
+      String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+      if (authorization != null && validTokens.containsValue(authorization.substring("Bearer ".length()))) {
+        respond(exchange, 200, authorization);
+      } else {
+        respond(exchange, 401, "invalid_token");
+      }
+    });
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+      out.write(buffer, 0, read);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(statusCode, bytes.length == 0 ? -1 : bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private String url(String path) {
+    return "http://localhost:" + server.getAddress().getPort() + path;
+  }
+
+  private HttpConfig config() {
+    HttpConfig config = new HttpConfig("url", SCHEMA.toString());
+    config.httpresponseField = "response";
+    config.authLookup = "program";
+    config.oauth2TokenUrl = url("/token");
+    config.oauth2ClientId = "{ '291':'client-a', '415':'client-b' }";
+    config.oauth2ClientSecret = "{ '291':'secret-a', '415':'secret-b' }";
+    config.oauth2Scope = "read write";
+    return config;
+  }
+
+  private StructuredRecord record(String program) {
+    return StructuredRecord.builder(SCHEMA).set("url", url("/data")).set("program", program).build();
+  }
+
+  @Test
+  public void testSharesTokenOfTenant() throws Exception {
+    RecordCollector collector = new RecordCollector();
+    try (RecordProcessor processor = new RecordProcessor(config())) {
+      for (int i = 0; i < 10; i++) {
+        processor.process(record("291"), collector);
+        processor.process(record("415"), collector);
+      }
+    }
+
+    Assert.assertEquals(20, collector.getRecords().size());
+    Assert.assertEquals("Bearer token-1", collector.getRecords().get(0).get("response"));
+    Assert.assertEquals("Bearer token-2", collector.getRecords().get(1).get("response"));
+    Assert.assertEquals("Bearer token-1", collector.getRecords().get(18).get("response"));
+    // one token per tenant, requested with the client credentials of the tenant
+    Assert.assertEquals(2, tokenRequests.size());
+    Assert.assertEquals("Basic Y2xpZW50LWE6c2VjcmV0LWE= grant_type=client_credentials&scope=read+write",
+                        tokenRequests.get(0));
+  }
+
+  @Test
+  public void testRefreshesOnceAfterUnauthorized() throws Exception {
+    RecordCollector collector = new RecordCollector();
+    try (RecordProcessor processor = new RecordProcessor(config())) {
+      processor.process(record("291"), collector);
+      // revoked by the server
+      validTokens.clear();
+      processor.process(record("291"), collector);
+      processor.process(record("291"), collector);
+    }
+
+    Assert.assertEquals("Bearer token-1", collector.getRecords().get(0).get("response"));
+    Assert.assertEquals("Bearer token-2", collector.getRecords().get(1).get("response"));
+    Assert.assertEquals("Bearer token-2", collector.getRecords().get(2).get("response"));
+    Assert.assertEquals(2, issued.get());
+  }
+
+  @Test
+  public void testCoalescesConcurrentFetches() throws Exception {
+    tokenGate = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try (HttpClient httpClient = new HttpClient(config());
+         OAuth2TokenCache cache = OAuth2TokenCache.create(config(), httpClient)) {
+      List<Future<String>> tokens = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        tokens.add(executor.submit(() -> cache.getToken("291")));
+      }
+      // let every thread ask for the token while the first fetch is held up
+      Thread.sleep(200);
+      tokenGate.countDown();
+      Set<String> distinct = new HashSet<>();
+      for (Future<String> token : tokens) {
+        distinct.add(token.get(10, TimeUnit.SECONDS));
+      }
+
+      Assert.assertEquals(1, distinct.size());
+      Assert.assertEquals(1, cache.getFetches());
+      // a rejection of a token that was already replaced does not fetch again
+      String refreshed = cache.refreshToken("291", "token-1");
+      Assert.assertEquals("token-2", refreshed);
+      Assert.assertEquals("token-2", cache.refreshToken("291", "token-1"));
+      Assert.assertEquals(2, cache.getFetches());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testRefreshesBeforeExpiry() throws Exception {
+    // refreshed after half of its lifetime
+    expiresIn = 2;
+    try (HttpClient httpClient = new HttpClient(config());
+         OAuth2TokenCache cache = OAuth2TokenCache.create(config(), httpClient)) {
+      Assert.assertEquals("token-1", cache.getToken("291"));
+      long deadline = System.currentTimeMillis() + 10000;
+      while (cache.getFetches() < 2 && System.currentTimeMillis() < deadline) {
+        // served from the cache without waiting while the refresh is pending
+        Assert.assertTrue(cache.getToken("291").startsWith("token-"));
+        Thread.sleep(50);
+      }
+      Assert.assertEquals(2, cache.getFetches());
+      Thread.sleep(100);
+      Assert.assertEquals("token-2", cache.getToken("291"));
+    }
+  }
+
+  @Test
+  public void testFailedFetchIsReported() throws Exception {
+    HttpConfig config = config();
+    config.oauth2TokenUrl = url("/missing");
+    config.maxRetries = 0;
+    try (HttpClient httpClient = new HttpClient(config);
+         OAuth2TokenCache cache = OAuth2TokenCache.create(config, httpClient)) {
+      try {
+        cache.getToken("291");
+        Assert.fail("Expected the token request to fail");
+      } catch (IOException e) {
+        Assert.assertTrue(e.getMessage().contains("404"));
+      }
+      Assert.assertEquals(1, cache.getFailures());
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests for {@link Pagination}.
+ */
+public class PaginationTest {
+
+  private static HttpConfig config(Pagination.Type type) {
+    HttpConfig config = new HttpConfig("url", null);
+    config.paginationType = type.getValue();
+    return config;
+  }
+
+  @Test
+  public void testParsesNextLink() {
+    Assert.assertEquals("https://api.test/items?page=2", Pagination.getNextLink(
+      "<https://api.test/items?page=1>; rel=\"prev\", <https://api.test/items?page=2>; rel=\"next\""));
+    Assert.assertEquals("/items?page=3", Pagination.getNextLink("</items?page=3>; title=\"x\"; rel=\"last next\""));
+    Assert.assertEquals("/items?page=4", Pagination.getNextLink("</items?page=4>;rel=next"));
+    Assert.assertNull(Pagination.getNextLink("<https://api.test/items?page=1>; rel=\"prev\""));
+    Assert.assertNull(Pagination.getNextLink(null));
+  }
+
+  @Test
+  public void testFollowsLinkHeader() {
+    HttpConfig config = config(Pagination.Type.LINK_HEADER);
+    config.maxPages = 3;
+    Pagination pagination = new Pagination(config);
+    String url = "https://api.test/items";
+
+    Assert.assertEquals(url, pagination.getFirstPage(url));
+    Assert.assertEquals("https://api.test/items?page=2",
+                        pagination.getNextPage(url, url, 1, "</items?page=2>; rel=\"next\"", null, 10));
+    // a link back to the current page ends the pagination
+    Assert.assertNull(pagination.getNextPage(url, url, 1, "</items>; rel=\"next\"", null, 10));
+    Assert.assertNull(pagination.getNextPage(url, url, 3, "</items?page=4>; rel=\"next\"", null, 10));
+  }
+
+  @Test
+  public void testFollowsToken() {
+    HttpConfig config = config(Pagination.Type.NEXT_PAGE_TOKEN);
+    Pagination pagination = new Pagination(config);
+    String url = "https://api.test/items?q=a";
+    Assert.assertEquals("https://api.test/next?cursor=x",
+                        pagination.getNextPage(url, url, 1, null, "/next?cursor=x", 10));
+    Assert.assertNull(pagination.getNextPage(url, url, 1, null, "", 10));
+    Assert.assertNull(pagination.getExpectedNextPage(url, url, 1, null));
+
+    config.nextPageTokenParameter = "cursor";
+    pagination = new Pagination(config);
+    Assert.assertEquals("https://api.test/items?q=a&cursor=abc",
+                        pagination.getNextPage(url, "https://api.test/items?q=a&cursor=xyz", 2, null, "abc", 10));
+  }
+
+  @Test
+  public void testStopsAtVisitedPage() {
+    Set<String> visited = new HashSet<>(Collections.singleton("https://api.test/a"));
+    Assert.assertEquals("https://api.test/b", Pagination.checkNotVisited("https://api.test/b", visited));
+    // b links back to a
+    Assert.assertNull(Pagination.checkNotVisited("https://api.test/a", visited));
+    Assert.assertNull(Pagination.checkNotVisited(null, visited));
+  }
+
+  @Test
+  public void testAdvancesOffset() {
+    HttpConfig config = config(Pagination.Type.OFFSET);
+    config.pageSize = 50;
+    config.offsetParameter = "start";
+    Pagination pagination = new Pagination(config);
+    String url = "https://api.test/items?q=a";
+
+    String first = pagination.getFirstPage(url);
+    Assert.assertEquals("https://api.test/items?q=a&start=0&limit=50", first);
+    Assert.assertEquals("https://api.test/items?q=a&start=50&limit=50", pagination.getExpectedNextPage(url, first, 1,
+                                                                                                     null));
+    Assert.assertEquals("https://api.test/items?q=a&start=100&limit=50",
+                        pagination.getNextPage(url, first, 2, null, null, 50));
+    // a short page is the last one
+    Assert.assertNull(pagination.getNextPage(url, first, 2, null, null, 49));
+  }
+
+  @Test
+  public void testRejectsUnknownType() {
+    try {
+      Pagination.Type.fromValue("cursor");
+      Assert.fail("Expected unknown pagination type to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    Assert.assertEquals(Pagination.Type.NONE, Pagination.Type.fromValue(null));
+  }
+}
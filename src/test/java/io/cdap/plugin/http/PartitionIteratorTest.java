@@ -0,0 +1,324 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.sun.net.httpserver.HttpServer;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link PartitionIterator} against a local server.
+ */
+public class PartitionIteratorTest {
+
+  private static final Gson GSON = new Gson();
+  private static final Schema INPUT = Schema.recordOf(
+    "input",
+    Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("id", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+  private static final Schema OUTPUT = Schema.recordOf(
+    "output",
+    Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("id", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("response", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  private HttpServer server;
+  // the keys of every request received by the server
+  private final List<List<String>> requests = new CopyOnWriteArrayList<>();
+  // the number of requests for an id still to be answered with 503
+  private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      List<String> ids;
+      if ("POST".equals(exchange.getRequestMethod())) {
+        ids = GSON.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8),
+                            new TypeToken<List<String>>() { }.getType());
+      } else {
+        String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery(), "UTF-8");
+        ids = Arrays.asList(query.substring(query.indexOf('=') + 1).split(","));
+      }
+      if (ids.contains("slow")) {
+        try {
+          Thread.sleep(3000);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      AtomicInteger remaining = ids.size() == 1 ? failures.get(ids.get(0)) : null;
+      if (remaining != null && remaining.getAndDecrement() > 0) {
+        exchange.sendResponseHeaders(503, -1);
+        exchange.close();
+        return;
+      }
+      requests.add(ids);
+      // answers in reverse order and without the element for 'missing'
+      List<Map<String, String>> elements = new ArrayList<>();
+      for (String id : ids) {
+        // 'many' has more elements than a request buffers
+        for (int i = "many".equals(id) ? 2500 : "missing".equals(id) ? 0 : 1; i > 0; i--) {
+          Map<String, String> element = new HashMap<>();
+          element.put("key", id);
+          element.put("name", "name-" + id);
+          elements.add(0, element);
+        }
+      }
+      byte[] body = GSON.toJson(Collections.singletonMap("results", elements)).getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    // lets the server answer other requests while it holds up a slow one
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private HttpConfig config() {
+    HttpConfig config = new HttpComputeConfig("url", OUTPUT.toString());
+    config.httpresponseField = "response";
+    config.fieldMappings = "name:$.name";
+    config.arrayPath = "$.results";
+    config.batchSize = 2;
+    config.batchKeyField = "id";
+    config.batchResponseKeyPath = "$.key";
+    return config;
+  }
+
+  /**
+   * @return a config that sends one request per record, without retrying failed requests right away
+   */
+  private HttpConfig unbatchedConfig() {
+    HttpConfig config = config();
+    config.batchSize = 1;
+    config.batchKeyField = null;
+    config.maxRetries = 0;
+    config.retryInitialDelay = 1L;
+    return config;
+  }
+
+  /**
+   * @return records with the id in the query of their URL, for requests that are not batched
+   */
+  private Iterator<StructuredRecord> unbatchedInput(String... ids) {
+    String url = "http://localhost:" + server.getAddress().getPort() + "/lookup?id=";
+    List<StructuredRecord> records = new ArrayList<>();
+    for (String id : ids) {
+      records.add(StructuredRecord.builder(INPUT).set("url", url + id).set("id", id).build());
+    }
+    return records.iterator();
+  }
+
+  private Iterator<StructuredRecord> input(String... ids) {
+    String url = "http://localhost:" + server.getAddress().getPort() + "/lookup";
+    List<StructuredRecord> records = new ArrayList<>();
+    for (String id : ids) {
+      records.add(StructuredRecord.builder(INPUT).set("url", url).set("id", id).build());
+    }
+    return records.iterator();
+  }
+
+  private static Map<String, StructuredRecord> run(PartitionIterator iterator) {
+    Map<String, StructuredRecord> output = new HashMap<>();
+    while (iterator.hasNext()) {
+      StructuredRecord record = iterator.next();
+      output.put(record.get("id"), record);
+    }
+    return output;
+  }
+
+  @Test
+  public void testBatchesByKeyAndFlushesAtEnd() throws IOException {
+    Map<String, StructuredRecord> output = run(new PartitionIterator(input("a", "b", "c", "missing", "e"), config()));
+
+    Assert.assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "missing"),
+                                      Collections.singletonList("e")), requests);
+    Assert.assertEquals(5, output.size());
+    for (String id : Arrays.asList("a", "b", "c", "e")) {
+      Assert.assertEquals("name-" + id, output.get(id).get("name"));
+      Assert.assertNull(output.get(id).get("response"));
+    }
+    Assert.assertNull(output.get("missing").get("name"));
+    Assert.assertTrue(output.get("missing").<String>get("response").contains("404"));
+  }
+
+  @Test
+  public void testSendsTimedOutBatchWhileInputWaits() throws IOException {
+    HttpConfig config = config();
+    config.batchTimeout = 50L;
+    Iterator<StructuredRecord> records = input("a");
+    // an input that holds back its end until the server received a request
+    Iterator<StructuredRecord> input = new Iterator<StructuredRecord>() {
+      @Override
+      public boolean hasNext() {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!records.hasNext() && requests.isEmpty() && System.nanoTime() < end) {
+          try {
+            Thread.sleep(10);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+        return records.hasNext();
+      }
+
+      @Override
+      public StructuredRecord next() {
+        return records.next();
+      }
+    };
+    long start = System.nanoTime();
+    Map<String, StructuredRecord> output = run(new PartitionIterator(input, config));
+
+    Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+    Assert.assertEquals(Collections.singletonList(Collections.singletonList("a")), requests);
+    Assert.assertEquals("name-a", output.get("a").get("name"));
+  }
+
+  @Test
+  public void testPostsJsonArrayAndMatchesByPosition() throws IOException {
+    HttpConfig config = config();
+    config.batchMode = HttpConfig.BatchMode.JSON_ARRAY.getValue();
+    config.batchResponseKeyPath = null;
+    config.batchSize = 3;
+    Map<String, StructuredRecord> output = run(new PartitionIterator(input("a", "b", "c"), config));
+
+    Assert.assertEquals(Collections.singletonList(Arrays.asList("a", "b", "c")), requests);
+    // the server answers in reverse order, which matching by position cannot know about
+    Assert.assertEquals("name-c", output.get("a").get("name"));
+    Assert.assertEquals("name-a", output.get("c").get("name"));
+  }
+
+  @Test
+  public void testRetriesDeferredFailuresAfterOtherRecords() throws IOException {
+    HttpConfig config = unbatchedConfig();
+    config.deferredRetries = 2;
+    failures.put("a", new AtomicInteger(2));
+    failures.put("b", new AtomicInteger(1));
+    Map<String, StructuredRecord> output = run(new PartitionIterator(unbatchedInput("a", "b", "c"), config));
+
+    // a and b fail and c succeeds, a fails again in the first round and succeeds in the second
+    Assert.assertEquals(Arrays.asList(Collections.singletonList("c"), Collections.singletonList("b"),
+                                      Collections.singletonList("a")), requests);
+    for (String id : Arrays.asList("a", "b", "c")) {
+      Assert.assertEquals("name-" + id, output.get(id).get("name"));
+      Assert.assertNull(output.get(id).get("response"));
+    }
+  }
+
+  @Test
+  public void testHandlesFailuresInLastRound() throws IOException {
+    HttpConfig config = unbatchedConfig();
+    config.deferredRetries = 1;
+    failures.put("a", new AtomicInteger(2));
+    Map<String, StructuredRecord> output = run(new PartitionIterator(unbatchedInput("a", "b"), config));
+
+    // b succeeds right away, a fails in every round and is written to the response field
+    Assert.assertEquals(Collections.singletonList(Collections.singletonList("b")), requests);
+    Assert.assertEquals("name-b", output.get("b").get("name"));
+    Assert.assertNull(output.get("a").get("name"));
+    Assert.assertTrue(output.get("a").<String>get("response").contains("\"code\":\"503\""));
+  }
+
+  @Test
+  public void testSkipsFailures() throws IOException {
+    HttpConfig config = unbatchedConfig();
+    config.onError = HttpConfig.OnError.SKIP.getValue();
+    failures.put("a", new AtomicInteger(1));
+    Map<String, StructuredRecord> output = run(new PartitionIterator(unbatchedInput("a", "b"), config));
+
+    Assert.assertEquals(Collections.singleton("b"), output.keySet());
+  }
+
+  @Test
+  public void testFailsRemainingRecordsAfterDeadline() throws IOException {
+    HttpConfig config = unbatchedConfig();
+    config.deadline = 1L;
+    long start = System.nanoTime();
+    Map<String, StructuredRecord> output = run(new PartitionIterator(unbatchedInput("a", "slow", "b"), config));
+
+    // the slow request is aborted at the deadline and b is not sent at all
+    Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(2500));
+    Assert.assertEquals(Collections.singletonList(Collections.singletonList("a")), requests);
+    Assert.assertEquals("name-a", output.get("a").get("name"));
+    Assert.assertTrue(output.get("slow").<String>get("response").contains("\"code\":\"408\""));
+    Assert.assertTrue(output.get("b").<String>get("response").contains("\"code\":\"408\""));
+  }
+
+  @Test
+  public void testStreamsLargeResponsesInOrder() throws IOException {
+    HttpConfig config = unbatchedConfig();
+    config.maxConcurrentRequests = 2;
+    List<String> ids = new ArrayList<>();
+    try (PartitionIterator iterator = new PartitionIterator(unbatchedInput("many", "a", "many"), config)) {
+      while (iterator.hasNext()) {
+        ids.add(iterator.next().get("id"));
+      }
+    }
+
+    Assert.assertEquals(5001, ids.size());
+    Assert.assertEquals(Collections.nCopies(2500, "many"), ids.subList(0, 2500));
+    Assert.assertEquals("a", ids.get(2500));
+    Assert.assertEquals(Collections.nCopies(2500, "many"), ids.subList(2501, 5001));
+  }
+
+  @Test
+  public void testCloseStopsRequestsWaitingForConsumer() throws IOException {
+    HttpConfig config = unbatchedConfig();
+    config.maxConcurrentRequests = 2;
+    long start = System.nanoTime();
+    PartitionIterator iterator = new PartitionIterator(unbatchedInput("many", "many"), config);
+    Assert.assertEquals("many", iterator.next().get("id"));
+    // both requests are blocked on their full buffers until the iterator is closed
+    iterator.close();
+    Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+  }
+}
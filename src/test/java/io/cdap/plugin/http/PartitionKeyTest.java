@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PartitionKey} and the partitioning options of {@link HttpComputeConfig}.
+ */
+public class PartitionKeyTest {
+
+  private static final Schema INPUT = Schema.recordOf(
+    "input",
+    Schema.Field.of("url", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("id", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("program", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+  private static final Schema OUTPUT = Schema.recordOf(
+    "output",
+    Schema.Field.of("url", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("response", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  private static HttpComputeConfig config(String partitionBy) {
+    return config("url", partitionBy);
+  }
+
+  private static HttpComputeConfig config(String urlField, String partitionBy) {
+    HttpComputeConfig config = new HttpComputeConfig(urlField, OUTPUT.toString());
+    config.httpresponseField = "response";
+    config.partitionBy = partitionBy;
+    return config;
+  }
+
+  private static StructuredRecord record(String url, String program) {
+    return StructuredRecord.builder(INPUT).set("url", url).set("id", "7").set("program", program).build();
+  }
+
+  @Test
+  public void testKeysByHost() {
+    PartitionKey key = new PartitionKey(config("host"));
+
+    Assert.assertEquals("api.example.com", key.getKey(record("https://API.example.com/items/1?a=b", "291")));
+    Assert.assertEquals("api.example.com:8443", key.getKey(record("https://api.example.com:8443/items/2", "291")));
+    Assert.assertNull(key.getKey(record("not a url", "291")));
+    Assert.assertNull(key.getKey(record(null, "291")));
+    // the path, the query and the tenant do not matter
+    Assert.assertEquals(key.getKey(record("http://a.example.com/1", "291")),
+                        key.getKey(record("http://a.example.com/2?page=3", "415")));
+  }
+
+  @Test
+  public void testKeysByRenderedUrlTemplate() {
+    HttpComputeConfig config = config(null, "host");
+    config.urlTemplate = "https://${program}.example.com/items/${id}";
+    PartitionKey key = new PartitionKey(config);
+
+    Assert.assertEquals("291.example.com", key.getKey(record(null, "291")));
+    Assert.assertEquals("415.example.com", key.getKey(record(null, "415")));
+  }
+
+  @Test
+  public void testKeysByAuthLookup() {
+    HttpComputeConfig config = config("authLookup");
+    config.authLookup = "program";
+    PartitionKey key = new PartitionKey(config);
+
+    Assert.assertEquals("291", key.getKey(record("http://a.example.com/1", "291")));
+    Assert.assertEquals("291", key.call(record("http://b.example.com/1", "291"))._1());
+    Assert.assertNull(key.getKey(record("http://a.example.com/1", null)));
+  }
+
+  @Test
+  public void testValidatesPartitioning() {
+    config(null).validate(INPUT);
+    config("host").validate(INPUT);
+    HttpComputeConfig config = config("authLookup");
+    config.authLookup = "program";
+    config.validate(INPUT);
+
+    assertInvalid(config("tenant"));
+    assertInvalid(config("authLookup"));
+    config = config("authLookup");
+    config.authLookup = "missing";
+    assertInvalid(config);
+  }
+
+  private static void assertInvalid(HttpComputeConfig config) {
+    try {
+      config.validate(INPUT);
+      Assert.fail("Expected the config to be invalid");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
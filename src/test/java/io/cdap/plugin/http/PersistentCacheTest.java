@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.sun.net.httpserver.HttpServer;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tests for {@link PersistentCache}.
+ */
+public class PersistentCacheTest {
+
+  private static final Schema SCHEMA = Schema.recordOf(
+    "record",
+    Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("response", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private HttpServer server;
+  // the If-None-Match header of every request, or an empty string if there was none
+  private final List<String> conditions = new CopyOnWriteArrayList<>();
+  private volatile String version = "v1";
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+      conditions.add(condition == null ? "" : condition);
+      String eTag = "\"" + version + "\"";
+      exchange.getResponseHeaders().add("ETag", eTag);
+      if (eTag.equals(condition)) {
+        exchange.sendResponseHeaders(304, -1);
+      } else {
+        byte[] body = ("body " + version).getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+      exchange.close();
+    });
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private PersistentCache cache() throws IOException {
+    return new PersistentCache(FileSystem.getLocal(new Configuration()),
+                               new Path(temporaryFolder.getRoot().getAbsolutePath()));
+  }
+
+  @Test
+  public void testStoresResponsesWithValidators() throws IOException {
+    PersistentCache cache = cache();
+    HttpResult result = new HttpResult(200, "body".getBytes(StandardCharsets.UTF_8), "<http://host/b>; rel=\"next\"");
+    cache.put("http://host/a", result, "\"abc\"", "Wed, 21 Oct 2015 07:28:00 GMT");
+    cache.put("http://host/b", result, null, null);
+    cache.put("http://host/c", new HttpResult(404, null), "\"abc\"", null);
+
+    // read by a new instance, as in a later run
+    PersistentCache.Entry entry = cache().get("http://host/a");
+    Assert.assertNotNull(entry);
+    Assert.assertEquals("body", entry.getResult().getBodyAsString());
+    Assert.assertEquals(result.getLink(), entry.getResult().getLink());
+    Assert.assertEquals("\"abc\"", entry.getETag());
+    Assert.assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", entry.getLastModified());
+    Assert.assertNull(cache.get("http://host/b"));
+    Assert.assertNull(cache.get("http://host/c"));
+    Assert.assertEquals(1, cache.getStored());
+
+    // a later response replaces the stored one
+    cache.put("http://host/a", new HttpResult(200, new byte[0]), null, "Thu, 22 Oct 2015 07:28:00 GMT");
+    Assert.assertNull(cache.get("http://host/a").getETag());
+  }
+
+  @Test
+  public void testRevalidatesAcrossRuns() throws Exception {
+    HttpConfig config = new HttpConfig("url", SCHEMA.toString());
+    config.httpresponseField = "response";
+    config.persistentCacheDir = temporaryFolder.getRoot().getAbsolutePath();
+    StructuredRecord input = StructuredRecord.builder(SCHEMA)
+      .set("url", "http://localhost:" + server.getAddress().getPort() + "/items").build();
+
+    Assert.assertEquals("body v1", process(config, input));
+    // an unchanged response is served from the cache, a changed one replaces it
+    Assert.assertEquals("body v1", process(config, input));
+    version = "v2";
+    Assert.assertEquals("body v2", process(config, input));
+    Assert.assertEquals("body v2", process(config, input));
+
+    Assert.assertEquals(4, conditions.size());
+    Assert.assertEquals("", conditions.get(0));
+    Assert.assertEquals("\"v1\"", conditions.get(1));
+    Assert.assertEquals("\"v1\"", conditions.get(2));
+    Assert.assertEquals("\"v2\"", conditions.get(3));
+  }
+
+  /**
+   * Processes the record with a new processor, as a new pipeline run would.
+   */
+  private static String process(HttpConfig config, StructuredRecord input) throws Exception {
+    RecordCollector collector = new RecordCollector();
+    try (RecordProcessor processor = new RecordProcessor(config)) {
+      processor.process(input, collector);
+    }
+    return collector.getRecords().get(0).get("response");
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link RateLimiter}.
+ */
+public class RateLimiterTest {
+
+  @Test
+  public void testBurstThenRate() throws InterruptedException {
+    RateLimiter limiter = new RateLimiter(20, 5);
+    long start = System.nanoTime();
+    for (int i = 0; i < 5; i++) {
+      limiter.acquire("host");
+    }
+    Assert.assertTrue(elapsedMillis(start) < 100);
+
+    // the next 10 requests need 10 new tokens at 20 per second
+    for (int i = 0; i < 10; i++) {
+      limiter.acquire("host");
+    }
+    long elapsed = elapsedMillis(start);
+    Assert.assertTrue("Took " + elapsed + " ms", elapsed >= 450 && elapsed < 2000);
+  }
+
+  @Test
+  public void testHostsAreIndependent() throws InterruptedException {
+    RateLimiter limiter = new RateLimiter(1, 1);
+    long start = System.nanoTime();
+    limiter.acquire("a");
+    limiter.acquire("b");
+    limiter.acquire("c");
+    Assert.assertTrue(elapsedMillis(start) < 500);
+  }
+
+  @Test
+  public void testGivesUpAtDeadlineWithoutTakingToken() throws InterruptedException {
+    RateLimiter limiter = new RateLimiter(2, 1);
+    limiter.acquire("host");
+    long start = System.nanoTime();
+    // the next token is due in 500 ms
+    Assert.assertFalse(limiter.acquire("host", start + TimeUnit.MILLISECONDS.toNanos(100)));
+    Assert.assertTrue(elapsedMillis(start) < 100);
+    // the request that gave up did not push the next one back
+    Assert.assertTrue(limiter.acquire("host", start + TimeUnit.SECONDS.toNanos(5)));
+    long elapsed = elapsedMillis(start);
+    Assert.assertTrue("Took " + elapsed + " ms", elapsed >= 400 && elapsed < 1000);
+  }
+
+  private static long elapsedMillis(long start) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link RequestCoalescer}.
+ */
+public class RequestCoalescerTest {
+
+  private static final int CALLERS = 8;
+
+  @Test
+  public void testSharesResult() throws Exception {
+    RequestCoalescer coalescer = new RequestCoalescer();
+    AtomicInteger calls = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    HttpResult expected = new HttpResult(200, "body".getBytes(StandardCharsets.UTF_8));
+
+    List<Future<HttpResult>> results = runConcurrently(coalescer, () -> {
+      calls.incrementAndGet();
+      await(release);
+      return expected;
+    }, release);
+
+    for (Future<HttpResult> result : results) {
+      Assert.assertSame(expected, result.get());
+    }
+    Assert.assertEquals(1, calls.get());
+    Assert.assertEquals(CALLERS - 1, coalescer.getCoalesced());
+  }
+
+  @Test
+  public void testSharesFailure() throws Exception {
+    RequestCoalescer coalescer = new RequestCoalescer();
+    AtomicInteger calls = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+
+    List<Future<HttpResult>> results = runConcurrently(coalescer, () -> {
+      calls.incrementAndGet();
+      await(release);
+      throw new IOException("connection reset");
+    }, release);
+
+    for (Future<HttpResult> result : results) {
+      try {
+        result.get();
+        Assert.fail("Expected the shared failure");
+      } catch (Exception e) {
+        Assert.assertTrue(e.getCause() instanceof IOException);
+        Assert.assertEquals("connection reset", e.getCause().getMessage());
+      }
+    }
+    Assert.assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testSequentialCallsAreNotShared() throws IOException {
+    RequestCoalescer coalescer = new RequestCoalescer();
+    AtomicInteger calls = new AtomicInteger();
+    for (int i = 0; i < 3; i++) {
+      coalescer.execute("key", () -> new HttpResult(200, new byte[calls.incrementAndGet()]));
+    }
+    Assert.assertEquals(3, calls.get());
+    Assert.assertEquals(0, coalescer.getCoalesced());
+  }
+
+  private static List<Future<HttpResult>> runConcurrently(RequestCoalescer coalescer, RequestCoalescer.Call call,
+                                                          CountDownLatch release) throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+    CountDownLatch started = new CountDownLatch(CALLERS);
+    List<Future<HttpResult>> results = new ArrayList<>();
+    try {
+      for (int i = 0; i < CALLERS; i++) {
+        results.add(executor.submit(() -> {
+          started.countDown();
+          return coalescer.execute("http://host/a", call);
+        }));
+      }
+      started.await();
+      // give every caller the chance to attach to the first call before it completes
+      TimeUnit.MILLISECONDS.sleep(200);
+      release.countDown();
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+    return results;
+  }
+
+  private static void await(CountDownLatch latch) throws IOException {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+}
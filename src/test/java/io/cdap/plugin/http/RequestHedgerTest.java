@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.sun.net.httpserver.HttpServer;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link RequestHedger} through the {@link HttpClient}.
+ */
+public class RequestHedgerTest {
+
+  private static final Schema SCHEMA = Schema.recordOf(
+    "output",
+    Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("response", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  private HttpServer server;
+  private final AtomicInteger requests = new AtomicInteger();
+  // the requests up to this number are answered after the slow delay
+  private volatile int slowRequests;
+  private volatile long slowMillis = 2000;
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      int request = requests.incrementAndGet();
+      if (request <= slowRequests) {
+        try {
+          Thread.sleep(slowMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      byte[] body = ("response " + request).getBytes(StandardCharsets.UTF_8);
+      try {
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      } catch (IOException e) {
+        // the client aborted the request
+      }
+    });
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private String url() {
+    return "http://localhost:" + server.getAddress().getPort() + "/items";
+  }
+
+  private static HttpConfig config(String hedgeDelay) {
+    HttpConfig config = new HttpConfig("url", SCHEMA.toString());
+    config.httpresponseField = "response";
+    config.hedgeDelay = hedgeDelay;
+    return config;
+  }
+
+  private static String get(HttpClient client, String url) throws IOException {
+    return client.execute(new HttpGet(url), response -> EntityUtils.toString(response.getEntity()),
+                          HttpClientContext.create());
+  }
+
+  @Test
+  public void testSlowRequestIsHedged() throws IOException {
+    slowRequests = 1;
+    try (HttpClient client = new HttpClient(config("100"))) {
+      long start = System.nanoTime();
+      // the hedge, request 2, answers long before the first request
+      Assert.assertEquals("response 2", get(client, url()));
+      Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(slowMillis));
+      // a fast request is not hedged
+      Assert.assertEquals("response 3", get(client, url()));
+    }
+    Assert.assertEquals(3, requests.get());
+  }
+
+  @Test
+  public void testHedgesAreBudgeted() throws IOException {
+    slowRequests = Integer.MAX_VALUE;
+    slowMillis = 50;
+    HttpConfig config = config("1");
+    config.hedgeMaxPercent = 10.0;
+    try (HttpClient client = new HttpClient(config)) {
+      for (int i = 0; i < 40; i++) {
+        get(client, url());
+      }
+    }
+    // 10 hedges of the initial budget, and one per 10 requests after that
+    Assert.assertTrue(requests.get() <= 40 + 10 + 4);
+    Assert.assertTrue(requests.get() > 40);
+  }
+
+  @Test
+  public void testOnlyGetIsHedged() throws IOException {
+    slowRequests = 1;
+    slowMillis = 300;
+    try (HttpClient client = new HttpClient(config("10"))) {
+      client.execute(new HttpPost(url()), response -> null, HttpClientContext.create());
+    }
+    Assert.assertEquals(1, requests.get());
+  }
+
+  @Test
+  public void testDelayFollowsObservedLatency() throws IOException {
+    RequestHedger hedger = new RequestHedger(-1, 95, 5);
+    try (HttpClient client = new HttpClient(config(null))) {
+      Assert.assertTrue(hedger.getDelayNanos() < 0);
+      for (int i = 0; i < 30; i++) {
+        hedger.execute(new HttpGet(url()), (request, handler) -> client.execute(request, handler,
+                                                                               HttpClientContext.create()),
+                       response -> null);
+      }
+      Assert.assertTrue(hedger.getDelayNanos() > 0);
+      Assert.assertTrue(hedger.getDelayNanos() < TimeUnit.SECONDS.toNanos(1));
+    } finally {
+      hedger.close();
+    }
+  }
+
+  @Test
+  public void testValidatesHedgeDelay() {
+    config("p95").validate(SCHEMA);
+    config("250").validate(SCHEMA);
+    HttpConfig config = config(" P99.5 ");
+    config.validate(SCHEMA);
+    Assert.assertEquals(-1, config.getHedgeDelay());
+    Assert.assertEquals(99.5, config.getHedgePercentile(), 0);
+    for (String delay : new String[] {"p100", "-5", "fast"}) {
+      try {
+        config(delay).validate(SCHEMA);
+        Assert.fail("Expected hedge delay " + delay + " to be invalid");
+      } catch (IllegalArgumentException e) {
+        Assert.assertTrue(e.getMessage().contains("edge delay"));
+      }
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import com.sun.net.httpserver.HttpServer;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link RequestTemplate}.
+ */
+public class RequestTemplateTest {
+
+  private static final Schema INPUT = Schema.recordOf(
+    "input",
+    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+    Schema.Field.of("type", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  private static final Schema REQUEST = Schema.recordOf(
+    "request",
+    Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("name", Schema.of(Schema.Type.STRING)));
+  private static final Schema OUTPUT = Schema.recordOf(
+    "output",
+    Schema.Field.of("url", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("response", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  private static StructuredRecord record(String type, String name) {
+    return StructuredRecord.builder(INPUT).set("id", 42L).set("type", type).set("name", name).build();
+  }
+
+  @Test
+  public void testRendersUrl() {
+    RequestTemplate template = RequestTemplate.compile("https://api.test/x/${id}?t=${ type }&n=${name}",
+                                                       RequestTemplate.Escaping.URL);
+    Assert.assertEquals(Arrays.asList("id", "type", "name"), template.getFields());
+    Assert.assertEquals("https://api.test/x/42?t=a%2Fb%26c&n=J%C3%BCrgen%20S",
+                        template.render(record("a/b&c", "Jürgen S")));
+    // null values render as empty strings, and the buffer is reused between records
+    Assert.assertEquals("https://api.test/x/42?t=&n=", template.render(record(null, null)));
+  }
+
+  @Test
+  public void testRendersJsonBody() throws IOException {
+    RequestTemplate template = RequestTemplate.compile("{\"id\": ${id}, \"name\": \"${name}\"}",
+                                                       RequestTemplate.Escaping.JSON);
+    ByteArrayEntity entity = template.renderEntity(record(null, "say \"hi\"\n\\"), ContentType.APPLICATION_JSON);
+    Assert.assertTrue(entity.isRepeatable());
+    Assert.assertEquals("{\"id\": 42, \"name\": \"say \\\"hi\\\"\\n\\\\\"}", EntityUtils.toString(entity));
+    Assert.assertEquals(entity.getContentLength(), EntityUtils.toByteArray(entity).length);
+  }
+
+  @Test
+  public void testEncodesBodyWithContentTypeCharset() throws IOException {
+    RequestTemplate template = RequestTemplate.compile("name=${name}", RequestTemplate.Escaping.NONE);
+    ByteArrayEntity latin = template.renderEntity(record(null, "Jürgen"),
+                                                  ContentType.create("text/plain", StandardCharsets.ISO_8859_1));
+    Assert.assertArrayEquals("name=Jürgen".getBytes(StandardCharsets.ISO_8859_1), EntityUtils.toByteArray(latin));
+    // without a charset the body is UTF-8
+    ByteArrayEntity utf8 = template.renderEntity(record(null, "Jürgen"), ContentType.create("text/plain"));
+    Assert.assertArrayEquals("name=Jürgen".getBytes(StandardCharsets.UTF_8), EntityUtils.toByteArray(utf8));
+  }
+
+  @Test
+  public void testRendersRawReferencesWithoutEscaping() throws IOException {
+    RequestTemplate url = RequestTemplate.compile("https://api.test/${raw:type}?n=${name}&${ raw: name }",
+                                                  RequestTemplate.Escaping.URL);
+    Assert.assertEquals(Arrays.asList("type", "name"), url.getFields());
+    Assert.assertEquals("https://api.test/a/b?c=1?n=x%3Dy%26z&x=y&z", url.render(record("a/b?c=1", "x=y&z")));
+
+    RequestTemplate body = RequestTemplate.compile("{\"filter\": ${raw:type}, \"name\": \"${name}\"}",
+                                                   RequestTemplate.Escaping.JSON);
+    Assert.assertEquals("{\"filter\": {\"a\": \"b\"}, \"name\": \"\\\"\"}",
+                        EntityUtils.toString(body.renderEntity(record("{\"a\": \"b\"}", "\""),
+                                                               ContentType.APPLICATION_JSON)));
+  }
+
+  @Test
+  public void testPostSucceedsWithCreated() throws Exception {
+    HttpServer server = startServer();
+    try {
+      HttpConfig config = config(server);
+      config.httpMethod = "POST";
+      config.requestBody = "{\"name\": \"${name}\"}";
+      RecordCollector collector = process(config, server);
+      Assert.assertTrue(collector.getErrors().isEmpty());
+      Assert.assertEquals("{\"name\": \"n\"}", collector.getRecords().get(0).get("response"));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testDeleteSucceedsWithNoContent() throws Exception {
+    HttpServer server = startServer();
+    try {
+      HttpConfig config = config(server);
+      config.httpMethod = "DELETE";
+      RecordCollector collector = process(config, server);
+      Assert.assertTrue(collector.getErrors().isEmpty());
+      Assert.assertEquals("", collector.getRecords().get(0).get("response"));
+
+      // projected straight from the response, which has no body
+      config.fieldMappings = "response:$.name";
+      collector = process(config, server);
+      Assert.assertTrue(collector.getErrors().isEmpty());
+      Assert.assertEquals(1, collector.getRecords().size());
+      Assert.assertNull(collector.getRecords().get(0).get("response"));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /**
+   * Starts a server that answers POST requests with 201 Created and the request body, and DELETE requests with 204
+   * No Content.
+   */
+  private static HttpServer startServer() throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      if ("POST".equals(exchange.getRequestMethod())) {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int read = exchange.getRequestBody().read(buffer); read >= 0;
+             read = exchange.getRequestBody().read(buffer)) {
+          request.write(buffer, 0, read);
+        }
+        byte[] body = request.toByteArray();
+        exchange.sendResponseHeaders(201, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      } else {
+        exchange.sendResponseHeaders("DELETE".equals(exchange.getRequestMethod()) ? 204 : 405, -1);
+      }
+      exchange.close();
+    });
+    server.start();
+    return server;
+  }
+
+  private static HttpConfig config(HttpServer server) {
+    HttpConfig config = new HttpConfig("url", OUTPUT.toString());
+    config.httpresponseField = "response";
+    config.onError = HttpConfig.OnError.SEND_TO_ERROR_PORT.getValue();
+    return config;
+  }
+
+  private static RecordCollector process(HttpConfig config, HttpServer server) throws Exception {
+    RecordCollector collector = new RecordCollector();
+    try (RecordProcessor processor = new RecordProcessor(config)) {
+      processor.process(StructuredRecord.builder(REQUEST)
+                          .set("url", "http://localhost:" + server.getAddress().getPort() + "/items/42")
+                          .set("name", "n").build(), collector);
+    }
+    return collector;
+  }
+
+  @Test
+  public void testLiteralOnly() {
+    Assert.assertEquals("https://api.test/x",
+                        RequestTemplate.compile("https://api.test/x", RequestTemplate.Escaping.URL)
+                          .render(record(null, null)));
+  }
+
+  @Test
+  public void testRejectsInvalidReferences() {
+    for (String template : Arrays.asList("https://api.test/${id", "https://api.test/${ }",
+                                         "https://api.test/${raw:}")) {
+      try {
+        RequestTemplate.compile(template, RequestTemplate.Escaping.URL);
+        Assert.fail("Expected template " + template + " to be rejected");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+}
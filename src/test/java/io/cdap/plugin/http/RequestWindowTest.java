@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link RequestWindow}.
+ */
+public class RequestWindowTest {
+
+  @Test
+  public void testEmitsAsCompleted() throws Exception {
+    CountDownLatch slowRelease = new CountDownLatch(1);
+    List<String> results = new ArrayList<>();
+    try (RequestWindow<String> window = new RequestWindow<>(2)) {
+      window.submit(() -> {
+        slowRelease.await();
+        return "slow";
+      }, results::add);
+      window.submit(() -> "fast", results::add);
+      // the fast result is delivered while the slow one is still in flight
+      Assert.assertTrue(window.awaitOne(results::add));
+      Assert.assertEquals(Collections.singletonList("fast"), results);
+      slowRelease.countDown();
+      awaitAll(window, results::add);
+    }
+    Assert.assertEquals(Arrays.asList("fast", "slow"), results);
+  }
+
+  @Test
+  public void testBoundsInFlightRequests() throws Exception {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    List<Integer> results = new ArrayList<>();
+    try (RequestWindow<Integer> window = new RequestWindow<>(3)) {
+      for (int i = 0; i < 30; i++) {
+        window.submit(() -> {
+          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+          TimeUnit.MILLISECONDS.sleep(5);
+          running.decrementAndGet();
+          return 1;
+        }, results::add);
+        Assert.assertTrue(window.inFlight() <= 3);
+      }
+      awaitAll(window, results::add);
+    }
+    Assert.assertEquals(30, results.size());
+    Assert.assertTrue(maxRunning.get() <= 3);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testPropagatesFailure() throws Exception {
+    try (RequestWindow<Integer> window = new RequestWindow<>(2)) {
+      window.submit(() -> {
+        throw new IllegalStateException("failed");
+      }, result -> { });
+      awaitAll(window, result -> { });
+    }
+  }
+
+  private static <R> void awaitAll(RequestWindow<R> window, RequestWindow.Sink<R> sink) throws Exception {
+    while (window.awaitOne(sink)) {
+      // keep delivering until the window is empty
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link ResponseCache}.
+ */
+public class ResponseCacheTest {
+
+  private static HttpResult result(int statusCode, String body) {
+    return new HttpResult(statusCode, body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    ResponseCache cache = new ResponseCache(2, Long.MAX_VALUE, 60, 0);
+    cache.put("a", result(200, "1"));
+    cache.put("b", result(200, "2"));
+    // touch a so that b becomes the eldest
+    Assert.assertNotNull(cache.get("a"));
+    cache.put("c", result(200, "3"));
+
+    Assert.assertNull(cache.get("b"));
+    Assert.assertEquals("1", cache.get("a").getBodyAsString());
+    Assert.assertEquals("3", cache.get("c").getBodyAsString());
+    Assert.assertEquals(1, cache.getEvictions());
+    Assert.assertEquals(3, cache.getHits());
+    Assert.assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testBoundsTotalSize() {
+    ResponseCache cache = new ResponseCache(100, 20, 60, 0);
+    cache.put("a", result(200, "0123456789"));
+    cache.put("b", result(200, "0123456789"));
+    Assert.assertEquals(1, cache.size());
+    Assert.assertNull(cache.get("a"));
+    Assert.assertTrue(cache.getTotalBytes() <= 20);
+
+    // larger than the whole cache
+    cache.put("c", result(200, "0123456789012345678901234567890123456789"));
+    Assert.assertNull(cache.get("c"));
+  }
+
+  @Test
+  public void testCachesOnlySuccessAndNotFound() {
+    ResponseCache cache = new ResponseCache(10, Long.MAX_VALUE, 60, 60);
+    cache.put("ok", result(200, "body"));
+    cache.put("missing", result(404, ""));
+    cache.put("error", result(500, ""));
+    Assert.assertNotNull(cache.get("ok"));
+    Assert.assertEquals(404, cache.get("missing").getStatusCode());
+    Assert.assertNull(cache.get("error"));
+
+    ResponseCache noNegative = new ResponseCache(10, Long.MAX_VALUE, 60, 0);
+    noNegative.put("missing", result(404, ""));
+    Assert.assertNull(noNegative.get("missing"));
+  }
+
+  @Test
+  public void testExpiresEntries() throws InterruptedException {
+    ResponseCache cache = new ResponseCache(10, Long.MAX_VALUE, 1, 0);
+    cache.put("a", result(200, "1"));
+    Assert.assertNotNull(cache.get("a"));
+    TimeUnit.MILLISECONDS.sleep(1100);
+    Assert.assertNull(cache.get("a"));
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testKeyIncludesAuthLookup() {
+    Assert.assertNotEquals(ResponseCache.key("http://host/a", "291"), ResponseCache.key("http://host/a", "415"));
+    Assert.assertEquals("http://host/a", ResponseCache.key("http://host/a", null));
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.http;
+
+import org.apache.http.client.utils.DateUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link RetryPolicy}.
+ */
+public class RetryPolicyTest {
+
+  @Test
+  public void testJitteredExponentialDelay() {
+    RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+    for (int i = 0; i < 100; i++) {
+      Assert.assertTrue(policy.getDelay(1, null) <= 100);
+      Assert.assertTrue(policy.getDelay(3, null) <= 400);
+      Assert.assertTrue(policy.getDelay(40, null) <= 1000);
+    }
+  }
+
+  @Test
+  public void testHonorsRetryAfter() {
+    RetryPolicy policy = new RetryPolicy(3, 100, 5000);
+    Assert.assertEquals(2000, policy.getDelay(1, "2"));
+    Assert.assertEquals(-1, policy.getDelay(1, "10"));
+
+    long delay = policy.getDelay(1, DateUtils.formatDate(new Date(System.currentTimeMillis() + 3000)));
+    Assert.assertTrue(delay > 1000 && delay <= 3000);
+    Assert.assertEquals(Long.valueOf(0), RetryPolicy.parseRetryAfter("-5"));
+    Assert.assertNull(RetryPolicy.parseRetryAfter("soon"));
+  }
+
+  @Test
+  public void testRetryableStatusCodes() {
+    Assert.assertTrue(RetryPolicy.isRetryable(429));
+    Assert.assertTrue(RetryPolicy.isRetryable(503));
+    Assert.assertFalse(RetryPolicy.isRetryable(404));
+    Assert.assertFalse(RetryPolicy.isRetryable(501));
+    Assert.assertEquals(TimeUnit.SECONDS.toMillis(1), (long) RetryPolicy.parseRetryAfter(" 1 "));
+  }
+}